@@ -0,0 +1,80 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Scalagmite application executed in a background thread so that
+ * benchmarks can send messages to its agents from the benchmark threads.
+ * <p>
+ * Configuration properties must be set as system properties before the
+ * application is created.
+ */
+public class BenchmarkApplication {
+
+  private final Scalagmite scalagmite = new Scalagmite();
+
+  private final List<AbstractAgent> agents = new ArrayList<AbstractAgent>();
+
+  private Thread mainThread;
+
+  private volatile Exception error;
+
+  public static void configure(String schedulerMode, String mailbox) {
+    System.setProperty("scheduler.mode", schedulerMode);
+    System.setProperty("agent.mailbox", mailbox);
+  }
+
+  public void register(AbstractAgent agent, boolean unique)
+      throws ScalagmiteException {
+    agent.setup();
+    scalagmite.register(agent, unique);
+    agents.add(agent);
+  }
+
+  public void start() {
+    mainThread = new Thread("Scalagmite") {
+      @Override
+      public void run() {
+        try {
+          scalagmite.main();
+        } catch (Exception e) {
+          error = e;
+        }
+      }
+    };
+    mainThread.start();
+  }
+
+  public void stop() throws Exception {
+    for (AbstractAgent agent : agents) {
+      agent.stop();
+    }
+    mainThread.join();
+    if (error != null) {
+      throw error;
+    }
+  }
+}
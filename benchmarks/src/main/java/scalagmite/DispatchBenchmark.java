@@ -0,0 +1,125 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of handling a message in a single thread: insertion into
+ * the mailbox, removal and handler dispatch. An operation is one message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+
+  private static final int BATCH = 64;
+
+  public static class Message {
+  }
+
+  /** A message handled by the handler of its superclass. */
+  public static class SubMessage extends Message {
+  }
+
+  private static final Message MESSAGE = new Message();
+
+  private static final Message SUB_MESSAGE = new SubMessage();
+
+  @Param({ "blocking", "mpsc" })
+  String mailbox;
+
+  private AbstractAgent agent;
+
+  private long handled;
+
+  @Setup
+  public void setup() throws Exception {
+    Mailbox box = "mpsc".equals(mailbox) ? new MpscMailbox()
+        : new BlockingMailbox();
+    agent = new AbstractAgent("Dispatch", box) {
+      @Override
+      public void join() {
+      }
+
+      @Override
+      public void join(long millis) {
+      }
+
+      @Override
+      protected void onStart() {
+      }
+
+      @Override
+      protected void onStop() {
+      }
+    };
+    agent.setRouter(new Router(new DefaultErrorHandler()));
+    agent.registerHandler(Message.class, new MessageHandler<Message>() {
+      @Override
+      public void handle(Message message) {
+        ++handled;
+      }
+    });
+  }
+
+  @Benchmark
+  public long consumeMessage() {
+    agent.submitMessage(MESSAGE);
+    agent.consumeMessage();
+    return handled;
+  }
+
+  @Benchmark
+  public long consumeSubclassMessage() {
+    agent.submitMessage(SUB_MESSAGE);
+    agent.consumeMessage();
+    return handled;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public long consumeMessages() {
+    for (int i = 0; i < BATCH; ++i) {
+      agent.submitMessage(MESSAGE);
+    }
+    agent.consumeMessages(BATCH);
+    return handled;
+  }
+}
@@ -0,0 +1,145 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of fan-out/fan-in rounds: a job is sent to every
+ * member of an agent group, each member sends a result to a collector agent
+ * and the round ends when the collector has received all results. An
+ * operation is one round.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FanOutBenchmark {
+
+  public static class Round {
+    private final int members;
+
+    private int results;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private Round(int members) {
+      this.members = members;
+    }
+  }
+
+  public static class Result {
+    private final Round round;
+
+    private Result(Round round) {
+      this.round = round;
+    }
+  }
+
+  public static class Member extends SchedulableAgent {
+    public Member() throws AgentException {
+      super("Member");
+      registerHandler(Round.class, new MessageHandler<Round>() {
+        @Override
+        public void handle(Round round) throws Exception {
+          route("Collector", new Result(round));
+        }
+      });
+    }
+  }
+
+  public static class Collector extends SchedulableAgent {
+    public Collector() throws AgentException {
+      super("Collector");
+      registerHandler(Result.class, new MessageHandler<Result>() {
+        @Override
+        public void handle(Result result) throws Exception {
+          Round round = result.round;
+          if (++round.results == round.members) {
+            round.done.countDown();
+          }
+        }
+      });
+    }
+  }
+
+  @Param({ "4", "32" })
+  int members;
+
+  @Param({ "blocking", "mpsc" })
+  String mailbox;
+
+  @Param({ "fifo", "work-stealing" })
+  String schedulerMode;
+
+  private BenchmarkApplication application;
+
+  private AgentRef[] refs;
+
+  @Setup
+  public void setup() throws Exception {
+    BenchmarkApplication.configure(schedulerMode, mailbox);
+    application = new BenchmarkApplication();
+    Collector collector = new Collector();
+    application.register(collector, true);
+    for (int i = 0; i < members; ++i) {
+      application.register(new Member(), false);
+    }
+    application.start();
+
+    refs = new AgentRef[members];
+    for (int i = 0; i < members; ++i) {
+      refs[i] = collector.resolve("Member", i);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    application.stop();
+  }
+
+  @Benchmark
+  public void round() throws Exception {
+    Round round = new Round(members);
+    for (AgentRef ref : refs) {
+      ref.tell(round);
+    }
+    round.done.await();
+  }
+}
@@ -0,0 +1,162 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the round-trip latency of a ball exchanged by two agents. An
+ * operation is one round trip.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PingPongBenchmark {
+
+  private static final int ROUND_TRIPS = 1000;
+
+  public static class Ball {
+    private int remaining = 2 * ROUND_TRIPS;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+  }
+
+  private static void registerPlayer(final AbstractAgent player,
+      final String peer) throws AgentException {
+    player.registerHandler(Ball.class, new MessageHandler<Ball>() {
+      @Override
+      public void handle(Ball ball) throws Exception {
+        if (--ball.remaining == 0) {
+          ball.done.countDown();
+        } else {
+          player.route(peer, ball);
+        }
+      }
+    });
+  }
+
+  public static class ThreadPlayer extends ThreadAgent {
+    public ThreadPlayer(String name, String peer) throws AgentException {
+      super(name);
+      registerPlayer(this, peer);
+    }
+  }
+
+  public static class ScheduledPlayer extends SchedulableAgent {
+    public ScheduledPlayer(String name, String peer) throws AgentException {
+      super(name);
+      registerPlayer(this, peer);
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class ThreadPlayers {
+
+    @Param({ "blocking", "mpsc" })
+    String mailbox;
+
+    BenchmarkApplication application;
+
+    AbstractAgent pinger;
+
+    @Setup
+    public void setup() throws Exception {
+      BenchmarkApplication.configure("fifo", mailbox);
+      application = new BenchmarkApplication();
+      pinger = new ThreadPlayer("Pinger", "Ponger");
+      application.register(pinger, true);
+      application.register(new ThreadPlayer("Ponger", "Pinger"), true);
+      application.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+      application.stop();
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class ScheduledPlayers {
+
+    @Param({ "blocking", "mpsc" })
+    String mailbox;
+
+    @Param({ "fifo", "work-stealing" })
+    String schedulerMode;
+
+    BenchmarkApplication application;
+
+    AbstractAgent pinger;
+
+    @Setup
+    public void setup() throws Exception {
+      BenchmarkApplication.configure(schedulerMode, mailbox);
+      application = new BenchmarkApplication();
+      pinger = new ScheduledPlayer("Pinger", "Ponger");
+      application.register(pinger, true);
+      application.register(new ScheduledPlayer("Ponger", "Pinger"), true);
+      application.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+      application.stop();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROUND_TRIPS)
+  public void threadAgents(ThreadPlayers players) throws InterruptedException {
+    play(players.pinger);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROUND_TRIPS)
+  public void scheduledAgents(ScheduledPlayers players)
+      throws InterruptedException {
+    play(players.pinger);
+  }
+
+  private static void play(AbstractAgent pinger) throws InterruptedException {
+    Ball ball = new Ball();
+    pinger.submitMessage(ball);
+    ball.done.await();
+  }
+}
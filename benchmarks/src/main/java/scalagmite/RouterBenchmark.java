@@ -0,0 +1,99 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures agent lookups by concurrent senders. <code>locked</code> holds
+ * router's lock during the lookup, as lookups used to do, and serves as a
+ * reference.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class RouterBenchmark {
+
+  public static class Target extends SchedulableAgent {
+    public Target(String name) {
+      super(name);
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Table {
+
+    /** Number of registered agents, must be a power of 2. */
+    @Param({ "16", "1024" })
+    int agents;
+
+    Router router;
+
+    String[] names;
+
+    @Setup
+    public void setup() throws RouterException {
+      router = new Router(new DefaultErrorHandler());
+      names = new String[agents];
+      for (int i = 0; i < agents; ++i) {
+        names[i] = "agent-" + i;
+        router.registerAgent(new Target(names[i]));
+      }
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    int next;
+  }
+
+  @Benchmark
+  public AbstractAgent getAgent(Table table, Cursor cursor) {
+    String name = table.names[cursor.next++ & (table.agents - 1)];
+    return table.router.getAgent(name, 0);
+  }
+
+  @Benchmark
+  public AbstractAgent locked(Table table, Cursor cursor) {
+    String name = table.names[cursor.next++ & (table.agents - 1)];
+    synchronized (table.router) {
+      return table.router.getAgent(name, 0);
+    }
+  }
+}
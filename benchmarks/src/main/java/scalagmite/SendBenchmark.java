@@ -0,0 +1,99 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of messages sent to a scheduled agent by an
+ * external thread. The mailbox of the agent is bounded, the sender waits when
+ * it is full. An operation is one message. Run with <code>-prof gc</code> to
+ * get the allocation rate per message.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SendBenchmark {
+
+  private static final Object MESSAGE = new Object();
+
+  public static class Sink extends SchedulableAgent {
+    private long received;
+
+    public Sink() throws AgentException {
+      super("Sink", 1024);
+      registerHandler(Object.class, new MessageHandler<Object>() {
+        @Override
+        public void handle(Object message) {
+          ++received;
+        }
+      });
+    }
+  }
+
+  @Param({ "blocking", "mpsc" })
+  String mailbox;
+
+  @Param({ "fifo", "work-stealing" })
+  String schedulerMode;
+
+  private BenchmarkApplication application;
+
+  private AgentRef sink;
+
+  @Setup
+  public void setup() throws Exception {
+    BenchmarkApplication.configure(schedulerMode, mailbox);
+    application = new BenchmarkApplication();
+    Sink agent = new Sink();
+    application.register(agent, true);
+    application.start();
+    sink = agent.resolve("Sink");
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    application.stop();
+  }
+
+  @Benchmark
+  public boolean send() throws AgentException {
+    return sink.tell(MESSAGE);
+  }
+}
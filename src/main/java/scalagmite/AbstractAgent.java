@@ -22,13 +22,24 @@ package scalagmite;
  * #L%
  */
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 import scalagmite.events.InitAgent;
+import scalagmite.events.RestartAgent;
 import scalagmite.events.StopAgent;
 
 public abstract class AbstractAgent {
@@ -38,18 +49,136 @@ public abstract class AbstractAgent {
     INIT, RUNNING, STOPPED
   }
 
+  /** Represents what happens when a message is submitted to a full mailbox */
+  public enum OverflowPolicy {
+    /** The sender waits until space is available. */
+    BLOCK,
+    /**
+     * The sender waits until space is available unless it is a scheduler
+     * worker, in which case the message is rejected.
+     */
+    BLOCK_EXTERNAL,
+    /** The message is rejected. */
+    REJECT,
+    /** The submitted message is dropped. */
+    DROP_NEWEST,
+    /** The oldest message of the mailbox is dropped to make room. */
+    DROP_OLDEST
+  }
+
   /** Messages queue. */
-  private LinkedBlockingQueue<Object> incoming;
+  private Mailbox incoming;
+
+  /**
+   * Messages handled before the ones of the mailbox: life-cycle messages,
+   * exceptions and urgent messages. Not bounded by mailbox capacity.
+   */
+  private final Queue<Object> urgent = new ConcurrentLinkedQueue<Object>();
+
+  /** Inserted into the mailbox to wake up a consumer blocked on it. */
+  private static final Object URGENT_WAKE_UP = new Object();
+
+  /** Classes of the messages always considered urgent, null if none. */
+  private volatile Class<?>[] urgentTypes;
+
+  /** True if the mailbox was not given explicitly to the constructor. */
+  private boolean defaultMailbox;
+
+  /** The capacity of the mailbox, 0 if unbounded. */
+  private int capacity;
+
+  private final OverflowPolicy overflowPolicy;
+
+  /** The number of messages rejected because the mailbox was full. */
+  private final AtomicLong rejectedMessages = new AtomicLong();
+
+  /** The number of messages dropped because the mailbox was full. */
+  private final AtomicLong droppedMessages = new AtomicLong();
+
+  /** Messages drained from the queue and not yet handled. */
+  private final ArrayList<Object> batch = new ArrayList<Object>();
+
+  /**
+   * The maximum number of messages handled in one turn, 0 if the value given
+   * by configuration is to be used.
+   */
+  private int throughput;
+
+  /** Handler of messages for which no handler is registered. */
+  private static final MessageHandler<Object> UNKNOWN_MESSAGE_HANDLER = new MessageHandler<Object>() {
+    @Override
+    public void handle(Object message) throws Exception {
+      throw new UnknownAgentMessage(message);
+    }
+  };
 
   /** Message handlers map. */
   private final Map<Class<?>, MessageHandler<?>> handlers;
 
+  /** Handlers resolved for the classes of handled messages. */
+  private final HandlerCache handlerCache = new HandlerCache();
+
   /** Init message handler. */
   private MessageHandler<InitAgent> initHandler;
 
   /** Exit message handler. */
   private MessageHandler<StopAgent> exitHandler;
 
+  /** Restart message handler. */
+  private MessageHandler<RestartAgent> restartHandler;
+
+  /** Supervision strategy of the agent, null to use the one of its group. */
+  private volatile SupervisionStrategy supervisionStrategy;
+
+  /** Supervision strategy given by configuration, null to escalate. */
+  private SupervisionStrategy defaultSupervisionStrategy;
+
+  /** Start of the current restart window in milliseconds. */
+  private long restartWindowStart;
+
+  private int restartsInWindow;
+
+  /** The number of errors after which the agent resumed or restarted. */
+  private final AtomicLong recoveredErrors = new AtomicLong();
+
+  /** Number of snapshots between two full snapshots, if not configured. */
+  private static final int DEFAULT_FULL_SNAPSHOT_INTERVAL = 10;
+
+  /** Submitted by the timer to trigger a periodic snapshot. */
+  private static final class TakeSnapshot {
+  }
+
+  private static final TakeSnapshot TAKE_SNAPSHOT = new TakeSnapshot();
+
+  /** Snapshot handler, null if the agent takes no snapshot. */
+  private SnapshotHandler snapshotHandler;
+
+  private File snapshotDirectory;
+
+  /** Period of snapshots in milliseconds, 0 to only take one on stop. */
+  private long snapshotPeriod;
+
+  /** Snapshots of the agent, opened when the agent starts. */
+  private SnapshotStore snapshots;
+
+  private Timeout snapshotTimeout;
+
+  private int fullSnapshotInterval;
+
+  private int snapshotsSinceFull;
+
+  /** Encodes snapshots, set upon registration. */
+  private CodecRegistry codecs;
+
+  /**
+   * The offset following the last handled message of a durable mailbox, -1
+   * if none. Only tracked if the agent takes snapshots.
+   */
+  private long handledOffset = -1;
+
+  /** Logged messages up to this offset are part of the restored snapshot. */
+  private long restoredOffset = -1;
+
   /** The current state of the agent. */
   private AgentStatus status;
   private AgentStatus safeStatus;
@@ -65,6 +194,27 @@ public abstract class AbstractAgent {
 
   private Router router;
 
+  /** The reference replies to the message being handled are sent to. */
+  private AgentRef replyTo;
+
+  /**
+   * Metrics of the agent, null if metrics are disabled. Set upon
+   * registration; a sender not yet seeing it only skips instrumentation.
+   */
+  private AgentMetrics metrics;
+
+  /** Tracer of handled messages, null if tracing is disabled. */
+  private MessageTracer tracer;
+
+  /** Number of messages handled since the last traced one. */
+  private int untracedMessages;
+
+  /** Logger of agent's class. */
+  private final Logger logger = Logger.getLogger(getClass());
+
+  /** Logger named after the agent, created on first use. */
+  private Logger agentLogger;
+
   AbstractAgent() {
     this(null, 0);
   }
@@ -78,26 +228,251 @@ public abstract class AbstractAgent {
   }
 
   AbstractAgent(String name, int capacity) {
+    this(name, capacity, OverflowPolicy.BLOCK);
+  }
+
+  AbstractAgent(String name, int capacity, OverflowPolicy overflowPolicy) {
+    this(name, newMailbox(Mailbox.Type.BLOCKING, capacity), overflowPolicy);
+    this.capacity = Math.max(capacity, 0);
+    this.defaultMailbox = true;
+  }
+
+  AbstractAgent(String name, Mailbox mailbox) {
+    this(name, mailbox, OverflowPolicy.BLOCK);
+  }
+
+  AbstractAgent(String name, Mailbox mailbox, OverflowPolicy overflowPolicy) {
+    this.overflowPolicy = overflowPolicy;
+    setMailbox(mailbox);
+
     handlers = new HashMap<Class<?>, MessageHandler<?>>();
 
     agentName = (name != null && !name.isEmpty()) ? name : getClass()
         .getCanonicalName();
 
-    if (capacity <= 0) {
-      incoming = new LinkedBlockingQueue<Object>();
-    } else {
-      incoming = new LinkedBlockingQueue<Object>(capacity);
+    status = AgentStatus.INIT;
+  }
+
+  /**
+   * Returns whether a mailbox can be used with an overflow policy. Dropping
+   * the oldest message polls the mailbox from producer threads, which
+   * single-consumer mailboxes do not support.
+   */
+  private static boolean isCompatible(Mailbox mailbox,
+      OverflowPolicy overflowPolicy) {
+    return !OverflowPolicy.DROP_OLDEST.equals(overflowPolicy)
+        || !(mailbox instanceof AbstractMpscMailbox);
+  }
+
+  private void setMailbox(Mailbox mailbox) {
+    if (!isCompatible(mailbox, overflowPolicy)) {
+      throw new IllegalArgumentException(
+          "Dropping oldest messages requires a mailbox supporting several consumers");
     }
+    incoming = mailbox;
+  }
 
-    status = AgentStatus.INIT;
+  private static Mailbox newMailbox(Mailbox.Type type, int capacity) {
+    if (Mailbox.Type.MPSC.equals(type)) {
+      return capacity > 0 ? new BoundedMpscMailbox(capacity)
+          : new MpscMailbox();
+    } else {
+      return capacity > 0 ? new BlockingMailbox(capacity)
+          : new BlockingMailbox();
+    }
   }
 
-  @SuppressWarnings("unchecked")
   public void consumeMessage() {
+    if (handleUrgentMessages() > 0) {
+      return;
+    }
 
+    Object message;
     try {
-      Object message = incoming.take();
+      message = takeMessage();
+    } catch (InterruptedException e) {
+      handleError(e);
+      return;
+    }
+
+    handleUrgentMessages();
+    handleMessage(message);
+  }
+
+  /**
+   * Consumes at most <code>max</code> messages, waiting if necessary until at
+   * least one message is available. Messages are removed from the queue in a
+   * single operation before being handled.
+   * 
+   * @param max
+   *          The maximum number of messages to consume.
+   * @return The number of consumed messages.
+   */
+  public int consumeMessages(int max) {
+    if (max <= 1) {
+      consumeMessage();
+      return 1;
+    }
+
+    int urgentCount = handleUrgentMessages();
+    if (urgentCount > 0) {
+      return urgentCount;
+    }
+
+    try {
+      batch.add(takeMessage());
+    } catch (InterruptedException e) {
+      handleError(e);
+      return 0;
+    }
+    incoming.drainTo(batch, max - 1);
+    return handleBatch();
+  }
+
+  /**
+   * Waits for a message as specified by agent's wait strategy.
+   */
+  private Object takeMessage() throws InterruptedException {
+    WaitStrategy waitStrategy = getWaitStrategy();
+    int idleCount = 0;
+    while (true) {
+      Object message = incoming.poll();
+      if (message != null) {
+        return message;
+      }
+
+      if (!waitStrategy.idle(idleCount++)) {
+        return incoming.take();
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  /**
+   * Returns how the thread consuming agent's messages waits for messages
+   * when the mailbox is empty.
+   * 
+   * @return A wait strategy.
+   */
+  public WaitStrategy getWaitStrategy() {
+    return WaitStrategy.BLOCKING;
+  }
+
+  /**
+   * Consumes, without blocking, at most <code>max</code> messages already in
+   * the queue.
+   * 
+   * @param max
+   *          The maximum number of messages to consume.
+   * @return The number of consumed messages.
+   */
+  int consumeAvailableMessages(int max) {
+    incoming.drainTo(batch, Math.max(max, 1));
+    return handleBatch();
+  }
+
+  /**
+   * Handles the drained messages. A failed message does not interrupt the
+   * batch, unless the agent stopped or encountered an error: remaining
+   * messages are then discarded with the ones left in the mailbox.
+   */
+  private int handleBatch() {
+    int handled = handleUrgentMessages();
+    int size = batch.size();
+    for (int i = 0; i < size; ++i) {
+      if (!urgent.isEmpty()) {
+        handled += handleUrgentMessages();
+      }
+      if (error != null || AgentStatus.STOPPED.equals(safeStatus)) {
+        int drained = 0;
+        for (int j = i; j < size; ++j) {
+          if (batch.get(j) != URGENT_WAKE_UP) {
+            ++drained;
+          }
+        }
+        discardPendingMessages(drained);
+        break;
+      }
+      handleMessage(batch.get(i));
+      ++handled;
+    }
+    batch.clear();
+    return handled;
+  }
+
+  /**
+   * Handles the messages of the urgent lane.
+   * 
+   * @return The number of handled messages.
+   */
+  private int handleUrgentMessages() {
+    int handled = 0;
+    Object message;
+    while ((message = urgent.poll()) != null) {
+      handleMessage(message);
+      ++handled;
+    }
+    return handled;
+  }
+
+  /**
+   * Drops the messages left in the mailbox of a stopped agent.
+   * 
+   * @param drained
+   *          The number of messages already removed from the mailbox.
+   */
+  private void discardPendingMessages(int drained) {
+    int discarded = drained;
+    Object message;
+    while ((message = incoming.poll()) != null) {
+      if (message != URGENT_WAKE_UP) {
+        ++discarded;
+      }
+    }
+    if (discarded > 0 && logger.isEnabledFor(Level.WARN)) {
+      logger.warn("Discarded " + discarded + " messages pending when agent "
+          + agentName + " stopped");
+    }
+  }
+
+  boolean hasPendingMessages() {
+    return !incoming.isEmpty() || !urgent.isEmpty();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void handleMessage(Object message) {
+    if (message == URGENT_WAKE_UP) {
+      return;
+    }
+
+    // A logged message is acknowledged once its handler was invoked or, if
+    // the agent takes snapshots, once a snapshot including it is written
+    DurableMailbox.LoggedMessage logged = null;
+    if (message instanceof DurableMailbox.LoggedMessage) {
+      logged = (DurableMailbox.LoggedMessage) message;
+      if (logged.getEnd() <= restoredOffset) {
+        return;
+      }
+      message = logged.getMessage();
+    }
+    boolean dispatched = false;
+
+    if (message instanceof TimestampedMessage) {
+      TimestampedMessage timestamped = (TimestampedMessage) message;
+      metrics.messageDequeued(timestamped.getEnqueueTime());
+      message = timestamped.getMessage();
+    }
 
+    Object traced = null;
+    if (tracer != null && ++untracedMessages >= tracer.getSamplingRate()) {
+      untracedMessages = 0;
+      traced = message;
+    }
+
+    Exception failure = null;
+    try {
       // Check agent has not already encountered an error
       if (error != null) {
         throw new AgentException(
@@ -105,8 +480,9 @@ public abstract class AbstractAgent {
       }
 
       if (AgentStatus.STOPPED.equals(safeStatus)) {
-        Logger.getLogger(getClass()).warn(
-            "Dropped message " + message.getClass().getName());
+        if (logger.isEnabledFor(Level.WARN)) {
+          logger.warn("Dropped message " + message.getClass().getName());
+        }
         return;
       }
 
@@ -116,25 +492,193 @@ public abstract class AbstractAgent {
         throw error;
       }
 
+      if (message instanceof Envelope) {
+        Envelope envelope = (Envelope) message;
+        replyTo = envelope.getReplyTo();
+        message = envelope.getMessage();
+      }
+
       // Consume next message in queue
       @SuppressWarnings("rawtypes")
-      MessageHandler handler = handlers.get(message.getClass());
-      if (handler != null) {
+      MessageHandler handler = handlerCache.get(message.getClass());
+      if (handler == null) {
+        handler = resolveHandler(message.getClass());
+        handlerCache.put(message.getClass(), handler);
+      }
+      dispatched = true;
+      if (metrics != null) {
+        long start = System.nanoTime();
         handler.handle(message);
+        metrics.messageHandled(message.getClass(), System.nanoTime() - start);
       } else {
-        throw new UnknownAgentMessage(message);
+        handler.handle(message);
       }
 
     } catch (Exception e) {
-      setStatus(AgentStatus.STOPPED);
-      error = e;
+      failure = e;
+      if (dispatched) {
+        supervise(e);
+      } else {
+        handleError(e);
+      }
+    } finally {
+      replyTo = null;
+      if (logged != null && dispatched) {
+        if (snapshotHandler != null) {
+          handledOffset = logged.getEnd();
+        } else {
+          ((DurableMailbox) incoming).acknowledge(logged);
+        }
+      }
+      if (traced != null) {
+        tracer.trace(this, traced, failure);
+      }
+    }
+  }
+
+  /**
+   * Finds the handler of a message class. A handler registered for the class
+   * itself is preferred, then a handler registered for the closest superclass
+   * and finally a handler registered for an interface, interfaces being
+   * visited breadth-first starting with the ones the class directly
+   * implements.
+   * 
+   * @param type
+   *          A message class.
+   * @return A handler, never null.
+   */
+  private MessageHandler<?> resolveHandler(Class<?> type) {
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      MessageHandler<?> handler = handlers.get(c);
+      if (handler != null) {
+        return handler;
+      }
+    }
+
+    Queue<Class<?>> toVisit = new LinkedList<Class<?>>();
+    Set<Class<?>> visited = new HashSet<Class<?>>();
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      for (Class<?> i : c.getInterfaces()) {
+        toVisit.add(i);
+      }
+    }
+    while (!toVisit.isEmpty()) {
+      Class<?> i = toVisit.remove();
+      if (visited.add(i)) {
+        MessageHandler<?> handler = handlers.get(i);
+        if (handler != null) {
+          return handler;
+        }
+        for (Class<?> parent : i.getInterfaces()) {
+          toVisit.add(parent);
+        }
+      }
+    }
+
+    return UNKNOWN_MESSAGE_HANDLER;
+  }
+
+  /**
+   * Applies the supervision strategy of the agent, or of its group, to an
+   * exception raised by a handler.
+   */
+  private void supervise(Exception e) {
+    SupervisionStrategy strategy = supervisionStrategy;
+    if (strategy == null && router != null) {
+      strategy = router.getSupervisionStrategy(agentName);
+    }
+    if (strategy == null) {
+      strategy = defaultSupervisionStrategy;
+    }
+    if (strategy == null) {
+      handleError(e);
+      return;
+    }
+
+    SupervisionStrategy.Directive directive;
+    try {
+      directive = strategy.decide(this, e);
+    } catch (RuntimeException e1) {
+      logger.warn("Supervision strategy failed, escalating error", e1);
+      directive = SupervisionStrategy.Directive.ESCALATE;
+    }
+    if (SupervisionStrategy.Directive.RESTART.equals(directive)
+        && !allowRestart(strategy)) {
+      if (logger.isEnabledFor(Level.WARN)) {
+        logger.warn("Agent " + agentName + " restarted more than "
+            + strategy.getMaxRestarts() + " times within "
+            + strategy.getRestartWindow() + " ms, escalating error");
+      }
+      directive = SupervisionStrategy.Directive.ESCALATE;
+    }
+
+    switch (directive) {
+    case RESUME:
+      recoveredErrors.incrementAndGet();
+      if (logger.isDebugEnabled()) {
+        logger.debug("Agent " + agentName + " skipped a message after error",
+            e);
+      }
+      break;
+    case RESTART:
+      recoveredErrors.incrementAndGet();
+      restart(e);
+      break;
+    case STOP:
+      logger.error("Stopping agent " + agentName + " after error", e);
       try {
-        router.signalError(agentName, e);
-      } catch (Exception e1) {
-        Logger.getLogger(getClass()).warn("Ignoring error", e);
+        stopWithError("Error in agent " + agentName);
+      } catch (AgentException e1) {
+        handleError(e);
+      }
+      break;
+    default:
+      handleError(e);
+    }
+  }
+
+  /**
+   * Counts a restart in the current restart window.
+   * 
+   * @return False if the agent was restarted too often, true otherwise.
+   */
+  private boolean allowRestart(SupervisionStrategy strategy) {
+    long now = System.currentTimeMillis();
+    if (now - restartWindowStart > strategy.getRestartWindow()) {
+      restartWindowStart = now;
+      restartsInWindow = 0;
+    }
+    return ++restartsInWindow <= strategy.getMaxRestarts();
+  }
+
+  /**
+   * Invokes the restart handler, which resets agent's state, and the init
+   * handler. Pending messages are kept.
+   */
+  private void restart(Exception cause) {
+    if (logger.isDebugEnabled()) {
+      logger.debug("Restarting agent " + agentName + " after error", cause);
+    }
+    try {
+      if (restartHandler != null) {
+        restartHandler.handle(new RestartAgent(cause));
       }
+      if (initHandler != null) {
+        initHandler.handle(new InitAgent());
+      }
+    } catch (Exception e) {
+      handleError(e);
     }
+  }
 
+  private void handleError(Exception e) {
+    setStatus(AgentStatus.STOPPED);
+    error = e;
+    try {
+      router.signalError(agentName, e);
+    } catch (Exception e1) {
+      logger.warn("Ignoring error", e);
+    }
   }
 
   public Throwable getError() {
@@ -157,15 +701,70 @@ public abstract class AbstractAgent {
     return status;
   }
 
+  /**
+   * Returns the maximum number of messages the agent handles in one turn i.e.
+   * before another agent sharing the same thread gets a chance to run.
+   * 
+   * @return The throughput of the agent.
+   */
+  public int getThroughput() {
+    return throughput;
+  }
+
+  /**
+   * Sets the maximum number of messages the agent handles in one turn. Lower
+   * values give a fairer share of the workers to other agents, higher values
+   * reduce per-message overhead. If not set, the value given by
+   * configuration is used.
+   * 
+   * @param throughput
+   *          A strictly positive number of messages.
+   */
+  public void setThroughput(int throughput) {
+    if (throughput <= 0) {
+      throw new IllegalArgumentException("Throughput must be greater than zero");
+    }
+    this.throughput = throughput;
+  }
+
+  /**
+   * Applies application-wide settings that were not explicitly set on this
+   * agent. This method is invoked upon registration.
+   * 
+   * @param config
+   *          The configuration of the application.
+   */
+  void configure(Configuration config) {
+    if (throughput == 0) {
+      throughput = config.getAgentThroughput();
+    }
+    if (fullSnapshotInterval == 0) {
+      fullSnapshotInterval = config.getSnapshotFullInterval();
+    }
+    defaultSupervisionStrategy = config.getSupervisionStrategy();
+
+    Mailbox.Type mailboxType = config.getMailboxType();
+    if (defaultMailbox && Mailbox.Type.MPSC.equals(mailboxType)
+        && incoming.isEmpty()) {
+      Mailbox mailbox = newMailbox(mailboxType, capacity);
+      if (isCompatible(mailbox, overflowPolicy)) {
+        setMailbox(mailbox);
+      }
+    }
+  }
+
   public abstract void join() throws InterruptedException;
 
   public abstract void join(long millis) throws InterruptedException;
 
   protected void logError(Exception e) {
     if (agentName != null) {
-      Logger.getLogger(agentName).error(e.getMessage(), e);
+      if (agentLogger == null) {
+        agentLogger = Logger.getLogger(agentName);
+      }
+      agentLogger.error(e.getMessage(), e);
     } else {
-      Logger.getLogger(getClass()).error(e.getMessage(), e);
+      logger.error(e.getMessage(), e);
     }
   }
 
@@ -189,6 +788,50 @@ public abstract class AbstractAgent {
               + messageType.getName());
     }
     handlers.put(messageType, handler);
+    handlerCache.clear();
+  }
+
+  /**
+   * Registers the handler invoked when the agent is restarted by its
+   * supervision strategy (see {@link SupervisionStrategy.Directive#RESTART}).
+   * The handler must reset agent's state; the init handler is invoked next.
+   * 
+   * @param handler
+   *          The restart handler.
+   * @throws AgentException
+   *           If a restart handler has already been registered.
+   */
+  public void registerRestartHandler(MessageHandler<RestartAgent> handler)
+      throws AgentException {
+    if (restartHandler != null) {
+      throw new AgentException("A restart handler has already been registered");
+    }
+    restartHandler = handler;
+  }
+
+  /**
+   * Sets what happens when a handler of this agent raises an exception. If
+   * not set, the strategy of agent's group is used and, failing that, the
+   * one given by configuration.
+   * 
+   * @param strategy
+   *          The supervision strategy, null to use the one of the group.
+   */
+  public void setSupervisionStrategy(SupervisionStrategy strategy) {
+    this.supervisionStrategy = strategy;
+  }
+
+  public SupervisionStrategy getSupervisionStrategy() {
+    return supervisionStrategy;
+  }
+
+  /**
+   * Returns the number of errors after which the agent resumed or restarted.
+   * 
+   * @return A number of errors.
+   */
+  public long getRecoveredErrors() {
+    return recoveredErrors.get();
   }
 
   public void registerInitHandler(MessageHandler<InitAgent> handler)
@@ -199,6 +842,117 @@ public abstract class AbstractAgent {
     initHandler = handler;
   }
 
+  /**
+   * Makes the agent save its state periodically and restore it when it
+   * starts. The last snapshot, if any, is restored before the init handler
+   * is invoked; snapshots are then taken every <code>period</code>
+   * milliseconds and when the agent stops, after the exit handler. Taking a
+   * snapshot only blocks the agent while the handler encodes its state, the
+   * snapshot being written to disk by another thread.
+   * <p>
+   * Most snapshots only hold the changes since the previous one, one
+   * snapshot out of <code>snapshot.full.interval</code> being full. If the
+   * agent has a {@link DurableMailbox}, its messages are only acknowledged
+   * once a snapshot including their effects is written: on restart, the
+   * snapshot is restored and the messages handled after it are replayed.
+   * 
+   * @param handler
+   *          The snapshot handler.
+   * @param directory
+   *          The directory of agent's snapshots, used by this agent only.
+   * @param period
+   *          The period of snapshots in milliseconds, 0 to only take a
+   *          snapshot when the agent stops.
+   * @throws AgentException
+   *           If a snapshot handler has already been registered.
+   */
+  public void registerSnapshotHandler(SnapshotHandler handler, File directory,
+      long period) throws AgentException {
+    if (snapshotHandler != null) {
+      throw new AgentException("A snapshot handler has already been registered");
+    }
+    snapshotHandler = handler;
+    snapshotDirectory = directory;
+    snapshotPeriod = period;
+  }
+
+  void setCodecs(CodecRegistry codecs) {
+    this.codecs = codecs;
+  }
+
+  private void restoreSnapshot() throws Exception {
+    if (codecs == null) {
+      codecs = new CodecRegistry();
+    }
+    snapshots = new SnapshotStore(snapshotDirectory, codecs);
+    SnapshotStore.Snapshot snapshot = snapshots.load();
+    if (snapshot != null) {
+      snapshotHandler.restore(snapshot.state);
+      restoredOffset = snapshot.offset;
+      handledOffset = snapshot.offset;
+      if (logger.isInfoEnabled()) {
+        logger.info("Restored " + snapshot.state.size()
+            + " entries of agent " + agentName + " from " + snapshotDirectory);
+      }
+    }
+
+    if (snapshotPeriod > 0) {
+      snapshotTimeout = router.getTimer().schedule(new Runnable() {
+        @Override
+        public void run() {
+          submitControlMessage(TAKE_SNAPSHOT);
+        }
+      }, snapshotPeriod, snapshotPeriod);
+    }
+  }
+
+  /**
+   * Takes a snapshot unless the previous one is still being written.
+   */
+  void takeSnapshot() throws Exception {
+    if (snapshots == null || snapshots.isWriting()) {
+      return;
+    }
+
+    int interval = fullSnapshotInterval > 0 ? fullSnapshotInterval
+        : DEFAULT_FULL_SNAPSHOT_INTERVAL;
+    boolean full = snapshots.needsFullSnapshot()
+        || ++snapshotsSinceFull >= interval;
+    if (full) {
+      snapshotsSinceFull = 0;
+    }
+
+    SnapshotWriter writer = new SnapshotWriter(codecs);
+    try {
+      snapshotHandler.snapshot(writer, full);
+    } catch (Exception e) {
+      codecs.release(writer.finish());
+      throw e;
+    }
+
+    Runnable onWritten = null;
+    final long offset = handledOffset;
+    if (incoming instanceof DurableMailbox && offset >= 0) {
+      final DurableMailbox mailbox = (DurableMailbox) incoming;
+      onWritten = new Runnable() {
+        @Override
+        public void run() {
+          mailbox.acknowledge(offset);
+        }
+      };
+    }
+    snapshots.write(writer.finish(), full, offset, onWritten);
+  }
+
+  /**
+   * Waits until the snapshot being written, if any, is on disk.
+   */
+  void awaitSnapshot() throws InterruptedException {
+    if (snapshots != null) {
+      snapshots.await();
+    }
+  }
+
   private void registerPrivateHandlers() throws AgentException {
     registerHandler(InitAgent.class, new MessageHandler<InitAgent>() {
       @Override
@@ -206,6 +960,10 @@ public abstract class AbstractAgent {
         setStatus(AgentStatus.RUNNING);
         safeStatus = AgentStatus.RUNNING;
 
+        if (snapshotHandler != null) {
+          restoreSnapshot();
+        }
+
         if (initHandler != null) {
           initHandler.handle(message);
         }
@@ -222,7 +980,24 @@ public abstract class AbstractAgent {
           exitHandler.handle(message);
         }
 
+        if (snapshots != null) {
+          if (snapshotTimeout != null) {
+            snapshotTimeout.cancel();
+          }
+          snapshots.await();
+          takeSnapshot();
+          snapshots.await();
+        }
+
         onStop();
+        discardPendingMessages(0);
+      }
+    });
+
+    registerHandler(TakeSnapshot.class, new MessageHandler<TakeSnapshot>() {
+      @Override
+      public void handle(TakeSnapshot message) throws Exception {
+        takeSnapshot();
       }
     });
 
@@ -234,11 +1009,44 @@ public abstract class AbstractAgent {
     });
   }
 
-  public void route(String dest, Object message) throws AgentException {
-    route(dest, 0, message);
+  /**
+   * Sends a message to a group of agents. The member receiving the message is
+   * chosen by the routing strategy of the group, which by default selects the
+   * agent with number 0.
+   * 
+   * @param dest
+   *          The name of the group.
+   * @param message
+   *          The message.
+   * @return False if the message was rejected by the agent (see
+   *         {@link #submitMessage(Object)}), true otherwise.
+   * @throws AgentException
+   *           If no agent is registered with given name.
+   */
+  public boolean route(String dest, Object message) throws AgentException {
+    AbstractAgent agent = router.selectAgent(dest, message);
+    if (agent == null) {
+      throw new AgentException("No registered agent with name '" + dest + "'");
+    }
+
+    return agent.submitMessage(message);
   }
 
-  public void route(String dest, int number, Object message)
+  /**
+   * Sends a message to an agent.
+   * 
+   * @param dest
+   *          The name of the agent.
+   * @param number
+   *          The number of the agent.
+   * @param message
+   *          The message.
+   * @return False if the message was rejected by the agent (see
+   *         {@link #submitMessage(Object)}), true otherwise.
+   * @throws AgentException
+   *           If no agent is registered with given name and number.
+   */
+  public boolean route(String dest, int number, Object message)
       throws AgentException {
     AbstractAgent agent = router.getAgent(dest, number);
     if (agent == null) {
@@ -246,11 +1054,267 @@ public abstract class AbstractAgent {
           + "' and number " + number);
     }
 
-    agent.submitMessage(message);
+    return agent.submitMessage(message);
+  }
+
+  /**
+   * Sends a message to all members of a group of agents.
+   * 
+   * @param dest
+   *          The name of the group.
+   * @param message
+   *          The message.
+   * @return The number of members which accepted the message (see
+   *         {@link #submitMessage(Object)}).
+   * @throws AgentException
+   *           If no agent is registered with given name.
+   */
+  public int broadcast(String dest, Object message) throws AgentException {
+    return getGroup(dest).broadcast(message);
+  }
+
+  /**
+   * Sends a request to all members of a group of agents and gathers their
+   * replies (see {@link #reply(Object)}) into a single
+   * {@link GatheredReplies} message delivered to this agent. The message is
+   * delivered once every member which accepted the request answered or when
+   * the timeout expires, whichever comes first.
+   * 
+   * @param dest
+   *          The name of the group.
+   * @param request
+   *          The request.
+   * @param timeout
+   *          The maximum time to wait for replies, in milliseconds.
+   * @throws AgentException
+   *           If no agent is registered with given name.
+   */
+  public void scatterGather(String dest, Object request, long timeout)
+      throws AgentException {
+    AbstractAgent[] members = getGroup(dest).getAgents();
+    final GatherEndpoint endpoint = new GatherEndpoint(this, request, members.length);
+    if (members.length > 0) {
+      endpoint.setTimeout(router.getTimer().schedule(new Runnable() {
+        @Override
+        public void run() {
+          endpoint.expire();
+        }
+      }, timeout));
+    }
+    for (int i = 0; i < members.length; ++i) {
+      if (!members[i].submitMessage(new Envelope(request,
+          endpoint.getMember(i)))) {
+        endpoint.skip();
+      }
+    }
+    if (members.length == 0) {
+      endpoint.expire();
+    }
+  }
+
+  private AgentGroup getGroup(String dest) throws AgentException {
+    try {
+      return router.getGroup(dest);
+    } catch (RouterException e) {
+      throw new AgentException("No registered agent with name '" + dest + "'");
+    }
+  }
+
+  /**
+   * Sends a request to a group of agents and returns a future completed by
+   * the reply of the member chosen by group's routing strategy.
+   * <p>
+   * The future is completed by the thread of the replying agent: callbacks
+   * should be short or use one of the asynchronous methods of the future. In
+   * particular, a callback must not modify the state of this agent; it
+   * should instead submit the reply to this agent as a message.
+   * 
+   * @param dest
+   *          The name of the group.
+   * @param message
+   *          The request.
+   * @param timeout
+   *          The maximum time to wait for the reply, in milliseconds.
+   * @return A future completed by the reply (see
+   *         {@link Router#ask(String, Object, long)}).
+   */
+  public CompletableFuture<Object> ask(String dest, Object message,
+      long timeout) {
+    return router.ask(dest, message, timeout);
+  }
+
+  /**
+   * Sends a request to an agent and returns a future completed by its reply
+   * (see {@link #ask(String, Object, long)}).
+   * 
+   * @param dest
+   *          The name of the agent.
+   * @param number
+   *          The number of the agent.
+   * @param message
+   *          The request.
+   * @param timeout
+   *          The maximum time to wait for the reply, in milliseconds.
+   * @return A future completed by the reply.
+   */
+  public CompletableFuture<Object> ask(String dest, int number,
+      Object message, long timeout) {
+    return router.ask(dest, number, message, timeout);
+  }
+
+  /**
+   * Sends a request to an agent and returns a future completed by its reply
+   * (see {@link #ask(String, Object, long)}).
+   * 
+   * @param dest
+   *          A reference to the agent.
+   * @param message
+   *          The request.
+   * @param timeout
+   *          The maximum time to wait for the reply, in milliseconds.
+   * @return A future completed by the reply.
+   */
+  public CompletableFuture<Object> ask(AgentRef dest, Object message,
+      long timeout) {
+    return router.ask(dest, message, timeout);
+  }
+
+  /**
+   * Returns the reference replies to the message being handled are sent to.
+   * 
+   * @return A reference or null if the message being handled was not sent in
+   *         an {@link Envelope}.
+   */
+  public AgentRef getReplyTo() {
+    return replyTo;
+  }
+
+  /**
+   * Answers the message being handled. This method may only be called by a
+   * message handler.
+   * 
+   * @param message
+   *          The reply.
+   * @return False if the reply was rejected, true otherwise.
+   * @throws AgentException
+   *           If the message being handled does not expect a reply.
+   */
+  public boolean reply(Object message) throws AgentException {
+    if (replyTo == null) {
+      throw new AgentException("Handled message does not expect a reply");
+    }
+    return replyTo.tell(message);
+  }
+
+  /**
+   * Sends a message to an agent after a delay.
+   * 
+   * @param dest
+   *          The name of the agent.
+   * @param number
+   *          The number of the agent.
+   * @param message
+   *          The message.
+   * @param delay
+   *          The delay in milliseconds.
+   * @return A handle used to cancel the delivery.
+   * @throws AgentException
+   *           If no agent is registered with given name and number.
+   */
+  public Timeout scheduleMessage(String dest, int number, Object message,
+      long delay) throws AgentException {
+    return scheduleMessage(resolve(dest, number), message, delay, 0);
+  }
+
+  /**
+   * Sends a message to an agent periodically. The delivery is cancelled when
+   * the agent is unregistered.
+   * 
+   * @param dest
+   *          The name of the agent.
+   * @param number
+   *          The number of the agent.
+   * @param message
+   *          The message, sent at every period.
+   * @param delay
+   *          The delay before the first delivery, in milliseconds.
+   * @param period
+   *          The period in milliseconds.
+   * @return A handle used to cancel the delivery.
+   * @throws AgentException
+   *           If no agent is registered with given name and number.
+   */
+  public Timeout scheduleMessage(String dest, int number, Object message,
+      long delay, long period) throws AgentException {
+    return scheduleMessage(resolve(dest, number), message, delay, period);
+  }
+
+  /**
+   * Sends a message to an agent after a delay.
+   * 
+   * @param dest
+   *          A reference to the agent.
+   * @param message
+   *          The message.
+   * @param delay
+   *          The delay in milliseconds.
+   * @return A handle used to cancel the delivery.
+   */
+  public Timeout scheduleMessage(AgentRef dest, Object message, long delay) {
+    return scheduleMessage(dest, message, delay, 0);
+  }
+
+  /**
+   * Sends a message to an agent periodically. The delivery is cancelled when
+   * the agent is unregistered.
+   * 
+   * @param dest
+   *          A reference to the agent.
+   * @param message
+   *          The message, sent at every period.
+   * @param delay
+   *          The delay before the first delivery, in milliseconds.
+   * @param period
+   *          The period in milliseconds, 0 to send the message only once.
+   * @return A handle used to cancel the delivery.
+   */
+  public Timeout scheduleMessage(AgentRef dest, Object message, long delay,
+      long period) {
+    DelayedMessage delivery = new DelayedMessage(dest, message);
+    Timeout timeout = router.getTimer().schedule(delivery, delay, period);
+    delivery.setTimeout(timeout);
+    return timeout;
+  }
+
+  /**
+   * Resolves the name and number of an agent into a reference. Messages sent
+   * through the reference skip the lookup done by
+   * {@link #route(String, int, Object)}.
+   * 
+   * @param dest
+   *          The name of the agent.
+   * @param number
+   *          The number of the agent.
+   * @return A reference to the agent.
+   * @throws AgentException
+   *           If no agent is registered with given name and number.
+   */
+  public AgentRef resolve(String dest, int number) throws AgentException {
+    AgentRef ref = router.getAgentRef(dest, number);
+    if (ref == null) {
+      throw new AgentException("No registered agent with name '" + dest
+          + "' and number " + number);
+    }
+    return ref;
+  }
+
+  public AgentRef resolve(String dest) throws AgentException {
+    return resolve(dest, 0);
   }
 
   void setAgentName(String name) {
     this.agentName = name;
+    agentLogger = null;
   }
 
   public void setName(String name) {
@@ -258,6 +1322,7 @@ public abstract class AbstractAgent {
       throw new RuntimeException("Agent has already been setup");
     }
     this.agentName = name;
+    agentLogger = null;
   }
 
   void setNumber(int number) {
@@ -285,7 +1350,7 @@ public abstract class AbstractAgent {
     if (!started) {
       started = true;
       router.signalAgentStart(this);
-      submitMessage(new InitAgent());
+      submitControlMessage(new InitAgent());
       onStart();
     }
   }
@@ -302,15 +1367,228 @@ public abstract class AbstractAgent {
     if (!stopped) {
       stopped = true;
       router.signalAgentStop(this);
-      submitMessage(new StopAgent("Normal stop call"));
+      submitControlMessage(new StopAgent(cause));
     }
   }
 
-  public void submitMessage(Object o) {
+  void setMetrics(AgentMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  void setTracer(MessageTracer tracer) {
+    this.tracer = tracer;
+  }
+
+  /**
+   * Returns the metrics of the agent.
+   * 
+   * @return The metrics or null if metrics are disabled.
+   */
+  public AgentMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Returns the number of messages waiting in agent's mailbox.
+   * 
+   * @return A number of messages.
+   */
+  public int getMailboxSize() {
+    return incoming.size();
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * Returns the number of messages rejected because the mailbox was full.
+   * 
+   * @return A number of messages.
+   */
+  public long getRejectedMessages() {
+    return rejectedMessages.get();
+  }
+
+  /**
+   * Returns the number of messages dropped because the mailbox was full.
+   * 
+   * @return A number of messages.
+   */
+  public long getDroppedMessages() {
+    return droppedMessages.get();
+  }
+
+  /**
+   * Makes messages of given class, and of its subclasses, urgent (see
+   * {@link #submitMessage(Object)}).
+   * 
+   * @param type
+   *          The class of the messages.
+   */
+  public synchronized void registerUrgentType(Class<?> type) {
+    Class<?>[] types = urgentTypes;
+    if (types == null) {
+      urgentTypes = new Class<?>[] { type };
+    } else {
+      Class<?>[] newTypes = Arrays.copyOf(types, types.length + 1);
+      newTypes[types.length] = type;
+      urgentTypes = newTypes;
+    }
+  }
+
+  /**
+   * Tells if a message bypasses the mailbox. Life-cycle messages, exceptions,
+   * urgent
+   * {@link UrgentMessage}s and instances of registered urgent types do, as
+   * well as requests carrying such a message.
+   */
+  private boolean isUrgent(Object o) {
+    if (o instanceof Envelope) {
+      o = ((Envelope) o).getMessage();
+    }
+    if (o instanceof Exception || o instanceof InitAgent
+        || o instanceof StopAgent) {
+      return true;
+    }
+    if (o instanceof UrgentMessage && ((UrgentMessage) o).isUrgent()) {
+      return true;
+    }
+    Class<?>[] types = urgentTypes;
+    if (types != null) {
+      for (Class<?> type : types) {
+        if (type.isInstance(o)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Inserts a message into agent's mailbox. If the mailbox is full, agent's
+   * overflow policy is applied.
+   * <p>
+   * Urgent messages (life-cycle messages, exceptions, {@link UrgentMessage}s
+   * and instances of registered urgent types, see {@link #registerUrgentType(Class)}) are
+   * never rejected: they go to a separate lane, not bounded by mailbox
+   * capacity, whose messages are handled before any other pending message.
+   * Urgent messages are therefore meant for control traffic and must remain
+   * rare.
+   * 
+   * @param o
+   *          The message.
+   * @return False if the message was rejected, true if it was inserted or
+   *         dropped as requested by the overflow policy.
+   */
+  public boolean submitMessage(Object o) {
+    return submitMessage(o, true);
+  }
+
+  /**
+   * Inserts a message into agent's mailbox without blocking the calling
+   * thread. If the mailbox is full and agent's overflow policy would block,
+   * the message is left to the caller; other policies are applied as by
+   * {@link #submitMessage(Object)}.
+   * 
+   * @param o
+   *          The message.
+   * @return False if the message was not inserted because the mailbox is
+   *         full and the overflow policy blocks, true otherwise.
+   */
+  boolean offerMessage(Object o) {
+    if (OverflowPolicy.BLOCK.equals(overflowPolicy)
+        || OverflowPolicy.BLOCK_EXTERNAL.equals(overflowPolicy)) {
+      return submitMessage(o, false);
+    }
+    submitMessage(o);
+    return true;
+  }
+
+  private boolean submitMessage(Object o, boolean mayBlock) {
+    if (isUrgent(o)) {
+      submitUrgentMessage(o);
+      return true;
+    }
+
+    AgentMetrics current = metrics;
+    if (current != null && current.sampleEnqueue()) {
+      o = new TimestampedMessage(o, System.nanoTime());
+    }
+
+    if (incoming.offer(o)) {
+      return true;
+    }
+
+    switch (overflowPolicy) {
+    case BLOCK_EXTERNAL:
+      if (WorkerImpl.isWorkerThread()) {
+        rejectedMessages.incrementAndGet();
+        return false;
+      }
+      return mayBlock && putMessage(o);
+    case REJECT:
+      rejectedMessages.incrementAndGet();
+      return false;
+    case DROP_NEWEST:
+      droppedMessages.incrementAndGet();
+      return true;
+    case DROP_OLDEST:
+      boolean wakeUpEvicted = false;
+      do {
+        Object evicted = incoming.poll();
+        if (evicted == URGENT_WAKE_UP) {
+          wakeUpEvicted = true;
+        } else if (evicted != null) {
+          droppedMessages.incrementAndGet();
+        }
+      } while (!incoming.offer(o));
+      if (wakeUpEvicted) {
+        // Not a message: put the urgent lane wake-up back
+        incoming.offer(URGENT_WAKE_UP);
+      }
+      return true;
+    default:
+      return mayBlock && putMessage(o);
+    }
+  }
+
+  /**
+   * Inserts a life-cycle message into the urgent lane.
+   */
+  private void submitControlMessage(Object o) {
+    submitUrgentMessage(o);
+    afterControlMessage();
+  }
+
+  private void submitUrgentMessage(Object o) {
+    urgent.add(o);
+    // A consumer blocked on the mailbox checks the urgent lane once it
+    // returns; a non-empty mailbox returns without help.
+    if (incoming.isEmpty()) {
+      if (incoming instanceof DurableMailbox) {
+        ((DurableMailbox) incoming).offerTransient(URGENT_WAKE_UP);
+      } else {
+        incoming.offer(URGENT_WAKE_UP);
+      }
+    }
+  }
+
+  /**
+   * Invoked after a life-cycle message has been inserted.
+   */
+  void afterControlMessage() {
+    // Nothing to do by default
+  }
+
+  private boolean putMessage(Object o) {
     try {
       incoming.put(o);
+      return true;
     } catch (InterruptedException e) {
-      Logger.getLogger(getClass()).error("Could not submit message", e);
+      logger.error("Could not submit message", e);
+      Thread.currentThread().interrupt();
+      return false;
     }
   }
 
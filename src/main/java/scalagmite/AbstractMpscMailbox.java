@@ -0,0 +1,108 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Collection;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base class of lock-free multi-producer/single-consumer mailboxes.
+ * <p>
+ * Subclasses implement the non-blocking operations, this class implements
+ * blocking ones: the consumer parks when the mailbox is empty and producers
+ * unpark it after having inserted a message (see {@link #signalConsumer()}).
+ * Producers waiting for space in a full mailbox back off with increasing
+ * delays instead of being woken up.
+ */
+public abstract class AbstractMpscMailbox implements Mailbox {
+
+  /** The consumer thread, if it is parked or about to be. */
+  private volatile Thread waiter;
+
+  @Override
+  public void put(Object message) throws InterruptedException {
+    int attempts = 0;
+    while (!offer(message)) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      WaitStrategy.PARK.idle(attempts++);
+    }
+  }
+
+  @Override
+  public Object take() throws InterruptedException {
+    Object message = poll();
+    if (message != null) {
+      return message;
+    }
+
+    // Waiter must be visible before checking the mailbox again so that a
+    // producer inserting a message concurrently either is seen by poll or
+    // sees the waiter.
+    waiter = Thread.currentThread();
+    try {
+      while ((message = poll()) == null) {
+        LockSupport.park(this);
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+      }
+      return message;
+    } finally {
+      waiter = null;
+    }
+  }
+
+  @Override
+  public int drainTo(Collection<Object> c, int max) {
+    int drained = 0;
+    while (drained < max) {
+      Object message = poll();
+      if (message == null) {
+        break;
+      }
+      c.add(message);
+      ++drained;
+    }
+    return drained;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Wakes up the consumer if it is waiting for a message. This method must be
+   * called by producers after each insertion, the insertion being a volatile
+   * write.
+   */
+  protected void signalConsumer() {
+    Thread consumer = waiter;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+}
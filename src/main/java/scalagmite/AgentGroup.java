@@ -22,14 +22,33 @@ package scalagmite;
  * #L%
  */
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.apache.log4j.Logger;
 
+/**
+ * The agents registered under the same name, indexed by number.
+ * <p>
+ * The group is copy-on-write: adding an agent replaces the array of agents so
+ * that {@link #getAgent(int)} can be called concurrently without locking.
+ * <p>
+ * Messages sent to the group rather than to a given number are delivered to
+ * the member chosen by group's {@link RoutingStrategy}.
+ */
 public class AgentGroup {
+
+  private static final Logger LOGGER = Logger.getLogger(AgentGroup.class);
+
   private boolean unique;
 
-  private ArrayList<AbstractAgent> agents;
+  private volatile AbstractAgent[] agents;
+
+  private volatile boolean registered = true;
+
+  private volatile RoutingStrategy routingStrategy = new FirstAgentStrategy();
+
+  /** Supervision strategy of the members, null if not set. */
+  private volatile SupervisionStrategy supervisionStrategy;
 
   AgentGroup() {
     this(false);
@@ -37,25 +56,107 @@ public class AgentGroup {
 
   AgentGroup(boolean unique) {
     this.unique = unique;
-    agents = new ArrayList<AbstractAgent>();
+    agents = new AbstractAgent[0];
   }
 
   public AbstractAgent getAgent(int num) {
-    if (num >= agents.size()) {
+    AbstractAgent[] current = agents;
+    if (num < 0 || num >= current.length) {
       return null;
     } else {
-      return agents.get(num);
+      return current[num];
+    }
+  }
+
+  /**
+   * Selects the member a message sent to the group is delivered to.
+   * 
+   * @param message
+   *          The message.
+   * @return A member or null if the group is empty.
+   */
+  public AbstractAgent selectAgent(Object message) {
+    AbstractAgent[] current = agents;
+    if (current.length == 0) {
+      return null;
+    }
+    return routingStrategy.select(current, message);
+  }
+
+  public RoutingStrategy getRoutingStrategy() {
+    return routingStrategy;
+  }
+
+  public void setRoutingStrategy(RoutingStrategy routingStrategy) {
+    if (routingStrategy == null) {
+      throw new IllegalArgumentException("Routing strategy cannot be null");
     }
+    this.routingStrategy = routingStrategy;
+  }
+
+  public SupervisionStrategy getSupervisionStrategy() {
+    return supervisionStrategy;
+  }
+
+  public void setSupervisionStrategy(SupervisionStrategy supervisionStrategy) {
+    this.supervisionStrategy = supervisionStrategy;
   }
 
-  public void addAgent(AbstractAgent agent) throws RouterException {
-    if (unique && agents.size() >= 1) {
+  public synchronized void addAgent(AbstractAgent agent)
+      throws RouterException {
+    AbstractAgent[] current = agents;
+    if (unique && current.length >= 1) {
       throw new RouterException(
           "Group has unique flag, cannot add another agent");
     }
 
-    agent.setNumber(agents.size());
-    agents.add(agent);
+    agent.setNumber(current.length);
+    AbstractAgent[] newAgents = Arrays.copyOf(current, current.length + 1);
+    newAgents[current.length] = agent;
+    agents = newAgents;
+  }
+
+  /**
+   * Sends a message to all members of the group.
+   * 
+   * @param message
+   *          The message.
+   * @return The number of members which accepted the message (see
+   *         {@link AbstractAgent#submitMessage(Object)}).
+   */
+  public int broadcast(Object message) {
+    int accepted = 0;
+    for (AbstractAgent agent : agents) {
+      if (agent.submitMessage(message)) {
+        ++accepted;
+      }
+    }
+    return accepted;
+  }
+
+  /**
+   * Returns the current members of the group. The returned array must not be
+   * modified.
+   */
+  AbstractAgent[] getAgents() {
+    return agents;
+  }
+
+  public int size() {
+    return agents.length;
+  }
+
+  /**
+   * Tells if the group is still registered in its router.
+   * 
+   * @return False if the group was unregistered, true otherwise.
+   */
+  public boolean isRegistered() {
+    return registered;
+  }
+
+  void unregister() {
+    registered = false;
   }
 
   public void stopWithError(String cause) {
@@ -63,7 +164,7 @@ public class AgentGroup {
       try {
         agent.stopWithError(cause);
       } catch (AgentException e) {
-        Logger.getLogger(getClass()).warn(e);
+        LOGGER.warn(e);
       }
     }
   }
@@ -79,7 +180,7 @@ public class AgentGroup {
       try {
         agent.stop();
       } catch (AgentException e) {
-        Logger.getLogger(getClass()).warn(e);
+        LOGGER.warn(e);
       }
     }
   }
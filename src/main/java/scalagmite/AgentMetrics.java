@@ -0,0 +1,156 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instrumentation of an agent: handled messages, time spent by messages in
+ * the mailbox and handler execution times per message class.
+ * <p>
+ * Time spent in the mailbox is only measured for a sample of the messages
+ * (see {@link #sampleEnqueue()}) because it requires wrapping the message.
+ */
+public class AgentMetrics implements AgentMetricsMBean {
+
+  private static final long RATE_PERIOD = TimeUnit.SECONDS.toNanos(1);
+
+  private final AbstractAgent agent;
+
+  private final MetricsRegistry registry;
+
+  private final int samplingRate;
+
+  private final Histogram queueLatency = new Histogram();
+
+  private final ConcurrentMap<Class<?>, Histogram> handlerTimes = new ConcurrentHashMap<Class<?>, Histogram>();
+
+  /**
+   * Counts submissions for sampling. Concurrent senders may lose increments,
+   * which only makes sampling less regular.
+   */
+  private int submissions;
+
+  /** Last handled message class and its histogram, only used by consumer. */
+  private Class<?> lastType;
+
+  private Histogram lastHistogram;
+
+  private long rateCount;
+
+  private long rateTime = System.nanoTime();
+
+  private double rate;
+
+  AgentMetrics(AbstractAgent agent, MetricsRegistry registry, int samplingRate) {
+    this.agent = agent;
+    this.registry = registry;
+    this.samplingRate = samplingRate;
+  }
+
+  /**
+   * Tells if the time spent in the mailbox by the message being submitted is
+   * to be measured.
+   */
+  boolean sampleEnqueue() {
+    return ++submissions % samplingRate == 0;
+  }
+
+  void messageDequeued(long enqueueTime) {
+    queueLatency.record(System.nanoTime() - enqueueTime);
+  }
+
+  void messageHandled(Class<?> type, long duration) {
+    if (type != lastType) {
+      Histogram histogram = handlerTimes.get(type);
+      if (histogram == null) {
+        histogram = new Histogram();
+        Histogram previous = handlerTimes.putIfAbsent(type, histogram);
+        if (previous == null) {
+          registry.registerHandler(agent, type, histogram);
+        } else {
+          histogram = previous;
+        }
+      }
+      lastType = type;
+      lastHistogram = histogram;
+    }
+    lastHistogram.record(duration);
+  }
+
+  public Histogram getQueueLatency() {
+    return queueLatency;
+  }
+
+  /**
+   * Returns the execution times of the handler of a message class.
+   * 
+   * @param type
+   *          A message class.
+   * @return A histogram or null if no message of given class was handled.
+   */
+  public Histogram getHandlerTime(Class<?> type) {
+    return handlerTimes.get(type);
+  }
+
+  @Override
+  public int getMailboxSize() {
+    return agent.getMailboxSize();
+  }
+
+  @Override
+  public long getMessagesHandled() {
+    long count = 0;
+    for (Histogram histogram : handlerTimes.values()) {
+      count += histogram.getCount();
+    }
+    return count;
+  }
+
+  @Override
+  public synchronized double getMessagesPerSecond() {
+    long now = System.nanoTime();
+    long elapsed = now - rateTime;
+    if (elapsed >= RATE_PERIOD) {
+      long count = getMessagesHandled();
+      rate = (count - rateCount) * (double) TimeUnit.SECONDS.toNanos(1)
+          / elapsed;
+      rateCount = count;
+      rateTime = now;
+    }
+    return rate;
+  }
+
+  @Override
+  public long getRejectedMessages() {
+    return agent.getRejectedMessages();
+  }
+
+  @Override
+  public long getDroppedMessages() {
+    return agent.getDroppedMessages();
+  }
+
+}
@@ -0,0 +1,44 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Management interface of {@link AgentMetrics}.
+ */
+public interface AgentMetricsMBean {
+
+  public abstract int getMailboxSize();
+
+  public abstract long getMessagesHandled();
+
+  /**
+   * Returns the rate at which messages were handled during the last sampling
+   * period (at least one second).
+   */
+  public abstract double getMessagesPerSecond();
+
+  public abstract long getRejectedMessages();
+
+  public abstract long getDroppedMessages();
+
+}
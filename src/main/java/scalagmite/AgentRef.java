@@ -0,0 +1,61 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * A handle on an agent, resolved once from its name and number.
+ * <p>
+ * Sending a message through a reference skips the lookup performed by
+ * {@link AbstractAgent#route(String, int, Object)} and goes straight to the
+ * target's mailbox. A reference stays bound to the agent it was resolved to:
+ * once that agent is unregistered, {@link #tell(Object)} fails even if
+ * another agent is later registered under the same name. A stopped but still
+ * registered agent accepts messages and drops them, as with
+ * {@link AbstractAgent#route(String, int, Object)}.
+ */
+public interface AgentRef {
+
+  public abstract String getName();
+
+  public abstract int getNumber();
+
+  /**
+   * Tells if the referenced agent is still registered.
+   * 
+   * @return False if the agent was unregistered, true otherwise.
+   */
+  public abstract boolean isValid();
+
+  /**
+   * Sends a message to the referenced agent.
+   * 
+   * @param message
+   *          The message.
+   * @return False if the message was rejected by the agent (see
+   *         {@link AbstractAgent#submitMessage(Object)}), true otherwise.
+   * @throws AgentException
+   *           If the agent is no longer registered.
+   */
+  public abstract boolean tell(Object message) throws AgentException;
+
+}
@@ -0,0 +1,80 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A mailbox backed by a {@link LinkedBlockingQueue}. Unlike other mailboxes,
+ * it can safely be consumed by several threads.
+ */
+public class BlockingMailbox implements Mailbox {
+
+  private final BlockingQueue<Object> queue;
+
+  public BlockingMailbox() {
+    queue = new LinkedBlockingQueue<Object>();
+  }
+
+  public BlockingMailbox(int capacity) {
+    queue = new LinkedBlockingQueue<Object>(capacity);
+  }
+
+  @Override
+  public void put(Object message) throws InterruptedException {
+    queue.put(message);
+  }
+
+  @Override
+  public boolean offer(Object message) {
+    return queue.offer(message);
+  }
+
+  @Override
+  public Object take() throws InterruptedException {
+    return queue.take();
+  }
+
+  @Override
+  public Object poll() {
+    return queue.poll();
+  }
+
+  @Override
+  public int drainTo(Collection<Object> c, int max) {
+    return queue.drainTo(c, max);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return queue.isEmpty();
+  }
+
+  @Override
+  public int size() {
+    return queue.size();
+  }
+
+}
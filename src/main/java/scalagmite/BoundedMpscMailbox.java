@@ -0,0 +1,113 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free multi-producer/single-consumer mailbox backed by a ring
+ * buffer. It does not allocate anything when messages are inserted or
+ * removed. {@link #put(Object)} blocks while the mailbox is full.
+ */
+public class BoundedMpscMailbox extends AbstractMpscMailbox {
+
+  private static final AtomicLongFieldUpdater<BoundedMpscMailbox> PRODUCER_INDEX = AtomicLongFieldUpdater
+      .newUpdater(BoundedMpscMailbox.class, "producerIndex");
+
+  private final int capacity;
+
+  private final int mask;
+
+  private final AtomicReferenceArray<Object> buffer;
+
+  private volatile long producerIndex;
+
+  private volatile long consumerIndex;
+
+  public BoundedMpscMailbox(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be greater than zero");
+    }
+
+    int length = 1;
+    while (length < capacity) {
+      length <<= 1;
+    }
+
+    this.capacity = capacity;
+    this.mask = length - 1;
+    this.buffer = new AtomicReferenceArray<Object>(length);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  @Override
+  public boolean offer(Object message) {
+    if (message == null) {
+      throw new NullPointerException();
+    }
+
+    long index;
+    do {
+      index = producerIndex;
+      if (index - consumerIndex >= capacity) {
+        return false;
+      }
+    } while (!PRODUCER_INDEX.compareAndSet(this, index, index + 1));
+
+    buffer.set((int) index & mask, message);
+    signalConsumer();
+    return true;
+  }
+
+  @Override
+  public Object poll() {
+    long index = consumerIndex;
+    int offset = (int) index & mask;
+    Object message = buffer.get(offset);
+    if (message == null) {
+      if (index == producerIndex) {
+        return null;
+      }
+      while ((message = buffer.get(offset)) == null) {
+        Thread.yield(); // A producer claimed the index but did not write yet
+      }
+    }
+
+    // Slot must be cleared before it is made available to producers again
+    buffer.lazySet(offset, null);
+    consumerIndex = index + 1;
+    return message;
+  }
+
+  @Override
+  public int size() {
+    long consumer = consumerIndex;
+    long size = producerIndex - consumer;
+    return (int) Math.max(Math.min(size, capacity), 0);
+  }
+
+}
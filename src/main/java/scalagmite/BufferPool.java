@@ -0,0 +1,92 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct buffers of the same size. Direct buffers are costly to
+ * allocate and are only freed by the garbage collector, released buffers are
+ * therefore kept for reuse, up to a maximum number.
+ */
+final class BufferPool {
+
+  private final int bufferSize;
+
+  private final int maxBuffers;
+
+  private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+  private final AtomicInteger size = new AtomicInteger();
+
+  BufferPool(int bufferSize, int maxBuffers) {
+    this.bufferSize = bufferSize;
+    this.maxBuffers = maxBuffers;
+  }
+
+  int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * Returns a cleared buffer, pooled or newly allocated.
+   * 
+   * @return A direct buffer of the pool's size.
+   */
+  ByteBuffer acquire() {
+    ByteBuffer buffer = buffers.poll();
+    if (buffer == null) {
+      return ByteBuffer.allocateDirect(bufferSize);
+    }
+    size.decrementAndGet();
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Gives a buffer back to the pool. Buffers not allocated by the pool and
+   * buffers released to a full pool are left to the garbage collector.
+   * 
+   * @param buffer
+   *          A buffer no longer used by the caller.
+   */
+  void release(ByteBuffer buffer) {
+    if (!buffer.isDirect() || buffer.capacity() != bufferSize) {
+      return;
+    }
+    if (size.incrementAndGet() > maxBuffers) {
+      size.decrementAndGet();
+      return;
+    }
+    buffers.add(buffer);
+  }
+
+  int getPooled() {
+    return size.get();
+  }
+
+}
@@ -0,0 +1,47 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes messages of a given type into buffers and reads them back. Codecs
+ * are registered in a {@link CodecRegistry}.
+ * <p>
+ * A codec writes at the buffer's position and must read exactly the bytes it
+ * wrote. A codec does not check the space left in the buffer: the
+ * {@link java.nio.BufferOverflowException} raised by a full buffer makes the
+ * registry retry with a larger buffer. Nested objects may be written and read
+ * with {@link CodecRegistry#write(Object, ByteBuffer)} and
+ * {@link CodecRegistry#read(ByteBuffer)}.
+ * 
+ * @param <T>
+ *          The type of the messages.
+ */
+public interface Codec<T> extends Encoder<T> {
+
+  T read(ByteBuffer buffer) throws IOException;
+
+}
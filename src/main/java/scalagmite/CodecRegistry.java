@@ -0,0 +1,513 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import scalagmite.events.InitAgent;
+import scalagmite.events.StopAgent;
+
+/**
+ * Turns messages into bytes and back for the transport and any other path
+ * moving messages out of the JVM's heap.
+ * <p>
+ * A message is written as a 2-bytes type id followed by the bytes written by
+ * the codec of its class. Ids from 1 to {@link #MAX_ID} are given to the
+ * classes registered with {@link #register(int, Class, Codec)} or
+ * {@link #register(int, Class)} and must be the same on all nodes exchanging
+ * messages; negative ids are used by the codecs of common types (strings,
+ * boxed primitives, byte arrays and events). Messages of any other class are
+ * rejected, so that decoding never instantiates a class which was not
+ * explicitly registered.
+ * <p>
+ * A class registered without a codec is written by a reflective codec: it
+ * must have a constructor without arguments, must not belong to the JDK and
+ * the classes of its fields must be themselves supported. Hand-written
+ * codecs are faster and more compact and should be registered for
+ * frequently sent messages.
+ * <p>
+ * Messages are encoded into direct buffers taken from a pool, which may be
+ * written to a channel without any copy and should be released after use
+ * (see {@link #release(ByteBuffer)}).
+ */
+public class CodecRegistry {
+
+  public static final int MAX_ID = Short.MAX_VALUE;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final short NULL = 0;
+
+  private static final short STRING = -2;
+
+  private static final short INTEGER = -3;
+
+  private static final short LONG = -4;
+
+  private static final short DOUBLE = -5;
+
+  private static final short FLOAT = -6;
+
+  private static final short SHORT = -7;
+
+  private static final short BYTE = -8;
+
+  private static final short BOOLEAN = -9;
+
+  private static final short CHARACTER = -10;
+
+  private static final short BYTES = -11;
+
+  private static final short INIT_AGENT = -12;
+
+  private static final short STOP_AGENT = -13;
+
+  /** Lowest id reserved for the codecs of common types. */
+  private static final int MIN_ID = -16;
+
+  private static final int BUFFER_SIZE = 4096;
+
+  private static final int MAX_POOLED_BUFFERS = 256;
+
+  /** Size above which encoding a message fails. */
+  static final int MAX_BUFFER_SIZE = 64 * 1024 * 1024;
+
+  private static class Registration {
+    final short id;
+
+    final Codec<Object> codec;
+
+    @SuppressWarnings("unchecked")
+    Registration(int id, Codec<?> codec) {
+      this.id = (short) id;
+      this.codec = (Codec<Object>) codec;
+    }
+  }
+
+  private final Map<Class<?>, Registration> byType = new ConcurrentHashMap<Class<?>, Registration>();
+
+  /** Registrations by id minus {@link #MIN_ID}, replaced on registration. */
+  private volatile Registration[] byId = new Registration[-MIN_ID];
+
+  private final BufferPool pool;
+
+  public CodecRegistry() {
+    this(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+  }
+
+  CodecRegistry(int bufferSize, int maxPooledBuffers) {
+    pool = new BufferPool(bufferSize, maxPooledBuffers);
+    registerCommonTypes();
+  }
+
+  /**
+   * Registers the codec of a message class. A codec registered for a class
+   * is not used for its sub-classes.
+   * 
+   * @param id
+   *          The id written before the messages of this class, from 1 to
+   *          {@link #MAX_ID}.
+   * @param type
+   *          The message class.
+   * @param codec
+   *          The codec.
+   * @throws IllegalArgumentException
+   *           If the id is invalid or already used by another class.
+   */
+  public <T> void register(int id, Class<T> type, Codec<T> codec) {
+    if (id <= 0 || id > MAX_ID) {
+      throw new IllegalArgumentException("Invalid codec id " + id);
+    }
+    add(id, type, codec);
+  }
+
+  /**
+   * Registers a message class written by a reflective codec, which writes
+   * the non-static and non-transient fields of its messages. Enums are
+   * written as the ordinal of their constants.
+   * 
+   * @param id
+   *          The id written before the messages of this class, from 1 to
+   *          {@link #MAX_ID}.
+   * @param type
+   *          The message class.
+   * @throws IllegalArgumentException
+   *           If the id is invalid or already used by another class, or if
+   *           the class is not supported by the reflective codec.
+   */
+  public void register(int id, Class<?> type) {
+    if (id <= 0 || id > MAX_ID) {
+      throw new IllegalArgumentException("Invalid codec id " + id);
+    }
+    try {
+      add(id, type, ReflectiveCodec.forType(this, type));
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    }
+  }
+
+  private synchronized void add(int id, Class<?> type, Codec<?> codec) {
+    Registration[] current = byId;
+    int index = id - MIN_ID;
+    if (index < current.length && current[index] != null
+        && byType.get(type) != current[index]) {
+      throw new IllegalArgumentException("Codec id " + id
+          + " is already used");
+    }
+
+    Registration registration = new Registration(id, codec);
+    Registration[] updated = current;
+    if (index >= current.length) {
+      updated = new Registration[index + 1];
+      System.arraycopy(current, 0, updated, 0, current.length);
+    } else {
+      updated = current.clone();
+    }
+    updated[index] = registration;
+    byType.put(type, registration);
+    byId = updated;
+  }
+
+  /**
+   * Writes a message and its type id at buffer's position.
+   * 
+   * @param message
+   *          The message, possibly null.
+   * @param buffer
+   *          The buffer.
+   * @throws IOException
+   *           If the message's class is not registered.
+   * @throws BufferOverflowException
+   *           If the buffer is too small.
+   */
+  public void write(Object message, ByteBuffer buffer) throws IOException {
+    if (message == null) {
+      buffer.putShort(NULL);
+      return;
+    }
+
+    Class<?> type = message instanceof Enum ? ((Enum<?>) message)
+        .getDeclaringClass() : message.getClass();
+    Registration registration = byType.get(type);
+    if (registration == null) {
+      throw new IOException("No codec registered for " + type.getName());
+    }
+
+    buffer.putShort(registration.id);
+    registration.codec.write(message, buffer);
+  }
+
+  /**
+   * Reads a message written by {@link #write(Object, ByteBuffer)}.
+   * 
+   * @param buffer
+   *          The buffer.
+   * @return The message, possibly null.
+   * @throws IOException
+   *           If the message's type is unknown or a length is invalid.
+   * @throws java.nio.BufferUnderflowException
+   *           If the buffer is too short.
+   */
+  public Object read(ByteBuffer buffer) throws IOException {
+    short id = buffer.getShort();
+    if (id == NULL) {
+      return null;
+    }
+
+    Registration[] current = byId;
+    int index = id - MIN_ID;
+    if (index < 0 || index >= current.length || current[index] == null) {
+      throw new IOException("Unknown codec id " + id);
+    }
+    return current[index].codec.read(buffer);
+  }
+
+  /**
+   * Encodes a message into a buffer taken from the pool, a larger buffer
+   * being allocated if the message does not fit.
+   * 
+   * @param message
+   *          The message.
+   * @return A buffer holding the message, ready to be read.
+   * @throws IOException
+   *           If the message is not supported or too large.
+   */
+  public ByteBuffer encode(Object message) throws IOException {
+    return encode(message, new Encoder<Object>() {
+      @Override
+      public void write(Object message, ByteBuffer buffer) throws IOException {
+        CodecRegistry.this.write(message, buffer);
+      }
+    });
+  }
+
+  /**
+   * Encodes a value with a given encoder into a buffer taken from the pool,
+   * a larger buffer being allocated if the value does not fit.
+   * 
+   * @param value
+   *          The value.
+   * @param encoder
+   *          The encoder writing the value.
+   * @return A buffer holding the value, ready to be read.
+   * @throws IOException
+   *           If the value could not be written or is too large.
+   */
+  public <T> ByteBuffer encode(T value, Encoder<? super T> encoder)
+      throws IOException {
+    ByteBuffer buffer = pool.acquire();
+    while (true) {
+      try {
+        encoder.write(value, buffer);
+        buffer.flip();
+        return buffer;
+      } catch (BufferOverflowException e) {
+        int capacity = buffer.capacity();
+        release(buffer);
+        if (capacity >= MAX_BUFFER_SIZE) {
+          throw new IOException("Message is larger than " + MAX_BUFFER_SIZE
+              + " bytes");
+        }
+        buffer = ByteBuffer.allocateDirect(Math.min(2 * capacity,
+            MAX_BUFFER_SIZE));
+      } catch (IOException e) {
+        release(buffer);
+        throw e;
+      } catch (RuntimeException e) {
+        release(buffer);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Gives a buffer returned by {@link #encode(Object)} back to the pool. The
+   * buffer must not be used anymore.
+   * 
+   * @param buffer
+   *          The buffer.
+   */
+  public void release(ByteBuffer buffer) {
+    pool.release(buffer);
+  }
+
+  BufferPool getPool() {
+    return pool;
+  }
+
+  /**
+   * Writes a string, possibly null, as its length in bytes followed by its
+   * UTF-8 encoding.
+   */
+  public static void writeString(String s, ByteBuffer buffer) {
+    if (s == null) {
+      buffer.putInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(UTF8);
+    buffer.putInt(bytes.length);
+    buffer.put(bytes);
+  }
+
+  public static String readString(ByteBuffer buffer) throws IOException {
+    int length = readLength(buffer);
+    if (length < 0) {
+      return null;
+    }
+    if (buffer.hasArray()) {
+      String s = new String(buffer.array(), buffer.arrayOffset()
+          + buffer.position(), length, UTF8);
+      buffer.position(buffer.position() + length);
+      return s;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  /**
+   * Reads the length of a string or an array, checking that it is either -1
+   * (null) or covered by the bytes left in the buffer before anything is
+   * allocated.
+   * 
+   * @throws IOException
+   *           If the length is invalid.
+   */
+  static int readLength(ByteBuffer buffer) throws IOException {
+    int length = buffer.getInt();
+    if (length < -1 || length > buffer.remaining()) {
+      throw new IOException("Invalid length " + length + ", "
+          + buffer.remaining() + " bytes left");
+    }
+    return length;
+  }
+
+  private void registerCommonTypes() {
+    add(STRING, String.class, new Codec<String>() {
+      @Override
+      public void write(String message, ByteBuffer buffer) {
+        writeString(message, buffer);
+      }
+
+      @Override
+      public String read(ByteBuffer buffer) throws IOException {
+        return readString(buffer);
+      }
+    });
+    add(INTEGER, Integer.class, new Codec<Integer>() {
+      @Override
+      public void write(Integer message, ByteBuffer buffer) {
+        buffer.putInt(message);
+      }
+
+      @Override
+      public Integer read(ByteBuffer buffer) {
+        return buffer.getInt();
+      }
+    });
+    add(LONG, Long.class, new Codec<Long>() {
+      @Override
+      public void write(Long message, ByteBuffer buffer) {
+        buffer.putLong(message);
+      }
+
+      @Override
+      public Long read(ByteBuffer buffer) {
+        return buffer.getLong();
+      }
+    });
+    add(DOUBLE, Double.class, new Codec<Double>() {
+      @Override
+      public void write(Double message, ByteBuffer buffer) {
+        buffer.putDouble(message);
+      }
+
+      @Override
+      public Double read(ByteBuffer buffer) {
+        return buffer.getDouble();
+      }
+    });
+    add(FLOAT, Float.class, new Codec<Float>() {
+      @Override
+      public void write(Float message, ByteBuffer buffer) {
+        buffer.putFloat(message);
+      }
+
+      @Override
+      public Float read(ByteBuffer buffer) {
+        return buffer.getFloat();
+      }
+    });
+    add(SHORT, Short.class, new Codec<Short>() {
+      @Override
+      public void write(Short message, ByteBuffer buffer) {
+        buffer.putShort(message);
+      }
+
+      @Override
+      public Short read(ByteBuffer buffer) {
+        return buffer.getShort();
+      }
+    });
+    add(BYTE, Byte.class, new Codec<Byte>() {
+      @Override
+      public void write(Byte message, ByteBuffer buffer) {
+        buffer.put(message);
+      }
+
+      @Override
+      public Byte read(ByteBuffer buffer) {
+        return buffer.get();
+      }
+    });
+    add(BOOLEAN, Boolean.class, new Codec<Boolean>() {
+      @Override
+      public void write(Boolean message, ByteBuffer buffer) {
+        buffer.put(message ? (byte) 1 : (byte) 0);
+      }
+
+      @Override
+      public Boolean read(ByteBuffer buffer) {
+        return buffer.get() != 0;
+      }
+    });
+    add(CHARACTER, Character.class, new Codec<Character>() {
+      @Override
+      public void write(Character message, ByteBuffer buffer) {
+        buffer.putChar(message);
+      }
+
+      @Override
+      public Character read(ByteBuffer buffer) {
+        return buffer.getChar();
+      }
+    });
+    add(BYTES, byte[].class, new Codec<byte[]>() {
+      @Override
+      public void write(byte[] message, ByteBuffer buffer) {
+        buffer.putInt(message.length);
+        buffer.put(message);
+      }
+
+      @Override
+      public byte[] read(ByteBuffer buffer) throws IOException {
+        int length = readLength(buffer);
+        if (length < 0) {
+          throw new IOException("Invalid byte array length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+      }
+    });
+    add(INIT_AGENT, InitAgent.class, new Codec<InitAgent>() {
+      @Override
+      public void write(InitAgent message, ByteBuffer buffer) {
+        // No field
+      }
+
+      @Override
+      public InitAgent read(ByteBuffer buffer) {
+        return new InitAgent();
+      }
+    });
+    add(STOP_AGENT, StopAgent.class, new Codec<StopAgent>() {
+      @Override
+      public void write(StopAgent message, ByteBuffer buffer) {
+        writeString(message.getCause(), buffer);
+      }
+
+      @Override
+      public StopAgent read(ByteBuffer buffer) throws IOException {
+        return new StopAgent(readString(buffer));
+      }
+    });
+  }
+
+}
@@ -32,20 +32,241 @@ public class Configuration {
 
   private static final String SCHEDULER_THREADS = "scheduler.threads";
 
+  private static final String SCHEDULER_THREADS_MAX = "scheduler.threads.max";
+
+  private static final String SCHEDULER_KEEPALIVE = "scheduler.keepalive";
+
+  private static final String SCHEDULER_GROW_THRESHOLD = "scheduler.grow.threshold";
+
+  private static final String SCHEDULER_MODE = "scheduler.mode";
+
+  private static final String AGENT_THROUGHPUT = "agent.throughput";
+
+  private static final String AGENT_MAILBOX = "agent.mailbox";
+
+  private static final String AGENT_THREAD_TYPE = "agent.thread.type";
+
+  private static final String SCHEDULER_THREAD_TYPE = "scheduler.thread.type";
+
+  private static final String SCHEDULER_WAIT_STRATEGY = "scheduler.wait.strategy";
+
+  private static final String AGENT_WAIT_STRATEGY = "agent.wait.strategy";
+
+  private static final String AGENT_SUPERVISION = "agent.supervision";
+
+  private static final String AGENT_SUPERVISION_MAX_RESTARTS = "agent.supervision.max.restarts";
+
+  private static final String AGENT_SUPERVISION_WINDOW = "agent.supervision.window";
+
+  private static final String METRICS_ENABLED = "metrics.enabled";
+
+  private static final String METRICS_SAMPLING = "metrics.sampling";
+
+  private static final String TRACE_ENABLED = "trace.enabled";
+
+  private static final String TRACE_SAMPLING = "trace.sampling";
+
+  private static final String TRACE_CAPACITY = "trace.capacity";
+
+  private static final String SCHEDULER_CPUS = "scheduler.cpus";
+
+  private static final String TIMER_TICK = "timer.tick";
+
+  private static final String TIMER_WHEEL_SIZE = "timer.wheel.size";
+
+  private static final String TRANSPORT_HOST = "transport.host";
+
+  private static final String TRANSPORT_PORT = "transport.port";
+
+  private static final String SNAPSHOT_FULL_INTERVAL = "snapshot.full.interval";
+
+  private static final Logger LOGGER = Logger.getLogger(Configuration.class);
+
   private Properties properties = new Properties();
 
   Configuration() {
-    InputStream in = getClass().getResourceAsStream("default.properties");
+    InputStream in = getClass().getResourceAsStream("/default.properties");
     if (in != null) {
       try {
         properties.load(in);
       } catch (IOException e) {
-        Logger.getLogger(getClass()).error(e);
+        LOGGER.error(e);
       }
     }
   }
 
+  /**
+   * Returns the minimum number of scheduler workers, which are created when
+   * the scheduler is and never retire.
+   * 
+   * @return A number of workers, the number of available processors if not
+   *         set.
+   */
   public int getNumberOfThreads() {
-    return Integer.parseInt(properties.getProperty(SCHEDULER_THREADS, "5"));
+    String value = getProperty(SCHEDULER_THREADS, "").trim();
+    if (value.isEmpty()) {
+      return Runtime.getRuntime().availableProcessors();
+    }
+    return Integer.parseInt(value);
+  }
+
+  /**
+   * Returns the maximum number of scheduler workers.
+   * 
+   * @return A number of workers, twice the minimum number if not set.
+   */
+  public int getMaxNumberOfThreads() {
+    String value = getProperty(SCHEDULER_THREADS_MAX, "").trim();
+    if (value.isEmpty()) {
+      return 2 * getNumberOfThreads();
+    }
+    return Integer.parseInt(value);
+  }
+
+  /**
+   * Returns how long a worker added above the minimum number of workers may
+   * stay idle before it retires.
+   * 
+   * @return A duration in milliseconds, 0 if workers never retire.
+   */
+  public long getWorkerKeepAlive() {
+    return Long.parseLong(getProperty(SCHEDULER_KEEPALIVE, "60000").trim());
+  }
+
+  /**
+   * Returns the queue latency or handler duration above which the scheduler
+   * adds a worker.
+   * 
+   * @return A duration in milliseconds, 0 if the pool never grows.
+   */
+  public long getSchedulerGrowThreshold() {
+    return Long.parseLong(getProperty(SCHEDULER_GROW_THRESHOLD, "0").trim());
+  }
+
+  public Scheduler.Mode getSchedulerMode() {
+    String mode = getProperty(SCHEDULER_MODE, "fifo");
+    return Scheduler.Mode.valueOf(mode.trim().toUpperCase().replace('-', '_'));
+  }
+
+  /**
+   * Returns the CPUs scheduler workers are pinned to. Pinning is best-effort
+   * and only supported on Linux (see {@link CpuAffinity}).
+   * 
+   * @return A list of CPUs such as "0-3,6", empty or null if workers are not
+   *         pinned.
+   */
+  public String getSchedulerCpus() {
+    return getProperty(SCHEDULER_CPUS, "");
+  }
+
+  public int getAgentThroughput() {
+    return Integer.parseInt(getProperty(AGENT_THROUGHPUT, "10").trim());
+  }
+
+  public Mailbox.Type getMailboxType() {
+    String type = getProperty(AGENT_MAILBOX, "blocking");
+    return Mailbox.Type.valueOf(type.trim().toUpperCase());
+  }
+
+  public ThreadType getAgentThreadType() {
+    return getThreadType(AGENT_THREAD_TYPE);
+  }
+
+  public ThreadType getSchedulerThreadType() {
+    return getThreadType(SCHEDULER_THREAD_TYPE);
+  }
+
+  public WaitStrategy getSchedulerWaitStrategy() {
+    return getWaitStrategy(SCHEDULER_WAIT_STRATEGY);
+  }
+
+  public WaitStrategy getAgentWaitStrategy() {
+    return getWaitStrategy(AGENT_WAIT_STRATEGY);
+  }
+
+  /**
+   * Returns the supervision strategy of agents for which no strategy is set.
+   * 
+   * @return A strategy applying the same directive to all errors.
+   */
+  public SupervisionStrategy getSupervisionStrategy() {
+    String directive = getProperty(AGENT_SUPERVISION, "escalate");
+    int maxRestarts = Integer.parseInt(getProperty(
+        AGENT_SUPERVISION_MAX_RESTARTS, "10").trim());
+    long window = Long.parseLong(getProperty(AGENT_SUPERVISION_WINDOW,
+        "60000").trim());
+    return new SupervisionStrategy(
+        SupervisionStrategy.Directive.valueOf(directive.trim().toUpperCase()),
+        maxRestarts, window);
+  }
+
+  public boolean isMetricsEnabled() {
+    return Boolean.parseBoolean(getProperty(METRICS_ENABLED, "false").trim());
+  }
+
+  public int getMetricsSampling() {
+    return Integer.parseInt(getProperty(METRICS_SAMPLING, "64").trim());
+  }
+
+  public boolean isTraceEnabled() {
+    return Boolean.parseBoolean(getProperty(TRACE_ENABLED, "false").trim());
+  }
+
+  public int getTraceSampling() {
+    return Integer.parseInt(getProperty(TRACE_SAMPLING, "1000").trim());
+  }
+
+  public int getTraceCapacity() {
+    return Integer.parseInt(getProperty(TRACE_CAPACITY, "4096").trim());
+  }
+
+  public long getTimerTick() {
+    return Long.parseLong(getProperty(TIMER_TICK, "10").trim());
+  }
+
+  public int getTimerWheelSize() {
+    return Integer.parseInt(getProperty(TIMER_WHEEL_SIZE, "512").trim());
+  }
+
+  public String getTransportHost() {
+    return getProperty(TRANSPORT_HOST, "127.0.0.1").trim();
+  }
+
+  /**
+   * Returns the port the transport accepts connections from other nodes on.
+   * 
+   * @return A port, 0 for any free port, -1 if the transport does not accept
+   *         connections.
+   */
+  public int getTransportPort() {
+    String value = getProperty(TRANSPORT_PORT, "").trim();
+    return value.isEmpty() ? -1 : Integer.parseInt(value);
+  }
+
+  public int getSnapshotFullInterval() {
+    return Integer.parseInt(getProperty(SNAPSHOT_FULL_INTERVAL, "10").trim());
+  }
+
+  private ThreadType getThreadType(String key) {
+    String type = getProperty(key, "platform");
+    return ThreadType.valueOf(type.trim().toUpperCase());
+  }
+
+  private WaitStrategy getWaitStrategy(String key) {
+    String strategy = getProperty(key, "blocking");
+    return WaitStrategy.valueOf(strategy.trim().toUpperCase()
+        .replace('-', '_'));
+  }
+
+  /**
+   * Returns the value of a property. A system property with the same key
+   * takes precedence over the value read from default properties file.
+   */
+  private String getProperty(String key, String defaultValue) {
+    String value = System.getProperty(key);
+    if (value != null) {
+      return value;
+    }
+    return properties.getProperty(key, defaultValue);
   }
 }
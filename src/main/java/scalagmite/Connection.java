@@ -0,0 +1,466 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A TCP connection between two {@link Transport}s.
+ * <p>
+ * Any thread may send frames: frames are encoded by the sending thread and
+ * queued, the transport's thread then copies as many queued frames as
+ * possible into a single buffer before writing it to the socket. Frames are
+ * read and delivered by the transport's thread.
+ * <p>
+ * A frame is made of its length (4 bytes) followed by its type (1 byte), a
+ * header depending on the type and finally the message written by the
+ * transport's {@link CodecRegistry}. Frames are encoded into pooled direct
+ * buffers, given back to the pool once copied into the write buffer, and
+ * decoded from the read buffer without intermediate copy.
+ */
+final class Connection {
+
+  private static final Logger LOGGER = Logger.getLogger(Connection.class);
+
+  /** A message sent to an agent: name, number, message. */
+  static final byte MESSAGE = 0;
+
+  /**
+   * A request sent to an agent: name, number, reply reference id, name and
+   * number, message.
+   */
+  static final byte REQUEST = 1;
+
+  /** A reply: reply reference id, message. */
+  static final byte REPLY = 2;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int MAX_FRAME_SIZE = CodecRegistry.MAX_BUFFER_SIZE;
+
+  /** Frames are rejected while more bytes than this wait to be written. */
+  private static final long MAX_PENDING_BYTES = 16 * 1024 * 1024;
+
+  /** The header and message of a frame to encode. */
+  private static final class Frame {
+    byte type;
+
+    String name;
+
+    int number;
+
+    long id;
+
+    AgentRef replyTo;
+
+    Object message;
+  }
+
+  private final Transport transport;
+
+  private final CodecRegistry codecs;
+
+  private final Encoder<Frame> frameEncoder = new Encoder<Frame>() {
+    @Override
+    public void write(Frame frame, ByteBuffer buffer) throws IOException {
+      buffer.putInt(0);
+      buffer.put(frame.type);
+      if (frame.type != REPLY) {
+        CodecRegistry.writeString(frame.name, buffer);
+        buffer.putInt(frame.number);
+      }
+      if (frame.type != MESSAGE) {
+        buffer.putLong(frame.id);
+      }
+      if (frame.type == REQUEST) {
+        CodecRegistry.writeString(frame.replyTo.getName(), buffer);
+        buffer.putInt(frame.replyTo.getNumber());
+      }
+      codecs.write(frame.message, buffer);
+      buffer.putInt(0, buffer.position() - 4);
+    }
+  };
+
+  private final SocketChannel channel;
+
+  /** The address the connection was opened to, null if it was accepted. */
+  private final String address;
+
+  private final String description;
+
+  private SelectionKey key;
+
+  private final Queue<ByteBuffer> outgoing = new ConcurrentLinkedQueue<ByteBuffer>();
+
+  private final AtomicLong pendingBytes = new AtomicLong();
+
+  /** True if the connection is queued for writing or being written. */
+  final AtomicBoolean writeRequested = new AtomicBoolean();
+
+  /** The frame partially copied into the write buffer, if any. */
+  private ByteBuffer current;
+
+  private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+  private ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+  private volatile boolean connected;
+
+  /** True while frames wait to be written, only used by transport's thread. */
+  private boolean writing;
+
+  /**
+   * True while a received frame waits for room in its target's mailbox, only
+   * used by transport's thread.
+   */
+  private boolean paused;
+
+  private volatile boolean closed;
+
+  Connection(Transport transport, SocketChannel channel, String address,
+      boolean connected) {
+    this.transport = transport;
+    this.codecs = transport.getCodecs();
+    this.channel = channel;
+    this.address = address;
+    this.connected = connected;
+    this.description = address != null ? address : String.valueOf(channel
+        .socket().getRemoteSocketAddress());
+  }
+
+  String getAddress() {
+    return address;
+  }
+
+  SocketChannel getChannel() {
+    return channel;
+  }
+
+  void setKey(SelectionKey key) {
+    this.key = key;
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Returns the number of bytes waiting to be written.
+   * 
+   * @return A number of bytes.
+   */
+  long getPendingBytes() {
+    return pendingBytes.get();
+  }
+
+  /**
+   * Sends a message to an agent of the remote node. The reply reference of
+   * an {@link Envelope} is exported so that the remote agent can reply.
+   * 
+   * @return False if the message could not be encoded or too many bytes are
+   *         waiting to be written, true otherwise.
+   */
+  boolean send(String name, int number, Object message) {
+    Frame frame = new Frame();
+    frame.name = name;
+    frame.number = number;
+    if (message instanceof Envelope) {
+      Envelope envelope = (Envelope) message;
+      frame.type = REQUEST;
+      frame.replyTo = envelope.getReplyTo();
+      frame.id = transport.export(frame.replyTo);
+      frame.message = envelope.getMessage();
+    } else {
+      frame.type = MESSAGE;
+      frame.message = message;
+    }
+    return enqueue(frame, name + "#" + number);
+  }
+
+  /**
+   * Sends a reply to a reference exported by the remote node.
+   */
+  boolean sendReply(long id, Object message) {
+    Frame frame = new Frame();
+    frame.type = REPLY;
+    frame.id = id;
+    frame.message = message;
+    return enqueue(frame, "reply");
+  }
+
+  private boolean enqueue(Frame frame, String destination) {
+    if (closed) {
+      return false;
+    }
+
+    ByteBuffer buffer;
+    try {
+      buffer = codecs.encode(frame, frameEncoder);
+    } catch (IOException e) {
+      LOGGER.warn("Could not encode message for " + destination, e);
+      return false;
+    }
+
+    int length = buffer.remaining();
+    if (pendingBytes.addAndGet(length) > MAX_PENDING_BYTES) {
+      pendingBytes.addAndGet(-length);
+      codecs.release(buffer);
+      return false;
+    }
+
+    outgoing.add(buffer);
+    if (writeRequested.compareAndSet(false, true)) {
+      transport.requestWrite(this);
+    }
+    return true;
+  }
+
+  /**
+   * Completes a connection opened to a remote node. Called by transport's
+   * thread.
+   */
+  void handleConnect() throws IOException {
+    channel.finishConnect();
+    connected = true;
+    updateInterestOps();
+    if (writeRequested.get()) {
+      handleWrite();
+    }
+  }
+
+  /**
+   * Writes queued frames until the queue is empty or the socket is full, in
+   * which case writing goes on when the socket becomes writable. Called by
+   * transport's thread.
+   */
+  void handleWrite() throws IOException {
+    if (!connected || closed) {
+      return;
+    }
+
+    while (true) {
+      if (!flush()) {
+        writing = true;
+        updateInterestOps();
+        return;
+      }
+      if (writing) {
+        writing = false;
+        updateInterestOps();
+      }
+
+      // A frame queued after the last poll either sees the flag cleared and
+      // requests a write, or is seen here.
+      writeRequested.set(false);
+      if (outgoing.isEmpty() || !writeRequested.compareAndSet(false, true)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Writes queued frames, batching them into the write buffer.
+   * 
+   * @return True if all queued frames were written, false if the socket is
+   *         full.
+   */
+  private boolean flush() throws IOException {
+    while (true) {
+      while (writeBuffer.hasRemaining()) {
+        ByteBuffer frame = current != null ? current : outgoing.poll();
+        if (frame == null) {
+          break;
+        }
+        if (frame.remaining() <= writeBuffer.remaining()) {
+          pendingBytes.addAndGet(-frame.remaining());
+          writeBuffer.put(frame);
+          codecs.release(frame);
+          current = null;
+        } else {
+          int limit = frame.limit();
+          int copied = writeBuffer.remaining();
+          frame.limit(frame.position() + copied);
+          writeBuffer.put(frame);
+          frame.limit(limit);
+          pendingBytes.addAndGet(-copied);
+          current = frame;
+        }
+      }
+
+      if (writeBuffer.position() == 0) {
+        return true;
+      }
+      writeBuffer.flip();
+      channel.write(writeBuffer);
+      boolean written = !writeBuffer.hasRemaining();
+      writeBuffer.compact();
+      if (!written) {
+        return false;
+      }
+    }
+  }
+
+  private void updateInterestOps() {
+    key.interestOps((paused ? 0 : SelectionKey.OP_READ)
+        | (writing ? SelectionKey.OP_WRITE : 0));
+  }
+
+  /**
+   * Reads available bytes and delivers complete frames. Called by
+   * transport's thread.
+   * 
+   * @return False if reading was paused because a frame could not be
+   *         delivered, true otherwise.
+   */
+  boolean handleRead() throws IOException {
+    if (channel.read(readBuffer) < 0) {
+      close();
+      return true;
+    }
+    return deliverFrames();
+  }
+
+  /**
+   * Delivers again the frame which paused reading and the frames received
+   * after it. Called by transport's thread.
+   * 
+   * @return False if reading is still paused, true otherwise.
+   */
+  boolean resume() throws IOException {
+    paused = false;
+    if (!deliverFrames()) {
+      return false;
+    }
+    updateInterestOps();
+    return true;
+  }
+
+  /**
+   * Delivers the complete frames of the read buffer. A frame whose target
+   * has a full mailbox is kept in the buffer and reading is paused, so that
+   * the remote node stops sending once the socket's buffers are full.
+   */
+  private boolean deliverFrames() throws IOException {
+    readBuffer.flip();
+    while (readBuffer.remaining() >= 4) {
+      int length = readBuffer.getInt(readBuffer.position());
+      if (length <= 0 || length > MAX_FRAME_SIZE) {
+        throw new IOException("Invalid frame length " + length);
+      }
+      if (readBuffer.remaining() < length + 4) {
+        if (readBuffer.capacity() < length + 4) {
+          ByteBuffer larger = ByteBuffer.allocateDirect(length + 4);
+          larger.put(readBuffer);
+          readBuffer = larger;
+          return true;
+        }
+        break;
+      }
+
+      int end = readBuffer.position() + length + 4;
+      ByteBuffer frame = readBuffer.duplicate();
+      frame.position(readBuffer.position() + 4);
+      frame.limit(end);
+      boolean delivered = true;
+      try {
+        delivered = deliver(frame);
+      } catch (IOException e) {
+        LOGGER.warn("Dropped invalid frame received from " + this, e);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Dropped invalid frame received from " + this, e);
+      }
+      if (!delivered) {
+        paused = true;
+        updateInterestOps();
+        break;
+      }
+      readBuffer.position(end);
+    }
+    readBuffer.compact();
+    return !paused;
+  }
+
+  /**
+   * Decodes a frame and delivers its message.
+   * 
+   * @return False if the target's mailbox is full, true otherwise.
+   */
+  private boolean deliver(ByteBuffer frame) throws IOException {
+    byte type = frame.get();
+    switch (type) {
+    case MESSAGE: {
+      String name = CodecRegistry.readString(frame);
+      int number = frame.getInt();
+      return transport.deliver(name, number, codecs.read(frame));
+    }
+    case REQUEST: {
+      String name = CodecRegistry.readString(frame);
+      int number = frame.getInt();
+      RemoteAgentRef replyTo = new RemoteAgentRef(this, frame.getLong(),
+          CodecRegistry.readString(frame), frame.getInt());
+      return transport.deliver(name, number, new Envelope(codecs.read(frame),
+          replyTo));
+    }
+    case REPLY: {
+      long id = frame.getLong();
+      return transport.deliverReply(id, codecs.read(frame));
+    }
+    default:
+      throw new IOException("Unknown frame type " + type);
+    }
+  }
+
+  /**
+   * Closes the connection. Frames not yet written are dropped.
+   */
+  void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (key != null) {
+      key.cancel();
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      LOGGER.debug("Could not close channel", e);
+    }
+    transport.closed(this);
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+
+}
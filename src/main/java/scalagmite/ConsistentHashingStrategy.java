@@ -0,0 +1,120 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Arrays;
+
+/**
+ * Delivers messages with the same key to the same member of the group. The
+ * key of a {@link KeyedMessage} is its routing key, the key of any other
+ * message is the message itself.
+ * <p>
+ * Members are placed on a hash ring several times (virtual nodes) and a
+ * message goes to the first member following the hash of its key on the
+ * ring. When a member is added, only the keys falling just before its nodes
+ * move to it.
+ */
+public class ConsistentHashingStrategy implements RoutingStrategy {
+
+  private static final int DEFAULT_VIRTUAL_NODES = 128;
+
+  private final int virtualNodes;
+
+  private volatile Ring ring;
+
+  public ConsistentHashingStrategy() {
+    this(DEFAULT_VIRTUAL_NODES);
+  }
+
+  public ConsistentHashingStrategy(int virtualNodes) {
+    if (virtualNodes <= 0) {
+      throw new IllegalArgumentException(
+          "Number of virtual nodes must be greater than zero");
+    }
+    this.virtualNodes = virtualNodes;
+  }
+
+  @Override
+  public AbstractAgent select(AbstractAgent[] agents, Object message) {
+    Ring current = ring;
+    if (current == null || current.agents != agents) {
+      current = new Ring(agents, virtualNodes);
+      ring = current;
+    }
+
+    Object key = message instanceof KeyedMessage ? ((KeyedMessage) message)
+        .getRoutingKey() : message;
+    int index = Arrays.binarySearch(current.hashes, mix(key.hashCode()));
+    if (index < 0) {
+      index = -index - 1;
+      if (index == current.hashes.length) {
+        index = 0;
+      }
+    }
+    return agents[current.owners[index]];
+  }
+
+  /** Finalization step of MurmurHash3, spreads the bits of a hash code. */
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private static class Ring {
+
+    private final AbstractAgent[] agents;
+
+    /** Sorted hashes of virtual nodes. */
+    private final int[] hashes;
+
+    /** Owners (agent numbers) of virtual nodes. */
+    private final int[] owners;
+
+    private Ring(AbstractAgent[] agents, int virtualNodes) {
+      this.agents = agents;
+
+      // High bits hold the hash and low bits the owner so that sorting
+      // nodes keeps owners attached to their hash.
+      long[] nodes = new long[agents.length * virtualNodes];
+      for (int owner = 0; owner < agents.length; ++owner) {
+        for (int v = 0; v < virtualNodes; ++v) {
+          int hash = mix(owner * 0x9e3779b9 + mix(v));
+          nodes[owner * virtualNodes + v] = ((long) hash << 32) | owner;
+        }
+      }
+      Arrays.sort(nodes);
+
+      hashes = new int[nodes.length];
+      owners = new int[nodes.length];
+      for (int i = 0; i < nodes.length; ++i) {
+        hashes[i] = (int) (nodes[i] >> 32);
+        owners[i] = (int) nodes[i];
+      }
+    }
+  }
+
+}
@@ -0,0 +1,141 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pins threads to CPUs. The JVM does not expose thread affinity, pinning is
+ * therefore only supported on Linux where it is done by running
+ * <code>taskset</code> on the identifier of current thread, read from
+ * <code>/proc/thread-self</code>.
+ */
+final class CpuAffinity {
+
+  private static final Logger LOGGER = Logger.getLogger(CpuAffinity.class);
+
+  private static final Path THREAD_SELF = Paths.get("/proc/thread-self");
+
+  private CpuAffinity() {
+  }
+
+  /**
+   * Parses a list of CPUs such as "0-3,6".
+   * 
+   * @param cpus
+   *          Comma-separated CPU numbers or ranges, may be empty.
+   * @return The CPU numbers, an empty array if none.
+   */
+  static int[] parse(String cpus) {
+    List<Integer> list = new ArrayList<Integer>();
+    for (String part : cpus.split(",")) {
+      part = part.trim();
+      if (part.isEmpty()) {
+        continue;
+      }
+      int dash = part.indexOf('-');
+      if (dash < 0) {
+        list.add(Integer.parseInt(part));
+      } else {
+        int first = Integer.parseInt(part.substring(0, dash).trim());
+        int last = Integer.parseInt(part.substring(dash + 1).trim());
+        for (int cpu = first; cpu <= last; ++cpu) {
+          list.add(cpu);
+        }
+      }
+    }
+
+    int[] result = new int[list.size()];
+    for (int i = 0; i < result.length; ++i) {
+      result[i] = list.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * Tells if current platform supports pinning.
+   * 
+   * @return True if pinning is supported, false otherwise.
+   */
+  static boolean isSupported() {
+    return Files.isSymbolicLink(THREAD_SELF);
+  }
+
+  /**
+   * Restricts current thread to a CPU. A warning is logged on failure.
+   * 
+   * @param cpu
+   *          The CPU number.
+   * @return True if the thread was pinned, false otherwise.
+   */
+  static boolean pinCurrentThread(int cpu) {
+    if (!isSupported()) {
+      LOGGER.warn("CPU pinning is not supported on this platform");
+      return false;
+    }
+
+    try {
+      String tid = Files.readSymbolicLink(THREAD_SELF).getFileName()
+          .toString();
+      Process process = new ProcessBuilder("taskset", "-p", "-c",
+          Integer.toString(cpu), tid).redirectErrorStream(true).start();
+      String output = readAll(process.getInputStream());
+      if (process.waitFor() != 0) {
+        LOGGER.warn("Could not pin thread " + tid + " to CPU " + cpu + ": "
+            + output.trim());
+        return false;
+      }
+      return true;
+    } catch (IOException e) {
+      LOGGER.warn("Could not pin thread to CPU " + cpu, e);
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static String readAll(InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[256];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, read);
+      }
+      return out.toString();
+    } finally {
+      in.close();
+    }
+  }
+
+}
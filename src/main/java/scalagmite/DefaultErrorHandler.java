@@ -26,14 +26,14 @@ import org.apache.log4j.Logger;
 
 public class DefaultErrorHandler implements ErrorHandler {
 
-  private Logger logger;
+  private static final Logger LOGGER = Logger
+      .getLogger(DefaultErrorHandler.class);
 
   DefaultErrorHandler() {
-    logger = Logger.getLogger(getClass());
   }
 
   public boolean isFatal(String agentName, Exception e) {
-    logger.error("Fatal error in agent " + agentName, e);
+    LOGGER.error("Fatal error in agent " + agentName, e);
     return true;
   }
 
@@ -0,0 +1,69 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import org.apache.log4j.Logger;
+
+/**
+ * Timer task delivering a message to an agent. A periodic delivery is
+ * cancelled once the agent is unregistered.
+ */
+class DelayedMessage implements Runnable {
+
+  private static final Logger LOGGER = Logger.getLogger(DelayedMessage.class);
+
+  private final AgentRef dest;
+
+  private final Object message;
+
+  private volatile Timeout timeout;
+
+  DelayedMessage(AgentRef dest, Object message) {
+    this.dest = dest;
+    this.message = message;
+  }
+
+  void setTimeout(Timeout timeout) {
+    this.timeout = timeout;
+  }
+
+  @Override
+  public void run() {
+    try {
+      if (!dest.tell(message) && LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Delayed message " + message.getClass().getName()
+            + " rejected by agent " + dest);
+      }
+    } catch (AgentException e) {
+      Timeout current = timeout;
+      if (current != null) {
+        current.cancel();
+      }
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Delayed message " + message.getClass().getName()
+            + " not delivered: " + e.getMessage());
+      }
+    }
+  }
+
+}
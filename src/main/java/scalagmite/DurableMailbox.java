@@ -0,0 +1,641 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A mailbox whose messages survive the termination of the JVM.
+ * <p>
+ * Each inserted message is encoded by a {@link CodecRegistry} and appended
+ * to a log made of memory-mapped segment files before being queued in
+ * memory. Consumers get messages from memory; the agent acknowledges each
+ * message once handled, which moves a read offset persisted in the same
+ * directory. When a mailbox is opened on a directory holding a log, the
+ * messages appended after the read offset are queued again and are therefore
+ * handled once more by the agent: delivery is at-least-once.
+ * <p>
+ * Producers do not share a lock: each one reserves the space of its message
+ * in the current segment with a compare-and-set, copies the message there
+ * and then queues it, waiting for the producers which reserved space before
+ * it so that messages are queued in log order. Only replacing a full segment
+ * takes a lock.
+ * <p>
+ * A segment is replaced by a new one when full and deleted once all its
+ * messages have been acknowledged. Disk usage is bounded by the number of
+ * segments, a mailbox with all its segments full rejecting messages like a
+ * bounded mailbox. Each open segment also maps <code>segmentSize</code>
+ * bytes of address space. Mapped memory is only released when the garbage
+ * collector reclaims a segment dropped by the mailbox, which happens once
+ * the segment is deleted or the mailbox closed.
+ * <p>
+ * Messages written to a mapped file reach the disk even if the JVM dies, but
+ * may be lost if the operating system does. With <code>sync</code> enabled,
+ * insertion waits until the message is forced to disk. Concurrent producers
+ * share the same force (group commit): while a force is in progress, the
+ * messages appended meanwhile wait for the next one, which covers all of
+ * them.
+ * <p>
+ * Requests ({@link Envelope}s) are logged without their reply reference:
+ * replayed requests cannot be replied to. Messages which cannot be logged,
+ * because the codec registry does not support them, they do not fit in a
+ * segment, the mailbox is closed or the log cannot be written, are refused:
+ * the error is logged and the message dropped.
+ */
+public class DurableMailbox extends AbstractMpscMailbox {
+
+  private static final Logger LOGGER = Logger.getLogger(DurableMailbox.class);
+
+  public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private static final String OFFSET_FILE = "offset";
+
+  private static final int INSERTED = 0;
+
+  private static final int FULL = 1;
+
+  private static final int FAILED = 2;
+
+  /** A logged message, as returned to the consumer. */
+  static final class LoggedMessage {
+    private final Object message;
+
+    /** The offset following the message in the log. */
+    private final long end;
+
+    LoggedMessage(Object message, long end) {
+      this.message = message;
+      this.end = end;
+    }
+
+    Object getMessage() {
+      return message;
+    }
+
+    long getEnd() {
+      return end;
+    }
+  }
+
+  private static final class Segment {
+    /** The offset of segment's first byte in the log. */
+    final long base;
+
+    final File file;
+
+    final FileChannel channel;
+
+    final MappedByteBuffer buffer;
+
+    /** End of replayed messages, only used while the mailbox is opened. */
+    int position;
+
+    /**
+     * End of the space reserved by producers, greater than the segment size
+     * once the segment is sealed.
+     */
+    final AtomicInteger reserved = new AtomicInteger();
+
+    /** Used bytes of a sealed segment, -1 until sealed, guarded by mailbox. */
+    int sealedSize = -1;
+
+    Segment(File file, long base, int size) throws IOException {
+      this.base = base;
+      this.file = file;
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        channel = raf.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      } catch (IOException e) {
+        raf.close();
+        throw e;
+      }
+    }
+
+    void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOGGER.debug("Could not close segment " + file, e);
+      }
+    }
+  }
+
+  private final File directory;
+
+  private final CodecRegistry codecs;
+
+  private final int segmentSize;
+
+  private final int maxSegments;
+
+  private final boolean sync;
+
+  private final MpscMailbox queue = new MpscMailbox();
+
+  /** Segments, oldest first, guarded by this. */
+  private final List<Segment> segments = new ArrayList<Segment>();
+
+  /** The segment messages are appended to, null once closed. */
+  private volatile Segment tail;
+
+  /** The offset following the last queued message. */
+  private volatile long committed;
+
+  private volatile boolean closed;
+
+  /** Base of the second oldest segment, the log's end if there is none. */
+  private volatile long reclaimOffset;
+
+  private final FileChannel offsetChannel;
+
+  private final MappedByteBuffer offsetBuffer;
+
+  private final Object syncLock = new Object();
+
+  /** The offset up to which the log was forced, guarded by syncLock. */
+  private long synced;
+
+  private boolean syncing;
+
+  /**
+   * Opens a durable mailbox with default settings (see
+   * {@link #DurableMailbox(File, CodecRegistry, int, int, boolean)}).
+   */
+  public DurableMailbox(File directory, CodecRegistry codecs)
+      throws IOException {
+    this(directory, codecs, DEFAULT_SEGMENT_SIZE, 0, false);
+  }
+
+  /**
+   * Opens a durable mailbox, queuing the messages not acknowledged before.
+   * 
+   * @param directory
+   *          The directory of the log, used by this mailbox only.
+   * @param codecs
+   *          The registry encoding the messages.
+   * @param segmentSize
+   *          The size of a segment file in bytes, which bounds the size of
+   *          an encoded message.
+   * @param maxSegments
+   *          The maximum number of segments, 0 for no limit.
+   * @param sync
+   *          True to force messages to disk before insertion returns.
+   * @throws IOException
+   *           If the log could not be opened.
+   */
+  public DurableMailbox(File directory, CodecRegistry codecs, int segmentSize,
+      int maxSegments, boolean sync) throws IOException {
+    if (segmentSize < 64) {
+      throw new IllegalArgumentException("Segment size is too small");
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory " + directory);
+    }
+    this.directory = directory;
+    this.codecs = codecs;
+    this.segmentSize = segmentSize;
+    this.maxSegments = maxSegments;
+    this.sync = sync;
+
+    RandomAccessFile raf = new RandomAccessFile(new File(directory,
+        OFFSET_FILE), "rw");
+    offsetChannel = raf.getChannel();
+    offsetBuffer = offsetChannel.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+    replay(offsetBuffer.getLong(0));
+  }
+
+  private synchronized void replay(long readOffset) throws IOException {
+    long[] bases = listSegments();
+    int replayed = 0;
+    for (int i = 0; i < bases.length; ++i) {
+      File file = segmentFile(bases[i]);
+      if (i + 1 < bases.length && bases[i + 1] <= readOffset) {
+        delete(file);
+        continue;
+      }
+
+      Segment segment = new Segment(file, bases[i], segmentSize);
+      segments.add(segment);
+      segment.position = (int) Math.max(0, Math.min(readOffset - bases[i],
+          segmentSize));
+      replayed += scan(segment);
+    }
+
+    if (segments.isEmpty()) {
+      segments.add(new Segment(segmentFile(readOffset), readOffset,
+          segmentSize));
+    }
+    Segment last = segments.get(segments.size() - 1);
+    last.reserved.set(last.position);
+    tail = last;
+    committed = last.base + last.position;
+    synced = committed;
+    updateReclaimOffset();
+
+    if (replayed > 0 && LOGGER.isInfoEnabled()) {
+      LOGGER.info("Replaying " + replayed + " messages from " + directory);
+    }
+  }
+
+  /**
+   * Queues the messages of a segment from its position, which is moved to
+   * the end of the last complete message.
+   * 
+   * @return The number of queued messages.
+   */
+  private int scan(Segment segment) {
+    ByteBuffer buffer = segment.buffer;
+    int count = 0;
+    while (segment.position <= segmentSize - 4) {
+      int length = buffer.getInt(segment.position);
+      if (length <= 0 || length > segmentSize - segment.position - 4) {
+        break;
+      }
+      int end = segment.position + 4 + length;
+
+      ByteBuffer record = buffer.duplicate();
+      record.position(segment.position + 4);
+      record.limit(end);
+      try {
+        queue.offer(new LoggedMessage(codecs.read(record), segment.base + end));
+        ++count;
+      } catch (Exception e) {
+        LOGGER.error("Skipped unreadable message at offset "
+            + (segment.base + segment.position) + " in " + directory, e);
+      }
+      segment.position = end;
+    }
+    return count;
+  }
+
+  private long[] listSegments() {
+    String[] names = directory.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    List<Long> bases = new ArrayList<Long>();
+    for (String name : names) {
+      try {
+        bases.add(Long.parseLong(name.substring(0, name.length()
+            - SEGMENT_SUFFIX.length())));
+      } catch (NumberFormatException e) {
+        LOGGER.warn("Ignoring file " + name + " in " + directory);
+      }
+    }
+    long[] sorted = new long[bases.size()];
+    for (int i = 0; i < sorted.length; ++i) {
+      sorted[i] = bases.get(i);
+    }
+    Arrays.sort(sorted);
+    return sorted;
+  }
+
+  private File segmentFile(long base) {
+    return new File(directory, String.format("%020d", base) + SEGMENT_SUFFIX);
+  }
+
+  private static void delete(File file) {
+    if (!file.delete()) {
+      LOGGER.warn("Could not delete " + file);
+    }
+  }
+
+  /**
+   * Appends a message to the log and queues it.
+   * 
+   * @return False if the log is full or the message was refused, true
+   *         otherwise.
+   */
+  @Override
+  public boolean offer(Object message) {
+    return insert(message) == INSERTED;
+  }
+
+  /**
+   * Appends a message to the log and queues it, waiting while the log is
+   * full. A refused message is dropped.
+   */
+  @Override
+  public void put(Object message) throws InterruptedException {
+    int attempts = 0;
+    while (insert(message) == FULL) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      WaitStrategy.PARK.idle(attempts++);
+    }
+  }
+
+  private int insert(Object message) {
+    if (message == null) {
+      throw new NullPointerException();
+    }
+    if (closed) {
+      LOGGER.warn("Dropped message inserted into closed " + this);
+      return FAILED;
+    }
+
+    Object logged = message;
+    if (logged instanceof TimestampedMessage) {
+      logged = ((TimestampedMessage) logged).getMessage();
+    }
+    if (logged instanceof Envelope) {
+      logged = ((Envelope) logged).getMessage();
+    }
+
+    ByteBuffer encoded;
+    try {
+      encoded = codecs.encode(logged);
+    } catch (IOException e) {
+      LOGGER.error("Could not log message of " + logged.getClass() + " in "
+          + directory, e);
+      return FAILED;
+    }
+
+    long end;
+    try {
+      if (encoded.remaining() + 4 > segmentSize) {
+        LOGGER.error("Could not log message of " + encoded.remaining()
+            + " bytes, larger than a segment of " + directory);
+        return FAILED;
+      }
+      end = append(message, encoded);
+    } catch (IOException e) {
+      LOGGER.error("Could not append to log in " + directory, e);
+      return FAILED;
+    } finally {
+      codecs.release(encoded);
+    }
+    if (end < 0) {
+      return closed ? FAILED : FULL;
+    }
+
+    signalConsumer();
+    if (sync) {
+      force(end);
+    }
+    return INSERTED;
+  }
+
+  /**
+   * Copies an encoded message into the log and queues the message.
+   * 
+   * @return The offset following the message or -1 if the log is full or
+   *         closed.
+   */
+  private long append(Object message, ByteBuffer encoded) throws IOException {
+    int length = encoded.remaining();
+    int size = 4 + length;
+    Segment segment;
+    int position;
+    while (true) {
+      segment = tail;
+      if (segment == null) {
+        return -1;
+      }
+      position = segment.reserved.get();
+      if (position + size <= segmentSize) {
+        if (segment.reserved.compareAndSet(position, position + size)) {
+          break;
+        }
+      } else if (!roll(segment)) {
+        return -1;
+      }
+    }
+
+    // Nothing may fail from here: producers which reserved space after this
+    // one wait until this message is queued.
+
+    // The length is written last: a message partially written when the JVM
+    // dies is followed by a zero length and ignored on replay.
+    ByteBuffer buffer = segment.buffer.duplicate();
+    buffer.position(position + 4);
+    buffer.put(encoded);
+    segment.buffer.putInt(position, length);
+
+    long start = segment.base + position;
+    int attempts = 0;
+    while (committed != start) {
+      WaitStrategy.PARK.idle(attempts++);
+    }
+    long end = start + size;
+    queue.offer(new LoggedMessage(message, end));
+    committed = end;
+    return end;
+  }
+
+  /**
+   * Replaces a full segment by a new one, unless another producer already
+   * did.
+   * 
+   * @return False if the log already has its maximum number of segments or
+   *         is closed, true otherwise.
+   */
+  private synchronized boolean roll(Segment full) throws IOException {
+    if (tail != full) {
+      return tail != null;
+    }
+    if (maxSegments > 0 && segments.size() >= maxSegments) {
+      return false;
+    }
+
+    if (full.sealedSize < 0) {
+      full.sealedSize = full.reserved.getAndSet(segmentSize + 1);
+    }
+    long base = full.base + full.sealedSize;
+    Segment segment = new Segment(segmentFile(base), base, segmentSize);
+    segments.add(segment);
+    tail = segment;
+    updateReclaimOffset();
+    return true;
+  }
+
+  private void updateReclaimOffset() {
+    reclaimOffset = segments.size() > 1 ? segments.get(1).base
+        : Long.MAX_VALUE;
+  }
+
+  /**
+   * Waits until the log is forced up to a given offset, forcing it if no
+   * other thread does.
+   */
+  private void force(long end) {
+    boolean interrupted = false;
+    while (true) {
+      long from;
+      synchronized (syncLock) {
+        while (syncing && synced < end) {
+          try {
+            syncLock.wait();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+        if (synced >= end) {
+          break;
+        }
+        syncing = true;
+        from = synced;
+      }
+
+      // Messages after the last forced offset may be in several segments
+      long target = committed;
+      List<MappedByteBuffer> buffers = new ArrayList<MappedByteBuffer>(2);
+      synchronized (this) {
+        for (Segment segment : segments) {
+          if (segment.base + segmentSize > from) {
+            buffers.add(segment.buffer);
+          }
+        }
+      }
+      try {
+        for (MappedByteBuffer buffer : buffers) {
+          buffer.force();
+        }
+      } finally {
+        synchronized (syncLock) {
+          synced = Math.max(synced, target);
+          syncing = false;
+          syncLock.notifyAll();
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Queues a message without logging it. Used to wake up the consumer.
+   */
+  void offerTransient(Object message) {
+    queue.offer(message);
+    signalConsumer();
+  }
+
+  /**
+   * Returns the oldest message, wrapped into a {@link LoggedMessage} unless
+   * it was queued with {@link #offerTransient(Object)}.
+   */
+  @Override
+  public Object poll() {
+    return queue.poll();
+  }
+
+  @Override
+  public int size() {
+    return queue.size();
+  }
+
+  /**
+   * Persists the read offset after a handled message and deletes the
+   * segments holding only acknowledged messages. Called by the consumer, in
+   * the order messages were polled.
+   * 
+   * @param message
+   *          The handled message.
+   */
+  void acknowledge(LoggedMessage message) {
+    acknowledge(message.getEnd());
+  }
+
+  /**
+   * Persists the read offset after the messages up to a given offset. Called
+   * by a single thread at a time, with increasing offsets.
+   * 
+   * @param end
+   *          The offset following the last handled message.
+   */
+  void acknowledge(long end) {
+    offsetBuffer.putLong(0, end);
+    if (end >= reclaimOffset) {
+      reclaim(end);
+    }
+  }
+
+  private synchronized void reclaim(long readOffset) {
+    while (segments.size() > 1 && segments.get(1).base <= readOffset) {
+      Segment segment = segments.remove(0);
+      segment.close();
+      delete(segment.file);
+    }
+    updateReclaimOffset();
+  }
+
+  /**
+   * Returns the number of segment files of the log.
+   * 
+   * @return A number of segments.
+   */
+  public synchronized int getNumOfSegments() {
+    return segments.size();
+  }
+
+  /**
+   * Forces the log and the read offset to disk and closes the files.
+   * Messages can no longer be inserted. Segments are dropped so that their
+   * mapped memory can be released.
+   */
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    tail = null;
+    for (Segment segment : segments) {
+      segment.buffer.force();
+      segment.close();
+    }
+    segments.clear();
+    offsetBuffer.force();
+    try {
+      offsetChannel.close();
+    } catch (IOException e) {
+      LOGGER.debug("Could not close offset file", e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "DurableMailbox(" + directory + ")";
+  }
+
+}
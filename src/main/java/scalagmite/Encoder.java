@@ -0,0 +1,42 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes values of a given type into buffers, see
+ * {@link CodecRegistry#encode(Object, Encoder)}. A {@link Codec} is an
+ * encoder which also reads back what it wrote; a plain encoder suits
+ * values which are decoded piecewise, such as the frames of a
+ * {@link Connection}.
+ * 
+ * @param <T>
+ *          The type of the values.
+ */
+public interface Encoder<T> {
+
+  void write(T value, ByteBuffer buffer) throws IOException;
+
+}
@@ -0,0 +1,58 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * A message together with the reference replies are sent to. The recipient
+ * handles the wrapped message as if it was sent alone and answers with
+ * {@link AbstractAgent#reply(Object)}.
+ */
+public class Envelope {
+
+  private final Object message;
+
+  private final AgentRef replyTo;
+
+  public Envelope(Object message, AgentRef replyTo) {
+    if (message == null || replyTo == null) {
+      throw new IllegalArgumentException(
+          "Message and reply reference cannot be null");
+    }
+    this.message = message;
+    this.replyTo = replyTo;
+  }
+
+  public Object getMessage() {
+    return message;
+  }
+
+  public AgentRef getReplyTo() {
+    return replyTo;
+  }
+
+  @Override
+  public String toString() {
+    return message + " (reply to " + replyTo + ")";
+  }
+
+}
@@ -0,0 +1,71 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A work queue backed by a single FIFO queue shared by all workers.
+ */
+public class FifoWorkQueue implements WorkerQueue {
+
+  private final BlockingQueue<Slot> queue = new LinkedBlockingQueue<Slot>();
+
+  @Override
+  public WorkerQueue newWorkerView() {
+    return this;
+  }
+
+  @Override
+  public void put(Slot slot) throws InterruptedException {
+    queue.put(slot);
+  }
+
+  @Override
+  public Slot take() throws InterruptedException {
+    return queue.take();
+  }
+
+  @Override
+  public Slot poll() {
+    return queue.poll();
+  }
+
+  @Override
+  public Slot poll(long timeout, TimeUnit unit) throws InterruptedException {
+    return queue.poll(timeout, unit);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return queue.isEmpty();
+  }
+
+  @Override
+  public void release() {
+    // Slots are shared by all workers
+  }
+
+}
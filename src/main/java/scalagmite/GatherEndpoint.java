@@ -0,0 +1,176 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Collects the replies to a scattered request and delivers them to the
+ * requesting agent as a single {@link GatheredReplies} message. Each member
+ * replies through its own reference (see {@link #getMember(int)}) so that
+ * only the first reply of a member is recorded.
+ */
+class GatherEndpoint {
+
+  private static final Logger LOGGER = Logger.getLogger(GatherEndpoint.class);
+
+  /** Stored in the slot of a member which replied with null. */
+  private static final Object NULL_REPLY = new Object();
+
+  private final AbstractAgent requester;
+
+  private final Object request;
+
+  /** Replies indexed by member, null while a member did not reply. */
+  private final AtomicReferenceArray<Object> replies;
+
+  /** Number of members which replied. */
+  private final AtomicInteger received = new AtomicInteger();
+
+  /** Number of members the request could not be delivered to. */
+  private final AtomicInteger skipped = new AtomicInteger();
+
+  private final AtomicBoolean done = new AtomicBoolean();
+
+  private volatile Timeout timeout;
+
+  GatherEndpoint(AbstractAgent requester, Object request, int members) {
+    this.requester = requester;
+    this.request = request;
+    this.replies = new AtomicReferenceArray<Object>(members);
+  }
+
+  /**
+   * Returns the reference a member replies to.
+   * 
+   * @param index
+   *          The index of the member, between 0 and the number of members.
+   * @return A reference recording the first reply of the member.
+   */
+  AgentRef getMember(int index) {
+    return new Member(index);
+  }
+
+  /**
+   * Records the reply of a member. Replies of a member which already replied,
+   * received once all expected replies were received or after the timeout
+   * are ignored.
+   */
+  private boolean record(int index, Object message) {
+    if (done.get()) {
+      return false;
+    }
+    if (!replies.compareAndSet(index, null, message != null ? message
+        : NULL_REPLY)) {
+      return false;
+    }
+    received.incrementAndGet();
+    completeIfAnswered();
+    return true;
+  }
+
+  void setTimeout(Timeout timeout) {
+    this.timeout = timeout;
+  }
+
+  /** Marks a member as unable to answer because the request was rejected. */
+  void skip() {
+    skipped.incrementAndGet();
+    completeIfAnswered();
+  }
+
+  /** Delivers the replies received so far. */
+  void expire() {
+    complete();
+  }
+
+  private void completeIfAnswered() {
+    if (received.get() + skipped.get() >= replies.length()) {
+      complete();
+    }
+  }
+
+  private void complete() {
+    if (!done.compareAndSet(false, true)) {
+      return;
+    }
+
+    Timeout current = timeout;
+    if (current != null) {
+      current.cancel();
+    }
+
+    List<Object> list = new ArrayList<Object>(replies.length());
+    for (int i = 0; i < replies.length(); ++i) {
+      Object reply = replies.get(i);
+      if (reply != null && reply != NULL_REPLY) {
+        list.add(reply);
+      }
+    }
+    GatheredReplies gathered = new GatheredReplies(request,
+        Collections.unmodifiableList(list), replies.length() - skipped.get());
+    if (!requester.submitMessage(gathered)) {
+      LOGGER.warn(
+          "Gathered replies rejected by agent " + requester.getName());
+    }
+  }
+
+  /** The reference one member of the group replies to. */
+  private class Member implements AgentRef {
+
+    private final int index;
+
+    Member(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public String getName() {
+      return requester.getName();
+    }
+
+    @Override
+    public int getNumber() {
+      return requester.getNumber();
+    }
+
+    @Override
+    public boolean isValid() {
+      return !done.get();
+    }
+
+    @Override
+    public boolean tell(Object message) throws AgentException {
+      return record(index, message);
+    }
+
+  }
+
+}
@@ -0,0 +1,81 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.List;
+
+/**
+ * The message delivered to an agent once all the members of a group answered
+ * a request sent with
+ * {@link AbstractAgent#scatterGather(String, Object, long)} or the timeout of
+ * the request expired.
+ */
+public class GatheredReplies {
+
+  private final Object request;
+
+  private final List<Object> replies;
+
+  private final int expected;
+
+  GatheredReplies(Object request, List<Object> replies, int expected) {
+    this.request = request;
+    this.replies = replies;
+    this.expected = expected;
+  }
+
+  public Object getRequest() {
+    return request;
+  }
+
+  /**
+   * Returns the replies ordered by the index of the member which sent them,
+   * whatever the order they were received in. Members which did not answer,
+   * or answered null, are left out.
+   * 
+   * @return An unmodifiable list of replies.
+   */
+  public List<Object> getReplies() {
+    return replies;
+  }
+
+  /**
+   * Returns the number of members the request was delivered to.
+   * 
+   * @return A number of members.
+   */
+  public int getExpected() {
+    return expected;
+  }
+
+  /**
+   * Tells if all the members the request was delivered to answered before the
+   * timeout.
+   * 
+   * @return True if no reply is missing, false otherwise.
+   */
+  public boolean isComplete() {
+    return replies.size() == expected;
+  }
+
+}
@@ -0,0 +1,114 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Maps message classes to the handlers resolved for them.
+ * <p>
+ * This is an open-addressing hash table using class identity and linear
+ * probing: a lookup for a class already seen reads one or a few array slots
+ * and never allocates. The cache is not thread-safe, it is meant to be used by
+ * the thread consuming agent's messages.
+ */
+public class HandlerCache {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private Class<?>[] keys;
+
+  private MessageHandler<?>[] values;
+
+  private int size;
+
+  public HandlerCache() {
+    clear();
+  }
+
+  /**
+   * Returns the handler cached for given class.
+   * 
+   * @param type
+   *          A message class.
+   * @return The cached handler or null if the class has not been cached.
+   */
+  public MessageHandler<?> get(Class<?> type) {
+    Class<?>[] k = keys;
+    int mask = k.length - 1;
+    int i = hash(type) & mask;
+    while (true) {
+      Class<?> key = k[i];
+      if (key == type) {
+        return values[i];
+      } else if (key == null) {
+        return null;
+      }
+      i = (i + 1) & mask;
+    }
+  }
+
+  public void put(Class<?> type, MessageHandler<?> handler) {
+    if ((size + 1) * 2 > keys.length) {
+      resize(keys.length * 2);
+    }
+    if (insert(keys, values, type, handler)) {
+      ++size;
+    }
+  }
+
+  public void clear() {
+    keys = new Class<?>[INITIAL_CAPACITY];
+    values = new MessageHandler<?>[INITIAL_CAPACITY];
+    size = 0;
+  }
+
+  private void resize(int capacity) {
+    Class<?>[] newKeys = new Class<?>[capacity];
+    MessageHandler<?>[] newValues = new MessageHandler<?>[capacity];
+    for (int i = 0; i < keys.length; ++i) {
+      if (keys[i] != null) {
+        insert(newKeys, newValues, keys[i], values[i]);
+      }
+    }
+    keys = newKeys;
+    values = newValues;
+  }
+
+  private static boolean insert(Class<?>[] k, MessageHandler<?>[] v,
+      Class<?> type, MessageHandler<?> handler) {
+    int mask = k.length - 1;
+    int i = hash(type) & mask;
+    while (k[i] != null && k[i] != type) {
+      i = (i + 1) & mask;
+    }
+    boolean added = k[i] == null;
+    k[i] = type;
+    v[i] = handler;
+    return added;
+  }
+
+  private static int hash(Class<?> type) {
+    int h = System.identityHashCode(type);
+    return h ^ (h >>> 16);
+  }
+
+}
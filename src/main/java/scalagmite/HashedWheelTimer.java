@@ -0,0 +1,444 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs tasks after a delay using a hashed timing wheel: scheduling and
+ * cancelling a task take constant time, whatever the number of pending
+ * tasks, at the cost of a precision limited to the duration of a tick.
+ * <p>
+ * Tasks are run by a single thread, started on first use, and must therefore
+ * be short. Tasks are inserted into the wheel and removed from it by this
+ * thread only; other threads only enqueue insertions and cancellations.
+ */
+public class HashedWheelTimer {
+
+  private static final Logger LOGGER = Logger.getLogger(HashedWheelTimer.class);
+
+  private static final int INIT = 0;
+
+  private static final int STARTED = 1;
+
+  private static final int STOPPED = 2;
+
+  /** Maximum number of insertions transferred into the wheel per tick. */
+  private static final int MAX_TRANSFERS = 100000;
+
+  private final long tickDuration;
+
+  private final Bucket[] wheel;
+
+  private final int mask;
+
+  private final Queue<TimeoutImpl> insertions = new ConcurrentLinkedQueue<TimeoutImpl>();
+
+  private final Queue<TimeoutImpl> cancellations = new ConcurrentLinkedQueue<TimeoutImpl>();
+
+  /**
+   * Timeouts to insert back once the current bucket has been expired, only
+   * used by timer's thread.
+   */
+  private final Queue<TimeoutImpl> reinsertions = new ArrayDeque<TimeoutImpl>();
+
+  private final AtomicInteger state = new AtomicInteger(INIT);
+
+  private final AtomicLong pendingTimeouts = new AtomicLong();
+
+  private final CountDownLatch started = new CountDownLatch(1);
+
+  private final Thread thread;
+
+  /** Origin of deadlines, set when the thread starts. */
+  private volatile long startTime;
+
+  /** Number of ticks since start, only used by timer's thread. */
+  private long tick;
+
+  /**
+   * Creates a timer with a tick of 10 milliseconds and 512 buckets.
+   */
+  public HashedWheelTimer() {
+    this(10, 512);
+  }
+
+  /**
+   * Creates a timer.
+   * 
+   * @param tickDuration
+   *          The duration of a tick in milliseconds.
+   * @param wheelSize
+   *          The number of buckets of the wheel, rounded up to a power of 2.
+   */
+  public HashedWheelTimer(long tickDuration, int wheelSize) {
+    if (tickDuration <= 0 || wheelSize <= 0) {
+      throw new IllegalArgumentException(
+          "Tick duration and wheel size must be greater than zero");
+    }
+    this.tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+
+    int size = 1;
+    while (size < wheelSize) {
+      size <<= 1;
+    }
+    wheel = new Bucket[size];
+    for (int i = 0; i < size; ++i) {
+      wheel[i] = new Bucket();
+    }
+    mask = size - 1;
+
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runWheel();
+      }
+    }, "Timer");
+    thread.setDaemon(true);
+  }
+
+  /**
+   * Runs a task once after a delay.
+   * 
+   * @param task
+   *          The task.
+   * @param delay
+   *          The delay in milliseconds.
+   * @return A handle used to cancel the task.
+   */
+  public Timeout schedule(Runnable task, long delay) {
+    return schedule(task, delay, 0);
+  }
+
+  /**
+   * Runs a task periodically. The task is run after a delay and then every
+   * period, periods being measured from the first expected run.
+   * 
+   * @param task
+   *          The task.
+   * @param delay
+   *          The delay before the first run, in milliseconds.
+   * @param period
+   *          The period in milliseconds, 0 to run the task only once.
+   * @return A handle used to cancel the task.
+   */
+  public Timeout schedule(Runnable task, long delay, long period) {
+    if (task == null) {
+      throw new IllegalArgumentException("Task cannot be null");
+    }
+    if (delay < 0 || period < 0) {
+      throw new IllegalArgumentException(
+          "Delay and period cannot be negative");
+    }
+    start();
+
+    TimeoutImpl timeout = new TimeoutImpl(task, System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(delay) - startTime,
+        TimeUnit.MILLISECONDS.toNanos(period));
+    pendingTimeouts.incrementAndGet();
+    insertions.add(timeout);
+    return timeout;
+  }
+
+  /**
+   * Returns the number of scheduled tasks not yet run nor cancelled.
+   * 
+   * @return A number of tasks.
+   */
+  public long getPendingTimeouts() {
+    return pendingTimeouts.get();
+  }
+
+  /**
+   * Stops the timer. Pending tasks are not run. Unless called by a task, waits
+   * for timer's thread to terminate.
+   * 
+   * @throws InterruptedException
+   *           If interrupted while waiting for timer's thread to terminate.
+   */
+  public void stop() throws InterruptedException {
+    if (state.getAndSet(STOPPED) == STARTED) {
+      thread.interrupt();
+      if (Thread.currentThread() != thread) {
+        thread.join();
+      }
+    }
+  }
+
+  private void start() {
+    switch (state.get()) {
+    case INIT:
+      if (state.compareAndSet(INIT, STARTED)) {
+        thread.start();
+      }
+      break;
+    case STARTED:
+      break;
+    default:
+      throw new IllegalStateException("Timer has been stopped");
+    }
+
+    while (startTime == 0) {
+      try {
+        started.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while starting timer");
+      }
+    }
+  }
+
+  private void runWheel() {
+    long now = System.nanoTime();
+    // 0 means not started
+    startTime = now == 0 ? 1 : now;
+    started.countDown();
+
+    while (state.get() == STARTED) {
+      long deadline = waitForNextTick();
+      if (deadline < 0) {
+        break;
+      }
+      removeCancelled();
+      transferInsertions();
+      wheel[(int) (tick & mask)].expire(deadline);
+      transferReinsertions();
+      ++tick;
+    }
+  }
+
+  /**
+   * Sleeps until the end of current tick.
+   * 
+   * @return The time elapsed since start or -1 if timer was stopped.
+   */
+  private long waitForNextTick() {
+    long deadline = tickDuration * (tick + 1);
+    while (true) {
+      long current = System.nanoTime() - startTime;
+      long sleep = deadline - current;
+      if (sleep <= 0) {
+        return current;
+      }
+      try {
+        TimeUnit.NANOSECONDS.sleep(sleep);
+      } catch (InterruptedException e) {
+        if (state.get() == STOPPED) {
+          return -1;
+        }
+      }
+    }
+  }
+
+  private void removeCancelled() {
+    TimeoutImpl timeout;
+    while ((timeout = cancellations.poll()) != null) {
+      if (timeout.bucket != null) {
+        timeout.bucket.remove(timeout);
+      }
+    }
+  }
+
+  private void transferInsertions() {
+    for (int i = 0; i < MAX_TRANSFERS; ++i) {
+      TimeoutImpl timeout = insertions.poll();
+      if (timeout == null) {
+        break;
+      }
+      if (timeout.state.get() == TimeoutImpl.CANCELLED) {
+        continue;
+      }
+      insert(timeout, tick);
+    }
+  }
+
+  /**
+   * Inserts the timeouts removed from the bucket just expired and not run
+   * yet. They are only inserted once the bucket has been walked, the bucket
+   * of a timeout whose deadline is a whole number of rounds away being the
+   * expired one.
+   */
+  private void transferReinsertions() {
+    TimeoutImpl timeout;
+    while ((timeout = reinsertions.poll()) != null) {
+      if (timeout.state.get() != TimeoutImpl.CANCELLED) {
+        insert(timeout, tick + 1);
+      }
+    }
+  }
+
+  /**
+   * Inserts a timeout into the wheel.
+   * 
+   * @param minTick
+   *          The first tick whose bucket has not been expired yet. Deadlines
+   *          already passed are expired with this tick.
+   */
+  private void insert(TimeoutImpl timeout, long minTick) {
+    long ticks = Math.max(timeout.deadline / tickDuration, minTick);
+    timeout.remainingRounds = (ticks - minTick) / wheel.length;
+    wheel[(int) (ticks & mask)].add(timeout);
+  }
+
+  private final class TimeoutImpl implements Timeout {
+
+    private static final int ACTIVE = 0;
+
+    private static final int CANCELLED = 1;
+
+    private static final int EXPIRED = 2;
+
+    private final Runnable task;
+
+    private final long period;
+
+    private final AtomicInteger state = new AtomicInteger(ACTIVE);
+
+    /** Time relative to timer's start, in nanoseconds. */
+    private long deadline;
+
+    private long remainingRounds;
+
+    private Bucket bucket;
+
+    private TimeoutImpl next;
+
+    private TimeoutImpl prev;
+
+    private TimeoutImpl(Runnable task, long deadline, long period) {
+      this.task = task;
+      this.deadline = deadline;
+      this.period = period;
+    }
+
+    @Override
+    public boolean cancel() {
+      if (!state.compareAndSet(ACTIVE, CANCELLED)) {
+        return false;
+      }
+      pendingTimeouts.decrementAndGet();
+      cancellations.add(this);
+      return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return state.get() == CANCELLED;
+    }
+
+    @Override
+    public boolean isExpired() {
+      return state.get() == EXPIRED;
+    }
+
+    private void expire() {
+      if (period == 0) {
+        if (!state.compareAndSet(ACTIVE, EXPIRED)) {
+          return;
+        }
+        pendingTimeouts.decrementAndGet();
+      } else if (state.get() != ACTIVE) {
+        return;
+      }
+
+      try {
+        task.run();
+      } catch (Throwable t) {
+        LOGGER.warn("Timer task raised an error", t);
+      }
+
+      if (period > 0 && state.get() == ACTIVE) {
+        deadline += period;
+        reinsertions.add(this);
+      }
+    }
+  }
+
+  /** Doubly-linked list of the timeouts of a wheel slot. */
+  private final class Bucket {
+
+    private TimeoutImpl head;
+
+    private TimeoutImpl tail;
+
+    private void add(TimeoutImpl timeout) {
+      timeout.bucket = this;
+      if (head == null) {
+        head = timeout;
+        tail = timeout;
+      } else {
+        tail.next = timeout;
+        timeout.prev = tail;
+        tail = timeout;
+      }
+    }
+
+    private void expire(long deadline) {
+      TimeoutImpl timeout = head;
+      while (timeout != null) {
+        TimeoutImpl next = timeout.next;
+        if (timeout.remainingRounds <= 0) {
+          remove(timeout);
+          if (timeout.deadline <= deadline) {
+            timeout.expire();
+          } else {
+            reinsertions.add(timeout);
+          }
+        } else if (timeout.isCancelled()) {
+          remove(timeout);
+        } else {
+          --timeout.remainingRounds;
+        }
+        timeout = next;
+      }
+    }
+
+    private void remove(TimeoutImpl timeout) {
+      if (timeout.bucket != this) {
+        return;
+      }
+      if (timeout.prev != null) {
+        timeout.prev.next = timeout.next;
+      } else {
+        head = timeout.next;
+      }
+      if (timeout.next != null) {
+        timeout.next.prev = timeout.prev;
+      } else {
+        tail = timeout.prev;
+      }
+      timeout.prev = null;
+      timeout.next = null;
+      timeout.bucket = null;
+    }
+  }
+
+}
@@ -0,0 +1,141 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of durations. Values are counted in power-of-two buckets;
+ * percentiles are therefore approximated by the upper bound of the bucket
+ * containing them.
+ * <p>
+ * Values must be recorded by one thread at a time (e.g. the thread handling
+ * the messages of an agent) so that counters are updated with ordered writes
+ * instead of atomic instructions. Reading is possible from any thread.
+ */
+public class Histogram implements HistogramMBean {
+
+  private static final int BUCKETS = 64;
+
+  /** Bucket i counts the values v such that 2^(i-1) <= v < 2^i. */
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+  private final AtomicLong count = new AtomicLong();
+
+  private final AtomicLong sum = new AtomicLong();
+
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records a value.
+   * 
+   * @param value
+   *          A duration in nanoseconds. Negative values are counted as 0.
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    int bucket = BUCKETS - Long.numberOfLeadingZeros(value);
+    buckets.lazySet(bucket, buckets.get(bucket) + 1);
+    count.lazySet(count.get() + 1);
+    sum.lazySet(sum.get() + value);
+    if (value > max.get()) {
+      max.lazySet(value);
+    }
+  }
+
+  @Override
+  public long getCount() {
+    return count.get();
+  }
+
+  @Override
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) sum.get() / n;
+  }
+
+  @Override
+  public long getMax() {
+    return max.get();
+  }
+
+  @Override
+  public long getMedian() {
+    return getPercentile(0.5);
+  }
+
+  @Override
+  public long get90thPercentile() {
+    return getPercentile(0.9);
+  }
+
+  @Override
+  public long get99thPercentile() {
+    return getPercentile(0.99);
+  }
+
+  /**
+   * Returns an upper bound of a percentile of recorded values.
+   * 
+   * @param fraction
+   *          The percentile, between 0 and 1.
+   * @return A value in nanoseconds, 0 if no value was recorded.
+   */
+  public long getPercentile(double fraction) {
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; ++i) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+
+    long rank = (long) Math.ceil(fraction * total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; ++i) {
+      seen += counts[i];
+      if (seen >= rank && counts[i] > 0) {
+        long upperBound = i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+        return Math.min(upperBound, max.get());
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Clears recorded values. Values recorded concurrently may be partially
+   * kept.
+   */
+  @Override
+  public void reset() {
+    for (int i = 0; i < BUCKETS; ++i) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+}
@@ -0,0 +1,40 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * A message carrying the key used by {@link ConsistentHashingStrategy} to
+ * choose its recipient.
+ */
+public interface KeyedMessage {
+
+  /**
+   * Returns the routing key of the message. Messages with equal keys are
+   * delivered to the same member of a group as long as group's members do not
+   * change.
+   * 
+   * @return A non-null key.
+   */
+  public abstract Object getRoutingKey();
+
+}
@@ -0,0 +1,52 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers each message to the member of the group with the fewest messages
+ * in its mailbox. Ties are broken by starting the search at a different member
+ * for each message.
+ */
+public class LeastLoadedStrategy implements RoutingStrategy {
+
+  private final AtomicInteger start = new AtomicInteger();
+
+  @Override
+  public AbstractAgent select(AbstractAgent[] agents, Object message) {
+    int first = (start.getAndIncrement() & Integer.MAX_VALUE) % agents.length;
+    AbstractAgent selected = agents[first];
+    int minSize = selected.getMailboxSize();
+    for (int i = 1; i < agents.length && minSize > 0; ++i) {
+      AbstractAgent agent = agents[(first + i) % agents.length];
+      int size = agent.getMailboxSize();
+      if (size < minSize) {
+        selected = agent;
+        minSize = size;
+      }
+    }
+    return selected;
+  }
+
+}
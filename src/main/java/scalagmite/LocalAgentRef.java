@@ -0,0 +1,105 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * A reference to an agent registered in the local router.
+ */
+public class LocalAgentRef implements AgentRef {
+
+  private final AgentGroup group;
+
+  private final AbstractAgent agent;
+
+  LocalAgentRef(AgentGroup group, AbstractAgent agent) {
+    this.group = group;
+    this.agent = agent;
+  }
+
+  @Override
+  public String getName() {
+    return agent.getName();
+  }
+
+  @Override
+  public int getNumber() {
+    return agent.getNumber();
+  }
+
+  @Override
+  public boolean isValid() {
+    return group.isRegistered();
+  }
+
+  @Override
+  public boolean tell(Object message) throws AgentException {
+    if (!group.isRegistered()) {
+      throw new AgentException("Agent '" + agent.getName() + "' with number "
+          + agent.getNumber() + " is no longer registered");
+    }
+    return agent.submitMessage(message);
+  }
+
+  /**
+   * Sends a message to the referenced agent without blocking (see
+   * {@link AbstractAgent#offerMessage(Object)}).
+   * 
+   * @param message
+   *          The message.
+   * @return False if the agent's mailbox is full and its overflow policy
+   *         would block, true otherwise.
+   * @throws AgentException
+   *           If the agent is no longer registered.
+   */
+  boolean offer(Object message) throws AgentException {
+    if (!group.isRegistered()) {
+      throw new AgentException("Agent '" + agent.getName() + "' with number "
+          + agent.getNumber() + " is no longer registered");
+    }
+    return agent.offerMessage(message);
+  }
+
+  /**
+   * Tells if another reference designates the same agent. Equal references
+   * share a single export (see {@link Transport}).
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof LocalAgentRef)) {
+      return false;
+    }
+    LocalAgentRef other = (LocalAgentRef) o;
+    return group == other.group && agent == other.agent;
+  }
+
+  @Override
+  public int hashCode() {
+    return System.identityHashCode(agent);
+  }
+
+  @Override
+  public String toString() {
+    return agent.getName() + "#" + agent.getNumber();
+  }
+
+}
@@ -0,0 +1,102 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Collection;
+
+/**
+ * The queue holding the messages submitted to an agent.
+ * <p>
+ * A mailbox accepts messages from any number of threads but is consumed by a
+ * single thread at a time: the agent's thread for a {@link ThreadAgent}, the
+ * worker currently running the agent for a {@link SchedulableAgent}.
+ */
+public interface Mailbox {
+
+  /** Represents the built-in mailbox implementations */
+  public enum Type {
+    /** Mailbox backed by a {@link java.util.concurrent.LinkedBlockingQueue}. */
+    BLOCKING,
+    /** Lock-free multi-producer/single-consumer mailbox. */
+    MPSC
+  }
+
+  /**
+   * Inserts a message, waiting if necessary for space to become available.
+   * 
+   * @param message
+   *          The message.
+   * @throws InterruptedException
+   *           If interrupted while waiting.
+   */
+  public abstract void put(Object message) throws InterruptedException;
+
+  /**
+   * Inserts a message if it is possible to do so immediately.
+   * 
+   * @param message
+   *          The message.
+   * @return True if the message was inserted, false if the mailbox is full.
+   */
+  public abstract boolean offer(Object message);
+
+  /**
+   * Retrieves and removes the oldest message, waiting if necessary until a
+   * message becomes available.
+   * 
+   * @return The oldest message.
+   * @throws InterruptedException
+   *           If interrupted while waiting.
+   */
+  public abstract Object take() throws InterruptedException;
+
+  /**
+   * Retrieves and removes the oldest message.
+   * 
+   * @return The oldest message or null if the mailbox is empty.
+   */
+  public abstract Object poll();
+
+  /**
+   * Removes at most <code>max</code> messages and adds them to given
+   * collection, oldest message first.
+   * 
+   * @param c
+   *          The collection to add the messages to.
+   * @param max
+   *          The maximum number of messages to remove.
+   * @return The number of removed messages.
+   */
+  public abstract int drainTo(Collection<Object> c, int max);
+
+  public abstract boolean isEmpty();
+
+  /**
+   * Returns the number of messages in the mailbox. The value may be
+   * approximate while messages are concurrently inserted or removed.
+   * 
+   * @return The number of messages.
+   */
+  public abstract int size();
+
+}
@@ -0,0 +1,195 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Traces a sample of the messages handled by agents. Handling threads only
+ * insert a small record into a bounded queue; records are formatted and
+ * logged by a background thread to the "scalagmite.trace" logger at INFO
+ * level. Records are dropped when the queue is full.
+ * <p>
+ * Messages are formatted with {@link Object#toString()} by the background
+ * thread, after they were handled: traced messages should not be modified
+ * once sent.
+ */
+public class MessageTracer {
+
+  private static final Logger LOGGER = Logger.getLogger(MessageTracer.class);
+
+  private static final Logger TRACE_LOGGER = Logger
+      .getLogger("scalagmite.trace");
+
+  private final int samplingRate;
+
+  private final BlockingQueue<Record> records;
+
+  private final AtomicLong droppedRecords = new AtomicLong();
+
+  private final Thread writer;
+
+  private volatile boolean running = true;
+
+  MessageTracer(int samplingRate, int capacity) {
+    if (samplingRate <= 0 || capacity <= 0) {
+      throw new IllegalArgumentException(
+          "Sampling rate and capacity must be greater than zero");
+    }
+    this.samplingRate = samplingRate;
+    this.records = new ArrayBlockingQueue<Record>(capacity);
+
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeRecords();
+      }
+    }, "Message tracer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Creates a tracer if tracing is enabled by configuration.
+   * 
+   * @param config
+   *          The configuration.
+   * @return A tracer or null if tracing is disabled.
+   */
+  static MessageTracer newInstance(Configuration config) {
+    if (!config.isTraceEnabled()) {
+      return null;
+    }
+    return new MessageTracer(config.getTraceSampling(),
+        config.getTraceCapacity());
+  }
+
+  public int getSamplingRate() {
+    return samplingRate;
+  }
+
+  /**
+   * Returns the number of records dropped because the queue was full.
+   * 
+   * @return A number of records.
+   */
+  public long getDroppedRecords() {
+    return droppedRecords.get();
+  }
+
+  /**
+   * Records the handling of a message. This method does not block.
+   * 
+   * @param agent
+   *          The agent which handled the message.
+   * @param message
+   *          The message.
+   * @param error
+   *          The error raised by the handler or null.
+   */
+  void trace(AbstractAgent agent, Object message, Exception error) {
+    if (!records.offer(new Record(System.currentTimeMillis(), Thread
+        .currentThread().getName(), agent.getName(), agent.getNumber(),
+        message, error))) {
+      droppedRecords.incrementAndGet();
+    }
+  }
+
+  /** Writes pending records and stops the background thread. */
+  void stop() throws InterruptedException {
+    running = false;
+    writer.join();
+  }
+
+  private void writeRecords() {
+    List<Record> batch = new ArrayList<Record>();
+    while (running || !records.isEmpty()) {
+      try {
+        Record first = records.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        records.drainTo(batch);
+        for (Record record : batch) {
+          write(record);
+        }
+      } catch (InterruptedException e) {
+        return;
+      } catch (RuntimeException e) {
+        LOGGER.warn("Could not write trace record", e);
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void write(Record record) {
+    if (!TRACE_LOGGER.isInfoEnabled()) {
+      return;
+    }
+
+    StringBuilder line = new StringBuilder();
+    line.append(record.time).append(' ').append(record.thread).append(' ')
+        .append(record.agentName).append('#').append(record.agentNumber)
+        .append(' ').append(record.message.getClass().getName()).append(' ')
+        .append(record.message);
+    if (record.error != null) {
+      line.append(" failed: ").append(record.error);
+    }
+    TRACE_LOGGER.info(line);
+  }
+
+  private static class Record {
+
+    private final long time;
+
+    private final String thread;
+
+    private final String agentName;
+
+    private final int agentNumber;
+
+    private final Object message;
+
+    private final Exception error;
+
+    private Record(long time, String thread, String agentName,
+        int agentNumber, Object message, Exception error) {
+      this.time = time;
+      this.thread = thread;
+      this.agentName = agentName;
+      this.agentNumber = agentNumber;
+      this.message = message;
+      this.error = error;
+    }
+  }
+
+}
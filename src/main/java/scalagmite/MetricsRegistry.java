@@ -0,0 +1,159 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Creates the metrics of agents and scheduler and publishes them as MBeans
+ * in the platform MBean server under the "scalagmite" domain.
+ * <p>
+ * When metrics are disabled, no metrics object is created and instrumented
+ * code only pays for a null check.
+ */
+public class MetricsRegistry {
+
+  private static final Logger LOGGER = Logger.getLogger(MetricsRegistry.class);
+
+  private static final String DOMAIN = "scalagmite";
+
+  private final boolean enabled;
+
+  private final int samplingRate;
+
+  private final MBeanServer server;
+
+  private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+
+  MetricsRegistry(boolean enabled, int samplingRate) {
+    if (samplingRate <= 0) {
+      throw new IllegalArgumentException(
+          "Sampling rate must be greater than zero");
+    }
+    this.enabled = enabled;
+    this.samplingRate = samplingRate;
+    this.server = enabled ? ManagementFactory.getPlatformMBeanServer() : null;
+  }
+
+  MetricsRegistry(Configuration config) {
+    this(config.isMetricsEnabled(), config.getMetricsSampling());
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Creates and publishes the metrics of a registered agent.
+   * 
+   * @param agent
+   *          The agent.
+   * @return The metrics or null if metrics are disabled.
+   */
+  AgentMetrics newAgentMetrics(AbstractAgent agent) {
+    if (!enabled) {
+      return null;
+    }
+    AgentMetrics metrics = new AgentMetrics(agent, this, samplingRate);
+    register(agentName(agent, null), metrics);
+    register(agentName(agent, ",histogram=queueLatency"),
+        metrics.getQueueLatency());
+    return metrics;
+  }
+
+  void registerHandler(AbstractAgent agent, Class<?> type, Histogram histogram) {
+    register(agentName(agent, ",handler=" + ObjectName.quote(type.getName())),
+        histogram);
+  }
+
+  /**
+   * Creates and publishes the metrics of the scheduler.
+   * 
+   * @return The metrics or null if metrics are disabled.
+   */
+  SchedulerMetrics newSchedulerMetrics() {
+    if (!enabled) {
+      return null;
+    }
+    SchedulerMetrics metrics = new SchedulerMetrics();
+    register(DOMAIN + ":type=Scheduler", metrics);
+    return metrics;
+  }
+
+  /**
+   * Creates and publishes the metrics of a scheduler worker.
+   * 
+   * @param scheduler
+   *          The metrics of the scheduler owning the worker.
+   * @param id
+   *          The index of the worker.
+   * @return The metrics or null if metrics are disabled.
+   */
+  WorkerMetrics newWorkerMetrics(SchedulerMetrics scheduler, int id) {
+    if (!enabled) {
+      return null;
+    }
+    WorkerMetrics metrics = new WorkerMetrics();
+    scheduler.addWorker(metrics);
+    register(DOMAIN + ":type=Worker,id=" + id, metrics);
+    return metrics;
+  }
+
+  /** Removes all published MBeans. */
+  synchronized void unregisterAll() {
+    for (ObjectName name : registered) {
+      try {
+        server.unregisterMBean(name);
+      } catch (JMException e) {
+        LOGGER.warn("Could not unregister MBean " + name, e);
+      }
+    }
+    registered.clear();
+  }
+
+  private String agentName(AbstractAgent agent, String suffix) {
+    return DOMAIN + ":type=Agent,name=" + ObjectName.quote(agent.getName())
+        + ",number=" + agent.getNumber() + (suffix != null ? suffix : "");
+  }
+
+  private synchronized void register(String name, Object mbean) {
+    try {
+      ObjectName objectName = new ObjectName(name);
+      server.registerMBean(mbean, objectName);
+      registered.add(objectName);
+    } catch (JMException e) {
+      // Metrics are still recorded, only their publication failed
+      LOGGER.warn("Could not register MBean " + name, e);
+    }
+  }
+
+}
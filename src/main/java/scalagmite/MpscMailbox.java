@@ -0,0 +1,155 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An unbounded lock-free multi-producer/single-consumer mailbox.
+ * <p>
+ * Messages are stored in a linked list of fixed-size arrays (chunks). A
+ * producer claims an index with a single atomic increment and then writes
+ * its message in the corresponding chunk, appending a new chunk when needed.
+ * Allocation is therefore amortized over {@value #CHUNK_SIZE} messages.
+ */
+public class MpscMailbox extends AbstractMpscMailbox {
+
+  static final int CHUNK_SIZE = 1024;
+
+  private static final AtomicLongFieldUpdater<MpscMailbox> PRODUCER_INDEX = AtomicLongFieldUpdater
+      .newUpdater(MpscMailbox.class, "producerIndex");
+
+  private static final AtomicReferenceFieldUpdater<MpscMailbox, Chunk> PRODUCER_CHUNK = AtomicReferenceFieldUpdater
+      .newUpdater(MpscMailbox.class, Chunk.class, "producerChunk");
+
+  private volatile long producerIndex;
+
+  /** A chunk at or before the one holding next producer index. */
+  private volatile Chunk producerChunk;
+
+  private volatile long consumerIndex;
+
+  /** The chunk holding next consumer index, accessed by consumer only. */
+  private Chunk consumerChunk;
+
+  public MpscMailbox() {
+    Chunk first = new Chunk(0);
+    producerChunk = first;
+    consumerChunk = first;
+  }
+
+  @Override
+  public boolean offer(Object message) {
+    if (message == null) {
+      throw new NullPointerException();
+    }
+
+    // Reading the chunk before claiming the index guarantees the chunk does
+    // not start after the index.
+    Chunk chunk = producerChunk;
+    long index = PRODUCER_INDEX.getAndIncrement(this);
+    while (index >= chunk.base + CHUNK_SIZE) {
+      Chunk next = chunk.next;
+      if (next == null) {
+        next = new Chunk(chunk.base + CHUNK_SIZE);
+        if (!chunk.casNext(next)) {
+          next = chunk.next;
+        }
+      }
+      chunk = next;
+    }
+
+    Chunk hint = producerChunk;
+    if (hint.base < chunk.base) {
+      PRODUCER_CHUNK.compareAndSet(this, hint, chunk);
+    }
+
+    chunk.slots.set((int) (index - chunk.base), message);
+    signalConsumer();
+    return true;
+  }
+
+  @Override
+  public Object poll() {
+    long index = consumerIndex;
+    Chunk chunk = consumerChunk;
+    int offset = (int) (index - chunk.base);
+    if (offset == CHUNK_SIZE) {
+      if (index == producerIndex) {
+        return null;
+      }
+      Chunk next;
+      while ((next = chunk.next) == null) {
+        Thread.yield(); // A producer is appending next chunk
+      }
+      chunk = next;
+      consumerChunk = next;
+      offset = 0;
+    }
+
+    Object message = chunk.slots.get(offset);
+    if (message == null) {
+      if (index == producerIndex) {
+        return null;
+      }
+      while ((message = chunk.slots.get(offset)) == null) {
+        Thread.yield(); // A producer claimed the index but did not write yet
+      }
+    }
+
+    chunk.slots.lazySet(offset, null);
+    consumerIndex = index + 1;
+    return message;
+  }
+
+  @Override
+  public int size() {
+    long consumer = consumerIndex;
+    long size = producerIndex - consumer;
+    return (int) Math.min(Math.max(size, 0), Integer.MAX_VALUE);
+  }
+
+  private static class Chunk {
+
+    private static final AtomicReferenceFieldUpdater<Chunk, Chunk> NEXT = AtomicReferenceFieldUpdater
+        .newUpdater(Chunk.class, Chunk.class, "next");
+
+    private final long base;
+
+    private final AtomicReferenceArray<Object> slots = new AtomicReferenceArray<Object>(
+        CHUNK_SIZE);
+
+    private volatile Chunk next;
+
+    private Chunk(long base) {
+      this.base = base;
+    }
+
+    private boolean casNext(Chunk next) {
+      return NEXT.compareAndSet(this, null, next);
+    }
+  }
+
+}
@@ -0,0 +1,37 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Delivers each message to a member of the group chosen uniformly at random.
+ */
+public class RandomStrategy implements RoutingStrategy {
+
+  @Override
+  public AbstractAgent select(AbstractAgent[] agents, Object message) {
+    return agents[ThreadLocalRandom.current().nextInt(agents.length)];
+  }
+
+}
@@ -0,0 +1,310 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Writes the non-static and non-transient fields of an object, those of its
+ * super-classes first and those of a given class ordered by name. Primitive
+ * fields are written directly, other fields are written by the
+ * {@link CodecRegistry}. Objects are created with the constructor without
+ * arguments of their class, enum constants are written as their ordinal.
+ * <p>
+ * Objects referencing themselves, directly or not, are rejected, as are
+ * objects nested more than {@link #MAX_DEPTH} levels deep.
+ */
+final class ReflectiveCodec implements Codec<Object> {
+
+  /** Maximum number of nested objects written or read by reflection. */
+  static final int MAX_DEPTH = 1024;
+
+  /** Objects being written by the current thread, outermost first. */
+  private static final ThreadLocal<List<Object>> WRITING = new ThreadLocal<List<Object>>() {
+    @Override
+    protected List<Object> initialValue() {
+      return new ArrayList<Object>();
+    }
+  };
+
+  /** Number of objects being read by the current thread. */
+  private static final ThreadLocal<int[]> READ_DEPTH = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
+
+  private static final int BOOLEAN = 0;
+
+  private static final int BYTE = 1;
+
+  private static final int CHAR = 2;
+
+  private static final int SHORT = 3;
+
+  private static final int INT = 4;
+
+  private static final int LONG = 5;
+
+  private static final int FLOAT = 6;
+
+  private static final int DOUBLE = 7;
+
+  private static final int OBJECT = 8;
+
+  private final CodecRegistry registry;
+
+  private final Class<?> type;
+
+  private final Constructor<?> constructor;
+
+  private final Field[] fields;
+
+  private final int[] kinds;
+
+  private ReflectiveCodec(CodecRegistry registry, Class<?> type,
+      Constructor<?> constructor, Field[] fields) {
+    this.registry = registry;
+    this.type = type;
+    this.constructor = constructor;
+    this.fields = fields;
+    this.kinds = new int[fields.length];
+    for (int i = 0; i < fields.length; ++i) {
+      kinds[i] = kindOf(fields[i].getType());
+    }
+  }
+
+  /**
+   * Creates the codec of a class.
+   * 
+   * @throws IOException
+   *           If the class is not supported.
+   */
+  static ReflectiveCodec forType(CodecRegistry registry, Class<?> type)
+      throws IOException {
+    String name = type.getName();
+    if (type.isArray() || type.isInterface()
+        || Modifier.isAbstract(type.getModifiers())
+        || name.startsWith("java.") || name.startsWith("javax.")) {
+      throw new IOException("Class " + name
+          + " is not supported by the reflective codec");
+    }
+
+    if (type.isEnum()) {
+      return new ReflectiveCodec(registry, type, null, new Field[0]);
+    }
+
+    Constructor<?> constructor;
+    try {
+      constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+    } catch (NoSuchMethodException e) {
+      throw new IOException("Class " + name
+          + " has no constructor without arguments", e);
+    } catch (RuntimeException e) {
+      throw new IOException("Class " + name + " is not accessible", e);
+    }
+
+    List<Field> fields = new ArrayList<Field>();
+    List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+    for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+      hierarchy.add(0, c);
+    }
+    for (Class<?> c : hierarchy) {
+      Field[] declared = c.getDeclaredFields();
+      Arrays.sort(declared, new Comparator<Field>() {
+        @Override
+        public int compare(Field f1, Field f2) {
+          return f1.getName().compareTo(f2.getName());
+        }
+      });
+      for (Field field : declared) {
+        int modifiers = field.getModifiers();
+        if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
+            || field.isSynthetic()) {
+          continue;
+        }
+        try {
+          field.setAccessible(true);
+        } catch (RuntimeException e) {
+          throw new IOException("Field " + field + " is not accessible", e);
+        }
+        fields.add(field);
+      }
+    }
+    return new ReflectiveCodec(registry, type, constructor,
+        fields.toArray(new Field[fields.size()]));
+  }
+
+  private static int kindOf(Class<?> fieldType) {
+    if (!fieldType.isPrimitive()) {
+      return OBJECT;
+    } else if (fieldType == boolean.class) {
+      return BOOLEAN;
+    } else if (fieldType == byte.class) {
+      return BYTE;
+    } else if (fieldType == char.class) {
+      return CHAR;
+    } else if (fieldType == short.class) {
+      return SHORT;
+    } else if (fieldType == int.class) {
+      return INT;
+    } else if (fieldType == long.class) {
+      return LONG;
+    } else if (fieldType == float.class) {
+      return FLOAT;
+    } else {
+      return DOUBLE;
+    }
+  }
+
+  @Override
+  public void write(Object message, ByteBuffer buffer) throws IOException {
+    if (constructor == null) {
+      buffer.putInt(((Enum<?>) message).ordinal());
+      return;
+    }
+
+    List<Object> path = WRITING.get();
+    for (Object outer : path) {
+      if (outer == message) {
+        throw new IOException("Cyclic reference to an instance of "
+            + type.getName());
+      }
+    }
+    if (path.size() >= MAX_DEPTH) {
+      throw new IOException("Objects nested more than " + MAX_DEPTH
+          + " levels deep");
+    }
+    path.add(message);
+    try {
+      for (int i = 0; i < fields.length; ++i) {
+        Field field = fields[i];
+        switch (kinds[i]) {
+        case BOOLEAN:
+          buffer.put(field.getBoolean(message) ? (byte) 1 : (byte) 0);
+          break;
+        case BYTE:
+          buffer.put(field.getByte(message));
+          break;
+        case CHAR:
+          buffer.putChar(field.getChar(message));
+          break;
+        case SHORT:
+          buffer.putShort(field.getShort(message));
+          break;
+        case INT:
+          buffer.putInt(field.getInt(message));
+          break;
+        case LONG:
+          buffer.putLong(field.getLong(message));
+          break;
+        case FLOAT:
+          buffer.putFloat(field.getFloat(message));
+          break;
+        case DOUBLE:
+          buffer.putDouble(field.getDouble(message));
+          break;
+        default:
+          registry.write(field.get(message), buffer);
+        }
+      }
+    } catch (IllegalAccessException e) {
+      throw new IOException("Could not write " + type.getName(), e);
+    } finally {
+      path.remove(path.size() - 1);
+    }
+  }
+
+  @Override
+  public Object read(ByteBuffer buffer) throws IOException {
+    if (constructor == null) {
+      Object[] constants = type.getEnumConstants();
+      int ordinal = buffer.getInt();
+      if (ordinal < 0 || ordinal >= constants.length) {
+        throw new IOException("Invalid constant " + ordinal + " of "
+            + type.getName());
+      }
+      return constants[ordinal];
+    }
+
+    int[] depth = READ_DEPTH.get();
+    if (depth[0] >= MAX_DEPTH) {
+      throw new IOException("Objects nested more than " + MAX_DEPTH
+          + " levels deep");
+    }
+    ++depth[0];
+    try {
+      Object message = constructor.newInstance();
+      for (int i = 0; i < fields.length; ++i) {
+        Field field = fields[i];
+        switch (kinds[i]) {
+        case BOOLEAN:
+          field.setBoolean(message, buffer.get() != 0);
+          break;
+        case BYTE:
+          field.setByte(message, buffer.get());
+          break;
+        case CHAR:
+          field.setChar(message, buffer.getChar());
+          break;
+        case SHORT:
+          field.setShort(message, buffer.getShort());
+          break;
+        case INT:
+          field.setInt(message, buffer.getInt());
+          break;
+        case LONG:
+          field.setLong(message, buffer.getLong());
+          break;
+        case FLOAT:
+          field.setFloat(message, buffer.getFloat());
+          break;
+        case DOUBLE:
+          field.setDouble(message, buffer.getDouble());
+          break;
+        default:
+          field.set(message, registry.read(buffer));
+        }
+      }
+      return message;
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Could not read " + type.getName(), e);
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("Could not read " + type.getName(), e);
+    } finally {
+      --depth[0];
+    }
+  }
+
+}
@@ -0,0 +1,159 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A proxy for an agent living on another node.
+ * <p>
+ * A remote agent is registered in the local router like any other agent,
+ * possibly in the same group as local agents: messages routed to it are
+ * encoded and sent to the node through a {@link Transport}, which delivers
+ * them to the agent registered there under the same name and the remote
+ * number. The proxy has no life-cycle of its own: starting or stopping it
+ * does nothing and it is not counted among the running agents.
+ * <p>
+ * Messages must be supported by the {@link CodecRegistry} of both nodes
+ * (see {@link Scalagmite#getCodecs()}). Requests (see
+ * {@link Router#ask(String, Object, long)}) are supported, their replies
+ * being sent back over the connection.
+ */
+public class RemoteAgent extends AbstractAgent {
+
+  private static final Logger LOGGER = Logger.getLogger(RemoteAgent.class);
+
+  private final Transport transport;
+
+  private final String host;
+
+  private final int port;
+
+  private final int remoteNumber;
+
+  private volatile Connection connection;
+
+  RemoteAgent(String name, int remoteNumber, Transport transport,
+      String host, int port) {
+    super(name);
+    this.remoteNumber = remoteNumber;
+    this.transport = transport;
+    this.host = host;
+    this.port = port;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * Returns the number of the agent on its node.
+   * 
+   * @return A number.
+   */
+  public int getRemoteNumber() {
+    return remoteNumber;
+  }
+
+  /**
+   * Sends a message to the remote agent. The connection to the node is
+   * opened on first use and re-opened if it was closed.
+   * 
+   * @return False if the message could not be sent, true otherwise. A
+   *         message sent may still be lost if the connection fails.
+   */
+  @Override
+  public boolean submitMessage(Object o) {
+    Connection current = connection;
+    if (current == null || current.isClosed()) {
+      try {
+        current = transport.connect(host, port);
+        connection = current;
+      } catch (IOException e) {
+        LOGGER.warn("Could not connect to " + host + ":" + port, e);
+        return false;
+      }
+    }
+    return current.send(getName(), remoteNumber, o);
+  }
+
+  /**
+   * Sends a message to the remote agent, which never blocks.
+   */
+  @Override
+  boolean offerMessage(Object o) {
+    submitMessage(o);
+    return true;
+  }
+
+  /**
+   * Returns the number of bytes waiting to be sent to agent's node.
+   */
+  @Override
+  public int getMailboxSize() {
+    Connection current = connection;
+    return current != null ? (int) current.getPendingBytes() : 0;
+  }
+
+  @Override
+  public synchronized void start() {
+    // Remote agent is started by its node
+  }
+
+  @Override
+  public synchronized void stopWithError(String cause) {
+    // Remote agent is stopped by its node
+  }
+
+  @Override
+  public void join() {
+    // Nothing to wait for
+  }
+
+  @Override
+  public void join(long millis) {
+    // Nothing to wait for
+  }
+
+  @Override
+  protected void onStart() {
+    // Nothing to do
+  }
+
+  @Override
+  protected void onStop() {
+    // Nothing to do
+  }
+
+  @Override
+  public String toString() {
+    return getName() + "#" + remoteNumber + "@" + host + ":" + port;
+  }
+
+}
@@ -0,0 +1,74 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * A reference exported by another node, typically the reference a request
+ * received from that node must be replied to.
+ */
+class RemoteAgentRef implements AgentRef {
+
+  private final Connection connection;
+
+  private final long id;
+
+  private final String name;
+
+  private final int number;
+
+  RemoteAgentRef(Connection connection, long id, String name, int number) {
+    this.connection = connection;
+    this.id = id;
+    this.name = name;
+    this.number = number;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public int getNumber() {
+    return number;
+  }
+
+  @Override
+  public boolean isValid() {
+    return !connection.isClosed();
+  }
+
+  @Override
+  public boolean tell(Object message) throws AgentException {
+    if (connection.isClosed()) {
+      throw new AgentException("Connection to " + connection + " is closed");
+    }
+    return connection.sendReply(id, message);
+  }
+
+  @Override
+  public String toString() {
+    return name + "#" + number + "@" + connection;
+  }
+
+}
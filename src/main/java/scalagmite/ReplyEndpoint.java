@@ -0,0 +1,125 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Temporary endpoint receiving the reply to a single request sent with
+ * {@link AbstractAgent#ask(String, Object, long)} or
+ * {@link Router#ask(String, Object, long)}. The endpoint is not registered
+ * in the router: it is only reachable through the {@link Envelope} carrying
+ * the request and is garbage collected with it.
+ */
+class ReplyEndpoint implements AgentRef {
+
+  private final CompletableFuture<Object> future = new CompletableFuture<Object>();
+
+  private final Object request;
+
+  private final Timeout timeout;
+
+  ReplyEndpoint(Object request, long timeout, HashedWheelTimer timer) {
+    this.request = request;
+    this.timeout = timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        future.completeExceptionally(new TimeoutException("No reply to "
+            + ReplyEndpoint.this.request.getClass().getName()));
+      }
+    }, timeout);
+  }
+
+  CompletableFuture<Object> getFuture() {
+    return future;
+  }
+
+  /**
+   * Sends the request to an agent.
+   * 
+   * @param dest
+   *          The agent.
+   * @return The future completed by the reply.
+   */
+  CompletableFuture<Object> send(AbstractAgent dest) {
+    if (!dest.submitMessage(new Envelope(request, this))) {
+      fail(new AgentException("Request rejected by agent " + dest.getName()));
+    }
+    return future;
+  }
+
+  /**
+   * Sends the request to an agent.
+   * 
+   * @param dest
+   *          A reference to the agent.
+   * @return The future completed by the reply.
+   */
+  CompletableFuture<Object> send(AgentRef dest) {
+    try {
+      if (!dest.tell(new Envelope(request, this))) {
+        fail(new AgentException("Request rejected by agent " + dest));
+      }
+    } catch (AgentException e) {
+      fail(e);
+    }
+    return future;
+  }
+
+  void fail(Exception e) {
+    timeout.cancel();
+    future.completeExceptionally(e);
+  }
+
+  @Override
+  public String getName() {
+    return "reply";
+  }
+
+  @Override
+  public int getNumber() {
+    return -1;
+  }
+
+  @Override
+  public boolean isValid() {
+    return !future.isDone();
+  }
+
+  /**
+   * Completes the future with given reply. Only the first reply received
+   * before the timeout is kept.
+   */
+  @Override
+  public boolean tell(Object message) {
+    timeout.cancel();
+    return future.complete(message);
+  }
+
+  @Override
+  public String toString() {
+    return "reply to " + request.getClass().getName();
+  }
+
+}
@@ -0,0 +1,40 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers messages to the members of a group in turn.
+ */
+public class RoundRobinStrategy implements RoutingStrategy {
+
+  private final AtomicInteger next = new AtomicInteger();
+
+  @Override
+  public AbstractAgent select(AbstractAgent[] agents, Object message) {
+    int index = (next.getAndIncrement() & Integer.MAX_VALUE) % agents.length;
+    return agents[index];
+  }
+
+}
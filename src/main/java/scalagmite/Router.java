@@ -22,18 +22,27 @@ package scalagmite;
  * #L%
  */
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Preconditions;
 
+/**
+ * Maps agent names and numbers to agents.
+ * <p>
+ * Lookups (see {@link #getAgent(String, int)}) do not take any lock so that
+ * sending messages scales with the number of sending threads. Only
+ * registration, unregistration and agent life-cycle notifications are
+ * synchronized.
+ */
 public class Router {
 
   private final ErrorHandler errorHandler;
 
-  private final Map<String, AgentGroup> registeredAgents = new HashMap<String, AgentGroup>();
+  private final Map<String, AgentGroup> registeredAgents = new ConcurrentHashMap<String, AgentGroup>();
 
   private boolean routerIsUp = true;
 
@@ -41,22 +50,257 @@ public class Router {
 
   private final Semaphore waitAllSync = new Semaphore(0);
 
+  /**
+   * Runs delayed deliveries and request timeouts. Unless set by the
+   * application, a timer is created on first use.
+   */
+  private volatile HashedWheelTimer timer;
+
+  private final Object timerLock = new Object();
+
+  /** True if the timer was created by the router rather than set. */
+  private boolean ownsTimer;
+
   Router(ErrorHandler errorHandler) {
     this.errorHandler = errorHandler;
   }
 
-  public synchronized AbstractAgent getAgent(String name) {
+  public AbstractAgent getAgent(String name) {
     return getAgent(name, 0);
   }
 
-  public synchronized AbstractAgent getAgent(String name, int num) {
-    if (!registeredAgents.containsKey(name)) {
+  public AbstractAgent getAgent(String name, int num) {
+    AgentGroup group = registeredAgents.get(name);
+    if (group == null) {
       return null;
     }
-    AgentGroup group = registeredAgents.get(name);
     return group.getAgent(num);
   }
 
+  /**
+   * Selects, using the routing strategy of a group, the member a message is
+   * delivered to.
+   * 
+   * @param name
+   *          The name of the group.
+   * @param message
+   *          The message.
+   * @return An agent or null if no agent is registered with given name.
+   */
+  public AbstractAgent selectAgent(String name, Object message) {
+    AgentGroup group = registeredAgents.get(name);
+    if (group == null) {
+      return null;
+    }
+    return group.selectAgent(message);
+  }
+
+  /**
+   * Sends a message to all members of a group.
+   * 
+   * @param name
+   *          The name of the group.
+   * @param message
+   *          The message.
+   * @return The number of members which accepted the message.
+   * @throws RouterException
+   *           If no agent is registered with given name.
+   */
+  public int broadcast(String name, Object message) throws RouterException {
+    return getGroup(name).broadcast(message);
+  }
+
+  /**
+   * Sends a request to a group of agents and returns a future completed by
+   * the reply of the member chosen by group's routing strategy (see
+   * {@link AbstractAgent#reply(Object)}). This method can be called from any
+   * thread.
+   * 
+   * @param name
+   *          The name of the group.
+   * @param message
+   *          The request.
+   * @param timeout
+   *          The maximum time to wait for the reply, in milliseconds.
+   * @return A future completed by the reply. The future fails with a
+   *         {@link java.util.concurrent.TimeoutException} if no reply is
+   *         received in time, or with an {@link AgentException} if the
+   *         request could not be delivered.
+   */
+  public CompletableFuture<Object> ask(String name, Object message,
+      long timeout) {
+    ReplyEndpoint endpoint = new ReplyEndpoint(message, timeout, getTimer());
+    AbstractAgent agent = selectAgent(name, message);
+    if (agent == null) {
+      endpoint.fail(new AgentException("No registered agent with name '"
+          + name + "'"));
+      return endpoint.getFuture();
+    }
+    return endpoint.send(agent);
+  }
+
+  /**
+   * Sends a request to an agent and returns a future completed by its reply.
+   * 
+   * @param name
+   *          The name of the agent.
+   * @param num
+   *          The number of the agent.
+   * @param message
+   *          The request.
+   * @param timeout
+   *          The maximum time to wait for the reply, in milliseconds.
+   * @return A future completed by the reply (see
+   *         {@link #ask(String, Object, long)}).
+   */
+  public CompletableFuture<Object> ask(String name, int num, Object message,
+      long timeout) {
+    ReplyEndpoint endpoint = new ReplyEndpoint(message, timeout, getTimer());
+    AbstractAgent agent = getAgent(name, num);
+    if (agent == null) {
+      endpoint.fail(new AgentException("No registered agent with name '"
+          + name + "' and number " + num));
+      return endpoint.getFuture();
+    }
+    return endpoint.send(agent);
+  }
+
+  /**
+   * Sends a request to an agent and returns a future completed by its reply.
+   * 
+   * @param ref
+   *          A reference to the agent.
+   * @param message
+   *          The request.
+   * @param timeout
+   *          The maximum time to wait for the reply, in milliseconds.
+   * @return A future completed by the reply (see
+   *         {@link #ask(String, Object, long)}).
+   */
+  public CompletableFuture<Object> ask(AgentRef ref, Object message,
+      long timeout) {
+    return new ReplyEndpoint(message, timeout, getTimer()).send(ref);
+  }
+
+  AgentGroup getGroup(String name) throws RouterException {
+    AgentGroup group = registeredAgents.get(name);
+    if (group == null) {
+      throw new RouterException("No registered agent with name '" + name + "'");
+    }
+    return group;
+  }
+
+  void setTimer(HashedWheelTimer timer) {
+    synchronized (timerLock) {
+      this.timer = timer;
+      ownsTimer = false;
+    }
+  }
+
+  /**
+   * Stops the timer if it was created by the router. A timer set by the
+   * application is stopped by its owner.
+   * 
+   * @throws InterruptedException
+   *           If interrupted while waiting for timer's thread to terminate.
+   */
+  void stopTimer() throws InterruptedException {
+    HashedWheelTimer current;
+    synchronized (timerLock) {
+      current = ownsTimer ? timer : null;
+    }
+    if (current != null) {
+      current.stop();
+    }
+  }
+
+  /**
+   * Returns the timer used to deliver messages after a delay.
+   * 
+   * @return A timer.
+   */
+  public HashedWheelTimer getTimer() {
+    HashedWheelTimer current = timer;
+    if (current == null) {
+      synchronized (timerLock) {
+        current = timer;
+        if (current == null) {
+          current = new HashedWheelTimer();
+          timer = current;
+          ownsTimer = true;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Sets the routing strategy of a group.
+   * 
+   * @param name
+   *          The name of the group.
+   * @param strategy
+   *          The routing strategy.
+   * @throws RouterException
+   *           If no agent is registered with given name.
+   */
+  public void setRoutingStrategy(String name, RoutingStrategy strategy)
+      throws RouterException {
+    getGroup(name).setRoutingStrategy(strategy);
+  }
+
+  /**
+   * Sets the supervision strategy of the members of a group which have no
+   * strategy of their own.
+   * 
+   * @param name
+   *          The name of the group.
+   * @param strategy
+   *          The supervision strategy, null to escalate errors.
+   * @throws RouterException
+   *           If no agent is registered with given name.
+   */
+  public void setSupervisionStrategy(String name, SupervisionStrategy strategy)
+      throws RouterException {
+    getGroup(name).setSupervisionStrategy(strategy);
+  }
+
+  /**
+   * Returns the supervision strategy of a group.
+   * 
+   * @param name
+   *          The name of the group.
+   * @return The strategy or null if the group has none or does not exist.
+   */
+  SupervisionStrategy getSupervisionStrategy(String name) {
+    AgentGroup group = registeredAgents.get(name);
+    return group != null ? group.getSupervisionStrategy() : null;
+  }
+
+  /**
+   * Returns a reference to an agent. Unlike {@link #getAgent(String, int)},
+   * the returned reference tells if the agent was unregistered since the
+   * lookup.
+   * 
+   * @param name
+   *          The name of the agent.
+   * @param num
+   *          The number of the agent.
+   * @return A reference or null if no agent is registered with given name and
+   *         number.
+   */
+  public AgentRef getAgentRef(String name, int num) {
+    AgentGroup group = registeredAgents.get(name);
+    if (group == null) {
+      return null;
+    }
+    AbstractAgent agent = group.getAgent(num);
+    if (agent == null) {
+      return null;
+    }
+    return new LocalAgentRef(group, agent);
+  }
+
   public synchronized void registerAgent(AbstractAgent agent)
       throws RouterException {
     registerAgent(agent, true);
@@ -76,14 +320,15 @@ public class Router {
     AgentGroup group = registeredAgents.get(name);
     if (group == null) {
       group = new AgentGroup(unique);
-      registeredAgents.put(name, group);
     } else if (unique) {
       throw new RouterException(
           "Cannot register unique agent, others already exist");
     }
 
+    // Agent is fully set up before being visible to lookups
     agent.setRouter(this);
     group.addAgent(agent);
+    registeredAgents.put(name, group);
   }
 
   public synchronized void signalAgentStart(AbstractAgent agent) {
@@ -115,11 +360,12 @@ public class Router {
   }
 
   public synchronized void unregisterAgent(String name) throws RouterException {
-    if (registeredAgents.get(name) == null) {
+    AgentGroup group = registeredAgents.remove(name);
+    if (group == null) {
       throw new RouterException("No registered agent with name '" + name + "'");
     }
 
-    registeredAgents.remove(name);
+    group.unregister();
   }
 
   public void waitAllStopped() throws InterruptedException {
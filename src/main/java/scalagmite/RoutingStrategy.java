@@ -0,0 +1,47 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Chooses the member of an {@link AgentGroup} a message sent to the group is
+ * delivered to (see {@link AbstractAgent#route(String, Object)}).
+ * <p>
+ * A strategy is attached to a single group and may be invoked concurrently
+ * by several senders.
+ */
+public interface RoutingStrategy {
+
+  /**
+   * Selects the agent a message is delivered to.
+   * 
+   * @param agents
+   *          The members of the group, indexed by number. The array is never
+   *          empty and must not be modified. The same array instance is given
+   *          as long as group's members do not change.
+   * @param message
+   *          The message to deliver.
+   * @return One of the members.
+   */
+  public abstract AbstractAgent select(AbstractAgent[] agents, Object message);
+
+}
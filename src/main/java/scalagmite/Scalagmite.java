@@ -22,10 +22,15 @@ package scalagmite;
  * #L%
  */
 
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
 import org.apache.log4j.Logger;
 
 public class Scalagmite {
 
+  private static final Logger LOGGER = Logger.getLogger(Scalagmite.class);
+
   private static Scalagmite singleton;
 
   public static Scalagmite init() {
@@ -56,7 +61,19 @@ public class Scalagmite {
 
   private final Scheduler scheduler;
 
-  private Logger logger;
+  /**
+   * Timer of the router, kept apart from scheduler's which stops with the
+   * scheduler, possibly before all agents are stopped.
+   */
+  private final HashedWheelTimer timer;
+
+  private final MetricsRegistry metrics;
+
+  private final MessageTracer tracer;
+
+  private final CodecRegistry codecs;
+
+  private final Transport transport;
 
   Scalagmite() {
     this(new DefaultErrorHandler(), new Provider<Worker>() {
@@ -72,9 +89,86 @@ public class Scalagmite {
 
     config = new Configuration();
     router = new Router(handler);
-    scheduler = new Scheduler(workerProvider, config);
+    metrics = new MetricsRegistry(config);
+    tracer = MessageTracer.newInstance(config);
+    scheduler = new Scheduler(workerProvider, config, metrics);
+    long tick = config.getTimerTick();
+    int wheelSize = config.getTimerWheelSize();
+    timer = tick > 0 && wheelSize > 0 ? new HashedWheelTimer(tick, wheelSize)
+        : new HashedWheelTimer();
+    router.setTimer(timer);
+    codecs = new CodecRegistry();
+    transport = new Transport(router, codecs);
+
+    int port = config.getTransportPort();
+    if (port >= 0) {
+      try {
+        transport.listen(config.getTransportHost(), port);
+      } catch (IOException e) {
+        throw new RuntimeException("Could not listen on port " + port, e);
+      }
+    }
+  }
+
+  /**
+   * Returns the registry encoding the messages sent to other nodes. Codecs
+   * should be registered before any message is exchanged, with the same ids
+   * on all nodes.
+   * 
+   * @return The codec registry of this node.
+   */
+  public CodecRegistry getCodecs() {
+    return codecs;
+  }
 
-    logger = Logger.getLogger(getClass());
+  /**
+   * Accepts connections from other nodes, whose remote agents can then send
+   * messages to the agents of this node.
+   * 
+   * @param host
+   *          The address to bind to.
+   * @param port
+   *          The port to bind to, 0 for any free port.
+   * @return The port the node listens on.
+   * @throws ScalagmiteException
+   *           If the socket could not be bound.
+   */
+  public int listen(String host, int port) throws ScalagmiteException {
+    try {
+      return transport.listen(host, port);
+    } catch (IOException e) {
+      throw new ScalagmiteException("Could not listen on " + host + ":"
+          + port, e);
+    }
+  }
+
+  /**
+   * Registers proxies for the agents of another node. Proxy i forwards the
+   * messages it receives to the agent with number i registered under the
+   * same name on the other node. Proxies join the local group with this name,
+   * if any, and are chosen by its routing strategy like local members.
+   * 
+   * @param name
+   *          The name of the agents.
+   * @param numberOfInstances
+   *          The number of agents registered under this name on the other
+   *          node.
+   * @param host
+   *          The address of the other node.
+   * @param port
+   *          The port the other node listens on.
+   * @throws ScalagmiteException
+   *           If a proxy could not be registered.
+   */
+  public synchronized void registerRemote(String name, int numberOfInstances,
+      String host, int port) throws ScalagmiteException {
+    for (int i = 0; i < numberOfInstances; ++i) {
+      RemoteAgent agent = new RemoteAgent(name, i, transport, host, port);
+      if (LOGGER.isInfoEnabled()) {
+        LOGGER.info("Registering remote agent " + agent);
+      }
+      router.registerAgent(agent, false);
+    }
   }
 
   public synchronized <T extends AbstractAgent> void register(Class<T> clazz)
@@ -105,10 +199,67 @@ public class Scalagmite {
     }
   }
 
+  /**
+   * Registers several instances of an agent class and sets the strategy
+   * distributing the messages sent to the group among the instances.
+   * 
+   * @param clazz
+   *          The agent class.
+   * @param numberOfInstances
+   *          The number of instances.
+   * @param strategy
+   *          The routing strategy of the group.
+   * @throws ScalagmiteException
+   *           If an agent could not be registered.
+   */
+  public synchronized <T extends AbstractAgent> void register(Class<T> clazz,
+      int numberOfInstances, RoutingStrategy strategy)
+      throws ScalagmiteException {
+    try {
+      String name = null;
+      for (int i = 0; i < numberOfInstances; ++i) {
+        T agent = clazz.getDeclaredConstructor().newInstance();
+        agent.setup();
+        register(agent, false);
+        name = agent.getName();
+      }
+      if (name != null) {
+        router.setRoutingStrategy(name, strategy);
+      }
+    } catch (ReflectiveOperationException e) {
+      LOGGER.error("Could not instantiate agent " + clazz.getName(), e);
+    }
+  }
+
+  /**
+   * Sets the supervision strategy of a group of agents (see
+   * {@link Router#setSupervisionStrategy(String, SupervisionStrategy)}).
+   * 
+   * @param name
+   *          The name of the group.
+   * @param strategy
+   *          The supervision strategy.
+   * @throws ScalagmiteException
+   *           If no agent is registered with given name.
+   */
+  public void setSupervisionStrategy(String name, SupervisionStrategy strategy)
+      throws ScalagmiteException {
+    router.setSupervisionStrategy(name, strategy);
+  }
+
   public synchronized void register(AbstractAgent agent, boolean unique)
       throws ScalagmiteException {
-    logger.info("Registering agent " + agent.getName());
+    if (LOGGER.isInfoEnabled()) {
+      LOGGER.info("Registering agent " + agent.getName());
+    }
+    agent.configure(config);
+    agent.setCodecs(codecs);
+    if (agent instanceof SchedulableAgent) {
+      scheduler.checkAffinity((SchedulableAgent) agent);
+    }
     router.registerAgent(agent, unique);
+    agent.setMetrics(metrics.newAgentMetrics(agent));
+    agent.setTracer(tracer);
 
     if (agent instanceof SchedulableAgent) {
       needScheduler = true;
@@ -116,6 +267,44 @@ public class Scalagmite {
     }
   }
 
+  /**
+   * Sends a request to a group of agents from outside of any agent and
+   * returns a future completed by the reply (see
+   * {@link Router#ask(String, Object, long)}).
+   * 
+   * @param dest
+   *          The name of the group.
+   * @param message
+   *          The request.
+   * @param timeout
+   *          The maximum time to wait for the reply, in milliseconds.
+   * @return A future completed by the reply.
+   */
+  public CompletableFuture<Object> ask(String dest, Object message,
+      long timeout) {
+    return router.ask(dest, message, timeout);
+  }
+
+  /**
+   * Sends a request to an agent from outside of any agent and returns a
+   * future completed by the reply (see
+   * {@link Router#ask(String, int, Object, long)}).
+   * 
+   * @param dest
+   *          The name of the agent.
+   * @param number
+   *          The number of the agent.
+   * @param message
+   *          The request.
+   * @param timeout
+   *          The maximum time to wait for the reply, in milliseconds.
+   * @return A future completed by the reply.
+   */
+  public CompletableFuture<Object> ask(String dest, int number,
+      Object message, long timeout) {
+    return router.ask(dest, number, message, timeout);
+  }
+
   public void main() throws ScalagmiteException, InterruptedException {
     synchronized (this) {
       if (!currentState.equals(State.INIT)) {
@@ -141,6 +330,16 @@ public class Scalagmite {
     if (needScheduler) {
       scheduler.stop();
     }
+    timer.stop();
+    transport.stop();
+
+    if (metrics.isEnabled()) {
+      metrics.unregisterAll();
+    }
+
+    if (tracer != null) {
+      tracer.stop();
+    }
 
     if (error != null) {
       throw new ScalagmiteException("Encountered an error", error);
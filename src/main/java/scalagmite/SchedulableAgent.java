@@ -24,11 +24,31 @@ package scalagmite;
 
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * An agent executed by the workers of a {@link Scheduler}.
+ * <p>
+ * A schedulable agent is scheduled at most once at a time: the first message
+ * submitted to an idle agent puts the agent's slot into the work queue, the
+ * worker taking the slot then consumes a batch of messages and puts the slot
+ * back into the queue only if messages are left. Handlers of a given agent
+ * are therefore never executed concurrently.
+ * <p>
+ * The size of a batch is bounded by agent's throughput (see
+ * {@link #setThroughput(int)}). As a re-scheduled agent goes back to the tail
+ * of the queue, a low throughput prevents a busy agent from starving the other
+ * agents handled by the same workers.
+ */
 public class SchedulableAgent extends AbstractAgent {
 
   private Scheduler scheduler;
 
+  private final Slot slot = new Slot(this);
+
+  /** True if agent's slot is in the work queue or being handled. */
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
   private Semaphore joinSync = new Semaphore(0);
 
   protected SchedulableAgent() {
@@ -39,6 +59,34 @@ public class SchedulableAgent extends AbstractAgent {
     super(name);
   }
 
+  /**
+   * Creates an agent whose mailbox holds at most <code>capacity</code>
+   * messages. Messages submitted to a full mailbox by a scheduler worker are
+   * rejected, other senders wait for space.
+   * 
+   * @param name
+   *          The name of the agent.
+   * @param capacity
+   *          The capacity of the mailbox.
+   */
+  protected SchedulableAgent(String name, int capacity) {
+    this(name, capacity, OverflowPolicy.BLOCK_EXTERNAL);
+  }
+
+  protected SchedulableAgent(String name, int capacity,
+      OverflowPolicy overflowPolicy) {
+    super(name, capacity, overflowPolicy);
+  }
+
+  protected SchedulableAgent(String name, Mailbox mailbox) {
+    super(name, mailbox);
+  }
+
+  protected SchedulableAgent(String name, Mailbox mailbox,
+      OverflowPolicy overflowPolicy) {
+    super(name, mailbox, overflowPolicy);
+  }
+
   @Override
   public void join() throws InterruptedException {
     joinSync.acquire();
@@ -66,10 +114,90 @@ public class SchedulableAgent extends AbstractAgent {
     this.scheduler = scheduler;
   }
 
+  /**
+   * Makes the agent preferably run on the worker it last ran on so that its
+   * state stays in the caches of the same CPU. An idle worker may still
+   * steal the agent. Only effective with the work-stealing scheduler.
+   * 
+   * @param preferLastWorker
+   *          True to enable the affinity, false to disable it.
+   */
+  public void setPreferLastWorker(boolean preferLastWorker) {
+    slot.setPreferLastWorker(preferLastWorker);
+  }
+
+  public boolean isPreferLastWorker() {
+    return slot.isPreferLastWorker();
+  }
+
+  /**
+   * Restricts the agent to a set of workers. Only effective with the
+   * work-stealing scheduler and to be called before registration.
+   * 
+   * @param workers
+   *          The indexes of the workers, from 0 to the minimum number of
+   *          scheduler threads minus 1. No index removes the restriction.
+   */
+  public void setWorkerAffinity(int... workers) {
+    slot.setWorkers(workers.length == 0 ? null : workers.clone());
+  }
+
+  /**
+   * Returns the workers the agent is restricted to.
+   * 
+   * @return The indexes of the workers or null if the agent may run on any
+   *         worker.
+   */
+  public int[] getWorkerAffinity() {
+    int[] workers = slot.getWorkers();
+    return workers != null ? workers.clone() : null;
+  }
+
+  Slot getSlot() {
+    return slot;
+  }
+
+  /**
+   * Consumes a batch of pending messages and re-schedules the agent if some
+   * messages are left. This method is invoked by the worker that took agent's
+   * slot from the work queue.
+   */
+  void runScheduled() {
+    consumeAvailableMessages(getThroughput());
+
+    scheduled.set(false);
+    if (hasPendingMessages()) {
+      scheduleIfIdle();
+    }
+  }
+
+  private void scheduleIfIdle() {
+    if (scheduled.compareAndSet(false, true)) {
+      scheduler.schedule(this);
+    }
+  }
+
+  @Override
+  public boolean submitMessage(Object o) {
+    if (!super.submitMessage(o)) {
+      return false;
+    }
+    scheduleIfIdle();
+    return true;
+  }
+
+  @Override
+  boolean offerMessage(Object o) {
+    if (!super.offerMessage(o)) {
+      return false;
+    }
+    scheduleIfIdle();
+    return true;
+  }
+
   @Override
-  public void submitMessage(Object o) {
-    super.submitMessage(o);
-    scheduler.schedule(this);
+  void afterControlMessage() {
+    scheduleIfIdle();
   }
 
 }
@@ -24,85 +24,383 @@ package scalagmite;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
+/**
+ * Runs {@link SchedulableAgent}s on a pool of workers.
+ * <p>
+ * The pool starts with the minimum number of workers (see
+ * {@link Configuration#getNumberOfThreads()}). While it is below its maximum
+ * size, the scheduler periodically checks whether slots waited in the queue
+ * longer than the grow threshold, or whether slots are waiting while a worker
+ * has been handling the same slot for longer than that, and adds one worker
+ * if so. Workers added above the minimum retire after staying idle for the
+ * keep-alive duration.
+ */
 public class Scheduler {
 
+  private static final Logger LOGGER = Logger.getLogger(Scheduler.class);
+
+  /** Represents the available strategies for distributing slots to workers */
+  public enum Mode {
+    /** All workers share a single FIFO queue. */
+    FIFO,
+    /** Each worker has its own deque and steals from others when idle. */
+    WORK_STEALING
+  }
+
   private final Provider<Worker> workerProvider;
 
+  /** Workers by index, null at the index of a retired worker. */
   private List<Worker> workers = new ArrayList<Worker>();
 
-  private BlockingQueue<Slot> workQueue = new LinkedBlockingQueue<Slot>();
+  /** Metrics of workers by index, kept when a worker retires. */
+  private List<WorkerMetrics> workerMetrics = new ArrayList<WorkerMetrics>();
 
-  private List<Exception> errors = new ArrayList<Exception>();
+  private int numOfWorkers;
+
+  private final int minWorkers;
+
+  private final int maxWorkers;
+
+  private final long keepAlive;
+
+  /** Grow threshold in nanoseconds, 0 if the pool has a fixed size. */
+  private final long growThreshold;
+
+  /** Longest time a slot waited in the queue since the last check. */
+  private final AtomicLong maxQueueWait = new AtomicLong();
+
+  private final Mode mode;
 
-  private final Logger logger;
+  private final WorkQueue workQueue;
+
+  /** CPUs workers are pinned to, empty if workers are not pinned. */
+  private final int[] cpus;
+
+  private final ThreadType threadType;
+
+  private final WaitStrategy waitStrategy;
+
+  private final HashedWheelTimer timer;
+
+  private final MetricsRegistry metricsRegistry;
+
+  private final SchedulerMetrics metrics;
+
+  private boolean started;
+
+  private boolean stopped;
+
+  private Timeout monitor;
+
+  private List<Exception> errors = new ArrayList<Exception>();
 
   Scheduler(Provider<Worker> workerProvider, Configuration config) {
+    this(workerProvider, config, new MetricsRegistry(false, 1));
+  }
+
+  Scheduler(Provider<Worker> workerProvider, Configuration config,
+      MetricsRegistry metricsRegistry) {
     this.workerProvider = workerProvider;
+    this.metricsRegistry = metricsRegistry;
+    this.metrics = metricsRegistry.newSchedulerMetrics();
+
+    if (Mode.WORK_STEALING.equals(config.getSchedulerMode())) {
+      mode = Mode.WORK_STEALING;
+      workQueue = new WorkStealingQueue();
+    } else {
+      mode = Mode.FIFO;
+      workQueue = new FifoWorkQueue();
+    }
+
+    String cpuList = config.getSchedulerCpus();
+    cpus = cpuList != null ? CpuAffinity.parse(cpuList) : new int[0];
+
+    long tick = config.getTimerTick();
+    int wheelSize = config.getTimerWheelSize();
+    timer = tick > 0 && wheelSize > 0 ? new HashedWheelTimer(tick, wheelSize)
+        : new HashedWheelTimer();
 
-    int numOfThreads = config.getNumberOfThreads();
-    if (numOfThreads <= 0) {
+    ThreadType type = config.getSchedulerThreadType();
+    threadType = type != null ? type : ThreadType.PLATFORM;
+
+    WaitStrategy strategy = config.getSchedulerWaitStrategy();
+    waitStrategy = strategy != null ? strategy : WaitStrategy.BLOCKING;
+
+    minWorkers = config.getNumberOfThreads();
+    if (minWorkers <= 0) {
       throw new RuntimeException("Number of threads must be greater than zero");
     }
+    maxWorkers = Math.max(minWorkers, config.getMaxNumberOfThreads());
+    keepAlive = Math.max(0, config.getWorkerKeepAlive());
+    long threshold = config.getSchedulerGrowThreshold();
+    if (maxWorkers > minWorkers && threshold > 0) {
+      growThreshold = TimeUnit.MILLISECONDS.toNanos(threshold);
+    } else {
+      growThreshold = 0;
+    }
 
-    for (int i = 0; i < numOfThreads; ++i) {
+    for (int i = 0; i < minWorkers; ++i) {
       addNewWorker();
     }
-
-    logger = Logger.getLogger(getClass());
   }
 
-  private void addNewWorker() {
+  /**
+   * Creates a worker at the lowest free index. Released views of the
+   * work-stealing queue are reused in the same order, a new worker therefore
+   * gets the view of the worker which previously had its index.
+   */
+  private Worker addNewWorker() {
+    int index = workers.indexOf(null);
+    if (index < 0) {
+      index = workers.size();
+      workers.add(null);
+      workerMetrics.add(null);
+    }
+
     Worker worker = workerProvider.get();
     worker.setScheduler(this);
-    worker.setQueue(workQueue);
-    workers.add(worker);
+    worker.setQueue(workQueue.newWorkerView());
+    worker.setThreadType(threadType);
+    worker.setWaitStrategy(waitStrategy);
+    if (cpus.length > 0) {
+      worker.setCpu(cpus[index % cpus.length]);
+    }
+    if (metrics != null) {
+      if (workerMetrics.get(index) == null) {
+        workerMetrics.set(index, metricsRegistry.newWorkerMetrics(metrics,
+            index));
+      }
+      worker.setMetrics(workerMetrics.get(index));
+    }
+    if (index >= minWorkers) {
+      worker.setKeepAlive(keepAlive);
+    }
+    workers.set(index, worker);
+    ++numOfWorkers;
+    return worker;
+  }
+
+  /**
+   * Returns the timer of the scheduler, stopped with it. Its thread is started
+   * on first use.
+   * 
+   * @return A timer.
+   */
+  public HashedWheelTimer getTimer() {
+    return timer;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * Checks the worker affinity of an agent about to be scheduled by this
+   * scheduler.
+   * 
+   * @param agent
+   *          The agent.
+   * @throws IllegalArgumentException
+   *           If agent is restricted to a worker that may not exist.
+   */
+  void checkAffinity(SchedulableAgent agent) {
+    int[] affinity = agent.getWorkerAffinity();
+    if (affinity != null) {
+      for (int index : affinity) {
+        if (index < 0 || index >= minWorkers) {
+          throw new IllegalArgumentException("Agent " + agent.getName()
+              + " is restricted to unknown worker " + index);
+        }
+      }
+    }
+
+    if ((affinity != null || agent.isPreferLastWorker())
+        && Mode.FIFO.equals(mode)) {
+      LOGGER.warn("Worker affinity of agent " + agent.getName()
+          + " is ignored by FIFO scheduler");
+    }
+  }
+
+  /**
+   * Returns the current number of workers.
+   * 
+   * @return A number of workers.
+   */
+  public synchronized int getNumOfThreads() {
+    return numOfWorkers;
+  }
+
+  public int getMinNumOfThreads() {
+    return minWorkers;
+  }
+
+  public int getMaxNumOfThreads() {
+    return maxWorkers;
   }
 
-  public int getNumOfThreads() {
-    return workers.size();
+  /**
+   * Tells if the size of the pool changes with the load.
+   * 
+   * @return True if workers may be added, false otherwise.
+   */
+  boolean isAdaptive() {
+    return growThreshold > 0;
   }
 
   public void join() throws InterruptedException {
-    for (Worker w : workers) {
-      w.join();
+    List<Worker> current;
+    synchronized (this) {
+      current = new ArrayList<Worker>(workers);
+    }
+    for (Worker w : current) {
+      if (w != null) {
+        w.join();
+      }
     }
   }
 
-  synchronized void signalError(Worker worker, Exception e) {
-    errors.add(e);
+  void signalError(Worker worker, Exception e) {
+    synchronized (this) {
+      errors.add(e);
+    }
     stop();
   }
 
   public synchronized void start() {
-    Logger.getLogger(getClass()).debug(
-        "Starting " + workers.size() + " workers...");
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Starting " + numOfWorkers + " workers...");
+    }
+    started = true;
     for (Worker w : workers) {
       w.start();
     }
+
+    if (isAdaptive()) {
+      long period = TimeUnit.NANOSECONDS.toMillis(growThreshold);
+      monitor = timer.schedule(new Runnable() {
+        @Override
+        public void run() {
+          adjustPool();
+        }
+      }, period, period);
+    }
   }
 
-  public synchronized void stop() {
-    Logger.getLogger(getClass()).debug(
-        "Stopping " + workers.size() + " workers...");
-    for (int i = 0; i < workers.size(); ++i) {
-      try {
-        workQueue.put(new Slot(null));
-      } catch (InterruptedException e) {
-        logger.error("Could not stop queue");
+  /**
+   * Stops the workers and the timer of the scheduler.
+   */
+  public void stop() {
+    synchronized (this) {
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Stopping " + numOfWorkers + " workers...");
+      }
+      stopped = true;
+      if (monitor != null) {
+        monitor.cancel();
+      }
+      for (int i = 0; i < numOfWorkers; ++i) {
+        try {
+          workQueue.put(new Slot(null));
+        } catch (InterruptedException e) {
+          LOGGER.error("Could not stop queue");
+        }
+      }
+    }
+
+    // Outside of the lock: the monitor task of the timer takes it
+    try {
+      timer.stop();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOGGER.error("Interrupted while stopping timer");
+    }
+  }
+
+  /**
+   * Adds a worker if slots wait for too long, either because all workers are
+   * busy or because some of them are blocked in a handler.
+   */
+  synchronized void adjustPool() {
+    long wait = maxQueueWait.getAndSet(0);
+    if (!started || stopped || numOfWorkers >= maxWorkers) {
+      return;
+    }
+
+    boolean grow = wait > growThreshold;
+    if (!grow && !workQueue.isEmpty()) {
+      long now = System.nanoTime();
+      for (Worker w : workers) {
+        long busySince = w != null ? w.getBusySince() : 0;
+        if (busySince != 0 && now - busySince > growThreshold) {
+          grow = true;
+          break;
+        }
+      }
+    }
+
+    if (grow) {
+      addNewWorker().start();
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Added a worker, pool size is now " + numOfWorkers);
+      }
+    }
+  }
+
+  /**
+   * Called by a worker that stayed idle for the keep-alive duration.
+   * 
+   * @param worker
+   *          The idle worker.
+   * @param view
+   *          The view of the work queue used by the worker.
+   * @return True if the worker must terminate, false if it must go on.
+   */
+  synchronized boolean retire(Worker worker, WorkerQueue view) {
+    int index = workers.indexOf(worker);
+    if (stopped || index < minWorkers) {
+      return false;
+    }
+    workers.set(index, null);
+    --numOfWorkers;
+    view.release();
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Retired a worker, pool size is now " + numOfWorkers);
+    }
+    return true;
+  }
+
+  /**
+   * Records the time a slot waited in the queue. Called by the workers of an
+   * adaptive scheduler.
+   */
+  void slotTaken(Slot slot, long now) {
+    long scheduledAt = slot.getScheduledAt();
+    if (scheduledAt != 0) {
+      long wait = now - scheduledAt;
+      long max = maxQueueWait.get();
+      if (wait > max) {
+        maxQueueWait.compareAndSet(max, wait);
       }
     }
   }
 
   void schedule(SchedulableAgent agent) {
+    if (metrics != null) {
+      metrics.agentScheduled();
+    }
+    Slot slot = agent.getSlot();
+    if (growThreshold > 0) {
+      slot.setScheduledAt(System.nanoTime());
+    }
     try {
-      workQueue.put(new Slot(agent));
+      workQueue.put(slot);
     } catch (InterruptedException e) {
-      logger.error("Could not schedule agent " + agent.getClass().getName());
+      LOGGER.error("Could not schedule agent " + agent.getClass().getName());
     }
   }
 
@@ -0,0 +1,68 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of the scheduler.
+ */
+public class SchedulerMetrics implements SchedulerMetricsMBean {
+
+  private final LongAdder scheduled = new LongAdder();
+
+  private final List<WorkerMetrics> workers = new CopyOnWriteArrayList<WorkerMetrics>();
+
+  void agentScheduled() {
+    scheduled.increment();
+  }
+
+  void addWorker(WorkerMetrics worker) {
+    workers.add(worker);
+  }
+
+  @Override
+  public long getScheduledAgents() {
+    return scheduled.sum();
+  }
+
+  @Override
+  public int getWorkers() {
+    return workers.size();
+  }
+
+  @Override
+  public double getBusyRatio() {
+    long busy = 0;
+    long total = 0;
+    for (WorkerMetrics worker : workers) {
+      long workerBusy = worker.getBusyTime();
+      busy += workerBusy;
+      total += workerBusy + worker.getIdleTime();
+    }
+    return total == 0 ? 0 : (double) busy / total;
+  }
+
+}
@@ -26,6 +26,18 @@ public class Slot {
 
   private final SchedulableAgent agent;
 
+  /** Index of the worker which last took the slot, -1 if none. */
+  private volatile int lastWorker = -1;
+
+  /** True if the slot should go back to the worker which last took it. */
+  private volatile boolean preferLastWorker;
+
+  /** Indexes of the only workers allowed to take the slot, null if any. */
+  private volatile int[] workers;
+
+  /** Time at which the slot was last put into the work queue, in ns. */
+  private long scheduledAt;
+
   public Slot(SchedulableAgent agent) {
     this.agent = agent;
   }
@@ -34,4 +46,36 @@ public class Slot {
     return agent;
   }
 
+  int getLastWorker() {
+    return lastWorker;
+  }
+
+  void setLastWorker(int lastWorker) {
+    this.lastWorker = lastWorker;
+  }
+
+  boolean isPreferLastWorker() {
+    return preferLastWorker;
+  }
+
+  void setPreferLastWorker(boolean preferLastWorker) {
+    this.preferLastWorker = preferLastWorker;
+  }
+
+  int[] getWorkers() {
+    return workers;
+  }
+
+  void setWorkers(int[] workers) {
+    this.workers = workers;
+  }
+
+  long getScheduledAt() {
+    return scheduledAt;
+  }
+
+  void setScheduledAt(long scheduledAt) {
+    this.scheduledAt = scheduledAt;
+  }
+
 }
@@ -0,0 +1,63 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.util.Map;
+
+/**
+ * Saves and restores the state of an agent (see
+ * {@link AbstractAgent#registerSnapshotHandler(SnapshotHandler, java.io.File, long)}).
+ * <p>
+ * The state is seen as a map: a snapshot writes the entries added, changed
+ * or removed since the previous snapshot, or all entries when a full
+ * snapshot is requested. Both methods are invoked by the thread handling
+ * agent's messages.
+ */
+public interface SnapshotHandler {
+
+  /**
+   * Writes agent's state.
+   * 
+   * @param writer
+   *          The writer of the snapshot.
+   * @param full
+   *          True if all entries must be written, false if only the changes
+   *          since the previous snapshot must be.
+   * @throws Exception
+   *           If the state could not be written.
+   */
+  void snapshot(SnapshotWriter writer, boolean full) throws Exception;
+
+  /**
+   * Restores agent's state from the last snapshot. Invoked when the agent
+   * starts, before its init handler, only if a snapshot exists.
+   * 
+   * @param state
+   *          The entries of the last snapshot.
+   * @throws Exception
+   *           If the state could not be restored.
+   */
+  void restore(Map<Object, Object> state) throws Exception;
+
+}
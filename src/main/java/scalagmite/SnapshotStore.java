@@ -0,0 +1,297 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The snapshots of an agent in a directory.
+ * <p>
+ * A snapshot is either full or holds the changes since the previous one. Each
+ * snapshot is a file named after its sequence number, holding the offset of
+ * agent's {@link DurableMailbox} when it was taken followed by its entries.
+ * Files are written to a temporary name, forced to disk and renamed, a crash
+ * therefore never leaves a partial snapshot. Writing is done by a thread
+ * shared by all stores; the files preceding a full snapshot are deleted once
+ * it is written.
+ */
+final class SnapshotStore {
+
+  private static final Logger LOGGER = Logger.getLogger(SnapshotStore.class);
+
+  private static final String FULL_SUFFIX = ".full";
+
+  private static final String DELTA_SUFFIX = ".delta";
+
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private static final ExecutorService WRITER = Executors
+      .newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "Snapshot writer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  /** The content of the last snapshot. */
+  static final class Snapshot {
+    final Map<Object, Object> state;
+
+    final long offset;
+
+    Snapshot(Map<Object, Object> state, long offset) {
+      this.state = state;
+      this.offset = offset;
+    }
+  }
+
+  private final File directory;
+
+  private final CodecRegistry codecs;
+
+  private long nextSequence;
+
+  /** True while a snapshot is being written. */
+  private boolean writing;
+
+  /** True if a snapshot could not be written, next one must be full. */
+  private boolean failed;
+
+  SnapshotStore(File directory, CodecRegistry codecs) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory " + directory);
+    }
+    this.directory = directory;
+    this.codecs = codecs;
+  }
+
+  private String[] list(final String suffix) {
+    String[] names = directory.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(suffix);
+      }
+    });
+    Arrays.sort(names);
+    return names;
+  }
+
+  private static long sequenceOf(String name) {
+    return Long.parseLong(name.substring(0, name.indexOf('.')));
+  }
+
+  /**
+   * Reads the last full snapshot and applies the changes written after it.
+   * 
+   * @return The last snapshot or null if there is none.
+   * @throws IOException
+   *           If the last full snapshot could not be read.
+   */
+  synchronized Snapshot load() throws IOException {
+    for (String name : list(TEMP_SUFFIX)) {
+      new File(directory, name).delete();
+    }
+
+    String[] fulls = list(FULL_SUFFIX);
+    String[] deltas = list(DELTA_SUFFIX);
+    long last = -1;
+    for (String name : fulls) {
+      last = Math.max(last, sequenceOf(name));
+    }
+    for (String name : deltas) {
+      last = Math.max(last, sequenceOf(name));
+    }
+    nextSequence = last + 1;
+    if (fulls.length == 0) {
+      failed = true;
+      return null;
+    }
+
+    String base = fulls[fulls.length - 1];
+    long baseSequence = sequenceOf(base);
+    Map<Object, Object> state = new LinkedHashMap<Object, Object>();
+    long offset = read(new File(directory, base), state);
+    for (String name : deltas) {
+      if (sequenceOf(name) <= baseSequence) {
+        continue;
+      }
+      try {
+        offset = read(new File(directory, name), state);
+      } catch (IOException e) {
+        // Later changes cannot be applied without this one
+        LOGGER.warn("Ignoring snapshots from " + name + " in " + directory, e);
+        failed = true;
+        break;
+      }
+    }
+    return new Snapshot(state, offset);
+  }
+
+  private long read(File file, Map<Object, Object> state) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          channel.size());
+      long offset = buffer.getLong();
+      while (true) {
+        byte operation = buffer.get();
+        if (operation == SnapshotWriter.END) {
+          return offset;
+        }
+        Object key = codecs.read(buffer);
+        if (operation == SnapshotWriter.PUT) {
+          state.put(key, codecs.read(buffer));
+        } else if (operation == SnapshotWriter.REMOVE) {
+          state.remove(key);
+        } else {
+          throw new IOException("Invalid entry in " + file);
+        }
+      }
+    } catch (RuntimeException e) {
+      throw new IOException("Invalid snapshot " + file, e);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Tells if the next snapshot must be full because the previous one could
+   * not be written or there is none.
+   */
+  synchronized boolean needsFullSnapshot() {
+    return failed;
+  }
+
+  /**
+   * Tells if a snapshot is being written.
+   */
+  synchronized boolean isWriting() {
+    return writing;
+  }
+
+  /**
+   * Writes a snapshot in the background.
+   * 
+   * @param entries
+   *          The encoded entries, released once written.
+   * @param full
+   *          True if the snapshot is full.
+   * @param offset
+   *          The offset of agent's mailbox.
+   * @param onWritten
+   *          Invoked by the writing thread once the snapshot is on disk, may
+   *          be null.
+   */
+  synchronized void write(final ByteBuffer entries, final boolean full,
+      final long offset, final Runnable onWritten) {
+    final long sequence = nextSequence++;
+    writing = true;
+    WRITER.execute(new Runnable() {
+      @Override
+      public void run() {
+        boolean written = false;
+        try {
+          writeFile(entries, full, offset, sequence);
+          written = true;
+          if (onWritten != null) {
+            onWritten.run();
+          }
+        } catch (IOException e) {
+          LOGGER.error("Could not write snapshot in " + directory, e);
+        } finally {
+          codecs.release(entries);
+          synchronized (SnapshotStore.this) {
+            writing = false;
+            if (written && full) {
+              failed = false;
+            } else if (!written) {
+              failed = true;
+            }
+            SnapshotStore.this.notifyAll();
+          }
+        }
+      }
+    });
+  }
+
+  private void writeFile(ByteBuffer entries, boolean full, long offset,
+      long sequence) throws IOException {
+    String name = String.format("%020d", sequence)
+        + (full ? FULL_SUFFIX : DELTA_SUFFIX);
+    File temp = new File(directory, name + TEMP_SUFFIX);
+    FileOutputStream out = new FileOutputStream(temp);
+    try {
+      FileChannel channel = out.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(8);
+      header.putLong(0, offset);
+      ByteBuffer[] buffers = { header, entries };
+      while (entries.hasRemaining()) {
+        channel.write(buffers);
+      }
+      channel.force(false);
+    } finally {
+      out.close();
+    }
+    if (!temp.renameTo(new File(directory, name))) {
+      throw new IOException("Could not rename " + temp);
+    }
+
+    if (full) {
+      for (String old : directory.list()) {
+        if ((old.endsWith(FULL_SUFFIX) || old.endsWith(DELTA_SUFFIX))
+            && sequenceOf(old) < sequence) {
+          new File(directory, old).delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits until the snapshot being written, if any, is on disk.
+   */
+  synchronized void await() throws InterruptedException {
+    while (writing) {
+      wait();
+    }
+  }
+
+}
@@ -0,0 +1,138 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the entries of a snapshot into memory. Keys and values are encoded
+ * by a {@link CodecRegistry}; the snapshot is written to disk once complete,
+ * by another thread.
+ */
+public final class SnapshotWriter {
+
+  static final byte END = 0;
+
+  static final byte PUT = 1;
+
+  static final byte REMOVE = 2;
+
+  private final CodecRegistry codecs;
+
+  private ByteBuffer buffer;
+
+  private int entries;
+
+  SnapshotWriter(CodecRegistry codecs) {
+    this.codecs = codecs;
+    this.buffer = codecs.getPool().acquire();
+  }
+
+  /**
+   * Writes an entry added or changed since the previous snapshot.
+   * 
+   * @param key
+   *          The key of the entry.
+   * @param value
+   *          The value of the entry.
+   * @throws IOException
+   *           If the key or the value is not supported by the codec registry.
+   */
+  public void put(Object key, Object value) throws IOException {
+    write(PUT, key, value);
+  }
+
+  /**
+   * Writes an entry removed since the previous snapshot.
+   * 
+   * @param key
+   *          The key of the entry.
+   * @throws IOException
+   *           If the key is not supported by the codec registry.
+   */
+  public void remove(Object key) throws IOException {
+    write(REMOVE, key, null);
+  }
+
+  private void write(byte operation, Object key, Object value)
+      throws IOException {
+    int start = buffer.position();
+    while (true) {
+      try {
+        buffer.put(operation);
+        codecs.write(key, buffer);
+        if (operation == PUT) {
+          codecs.write(value, buffer);
+        }
+        ++entries;
+        return;
+      } catch (BufferOverflowException e) {
+        if (buffer.capacity() >= CodecRegistry.MAX_BUFFER_SIZE) {
+          throw new IOException("Snapshot is larger than "
+              + CodecRegistry.MAX_BUFFER_SIZE + " bytes");
+        }
+        ByteBuffer larger = ByteBuffer.allocateDirect(Math.min(
+            2 * buffer.capacity(), CodecRegistry.MAX_BUFFER_SIZE));
+        buffer.flip();
+        buffer.limit(start);
+        larger.put(buffer);
+        codecs.release(buffer);
+        buffer = larger;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of written entries.
+   * 
+   * @return A number of entries.
+   */
+  public int getEntries() {
+    return entries;
+  }
+
+  /**
+   * Terminates the snapshot.
+   * 
+   * @return The encoded entries, ready to be read.
+   */
+  ByteBuffer finish() {
+    while (true) {
+      try {
+        buffer.put(END);
+        buffer.flip();
+        return buffer;
+      } catch (BufferOverflowException e) {
+        ByteBuffer larger = ByteBuffer.allocateDirect(buffer.capacity() + 1);
+        buffer.flip();
+        larger.put(buffer);
+        codecs.release(buffer);
+        buffer = larger;
+      }
+    }
+  }
+
+}
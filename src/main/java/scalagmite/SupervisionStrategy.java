@@ -0,0 +1,123 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+/**
+ * Tells what happens to an agent whose handler raised an exception. A
+ * strategy may be set on an agent (see
+ * {@link AbstractAgent#setSupervisionStrategy(SupervisionStrategy)}) or on a
+ * group (see {@link Router#setSupervisionStrategy(String, SupervisionStrategy)}),
+ * the strategy of the agent taking precedence. Errors of agents without
+ * strategy are escalated.
+ * <p>
+ * Restarts are rate-limited: an agent restarted more than the maximum number
+ * of restarts within the restart window escalates the error instead.
+ * Subclasses may choose the directive depending on the error by overriding
+ * {@link #decide(AbstractAgent, Exception)}.
+ */
+public class SupervisionStrategy {
+
+  /** Represents what happens to a failed agent */
+  public enum Directive {
+    /** The failed message is skipped, the agent keeps its state. */
+    RESUME,
+    /**
+     * The failed message is skipped, the agent's restart handler and init
+     * handler are invoked again; pending messages are kept.
+     */
+    RESTART,
+    /** The agent is stopped, other agents go on. */
+    STOP,
+    /**
+     * The error is signaled to the router, whose error handler stops all
+     * agents if the error is fatal. The failed agent does not handle any
+     * other message.
+     */
+    ESCALATE
+  }
+
+  public static final int DEFAULT_MAX_RESTARTS = 10;
+
+  public static final long DEFAULT_RESTART_WINDOW = 60000;
+
+  private final Directive directive;
+
+  private final int maxRestarts;
+
+  private final long restartWindow;
+
+  public SupervisionStrategy(Directive directive) {
+    this(directive, DEFAULT_MAX_RESTARTS, DEFAULT_RESTART_WINDOW);
+  }
+
+  /**
+   * Creates a strategy applying the same directive to all errors.
+   * 
+   * @param directive
+   *          The directive.
+   * @param maxRestarts
+   *          The maximum number of restarts within the restart window.
+   * @param restartWindow
+   *          The duration of the restart window in milliseconds.
+   */
+  public SupervisionStrategy(Directive directive, int maxRestarts,
+      long restartWindow) {
+    if (directive == null) {
+      throw new IllegalArgumentException("Directive cannot be null");
+    }
+    if (maxRestarts < 0 || restartWindow <= 0) {
+      throw new IllegalArgumentException("Invalid restart limits");
+    }
+    this.directive = directive;
+    this.maxRestarts = maxRestarts;
+    this.restartWindow = restartWindow;
+  }
+
+  /**
+   * Chooses what happens to an agent after an error. Invoked by the thread
+   * handling agent's messages.
+   * 
+   * @param agent
+   *          The failed agent.
+   * @param e
+   *          The exception raised by agent's handler.
+   * @return A directive.
+   */
+  public Directive decide(AbstractAgent agent, Exception e) {
+    return directive;
+  }
+
+  public Directive getDirective() {
+    return directive;
+  }
+
+  public int getMaxRestarts() {
+    return maxRestarts;
+  }
+
+  public long getRestartWindow() {
+    return restartWindow;
+  }
+
+}
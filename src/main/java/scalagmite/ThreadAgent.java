@@ -24,7 +24,13 @@ package scalagmite;
 
 public class ThreadAgent extends AbstractAgent implements Runnable {
 
-  private Thread agentThread;
+  private volatile Thread agentThread;
+
+  private final String threadName;
+
+  private ThreadType threadType;
+
+  private WaitStrategy waitStrategy;
 
   protected ThreadAgent() {
     this(null);
@@ -35,25 +41,91 @@ public class ThreadAgent extends AbstractAgent implements Runnable {
   }
 
   protected ThreadAgent(String name, int capacity) {
-    super(name, capacity);
+    this(name, capacity, OverflowPolicy.BLOCK);
+  }
+
+  protected ThreadAgent(String name, int capacity,
+      OverflowPolicy overflowPolicy) {
+    super(name, capacity, overflowPolicy);
+
+    threadName = name != null ? name : getClass().getSimpleName();
+  }
+
+  protected ThreadAgent(String name, Mailbox mailbox) {
+    super(name, mailbox);
+
+    threadName = name != null ? name : getClass().getSimpleName();
+  }
+
+  /**
+   * Sets the type of the thread that will execute the agent. If not set, the
+   * type given by configuration is used.
+   * 
+   * @param threadType
+   *          The type of agent's thread.
+   */
+  public void setThreadType(ThreadType threadType) {
+    if (agentThread != null) {
+      throw new IllegalStateException("Agent has already been started");
+    }
+    this.threadType = threadType;
+  }
 
-    name = name != null ? name : getClass().getSimpleName();
-    agentThread = new Thread(this, name);
+  public ThreadType getThreadType() {
+    return threadType != null ? threadType : ThreadType.PLATFORM;
+  }
+
+  /**
+   * Sets how agent's thread waits for messages when the mailbox is empty. If
+   * not set, the strategy given by configuration is used.
+   * 
+   * @param waitStrategy
+   *          The wait strategy.
+   */
+  public void setWaitStrategy(WaitStrategy waitStrategy) {
+    if (agentThread != null) {
+      throw new IllegalStateException("Agent has already been started");
+    }
+    this.waitStrategy = waitStrategy;
+  }
+
+  @Override
+  public WaitStrategy getWaitStrategy() {
+    return waitStrategy != null ? waitStrategy : WaitStrategy.BLOCKING;
+  }
+
+  @Override
+  void configure(Configuration config) {
+    super.configure(config);
+    if (threadType == null) {
+      threadType = config.getAgentThreadType();
+    }
+    if (waitStrategy == null) {
+      waitStrategy = config.getAgentWaitStrategy();
+    }
   }
 
   @Override
   public void join() throws InterruptedException {
-    agentThread.join();
+    Thread thread = agentThread;
+    if (thread != null) {
+      thread.join();
+    }
   }
 
   @Override
   public void join(long millis) throws InterruptedException {
-    agentThread.join(millis);
+    Thread thread = agentThread;
+    if (thread != null) {
+      thread.join(millis);
+    }
   }
 
   @Override
   protected void onStart() {
-    agentThread.start();
+    Thread thread = getThreadType().newThread(this, threadName);
+    agentThread = thread;
+    thread.start();
   }
 
   @Override
@@ -73,7 +145,7 @@ public class ThreadAgent extends AbstractAgent implements Runnable {
   @Override
   public void run() {
     while (!AgentStatus.STOPPED.equals(getStatus())) {
-      consumeMessage();
+      consumeMessages(getThroughput());
     }
   }
 
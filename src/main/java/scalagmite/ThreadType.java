@@ -0,0 +1,124 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Represents the kinds of threads agents and scheduler workers can run in.
+ */
+public enum ThreadType {
+
+  /** Threads backed by an operating system thread. */
+  PLATFORM {
+    @Override
+    public Thread newThread(Runnable task, String name) {
+      return new Thread(task, name);
+    }
+  },
+
+  /**
+   * Lightweight threads scheduled by the JVM, available since Java 21. When
+   * virtual threads are not supported by the running JVM, platform threads are
+   * created instead.
+   */
+  VIRTUAL {
+    @Override
+    public Thread newThread(Runnable task, String name) {
+      Thread thread = VirtualThreads.newThread(task, name);
+      return thread != null ? thread : PLATFORM.newThread(task, name);
+    }
+  };
+
+  /**
+   * Creates an unstarted thread.
+   * 
+   * @param task
+   *          The task executed by the thread.
+   * @param name
+   *          The name of the thread.
+   * @return A new thread.
+   */
+  public abstract Thread newThread(Runnable task, String name);
+
+  /**
+   * Tells if the running JVM supports virtual threads.
+   * 
+   * @return True if virtual threads are supported, false otherwise.
+   */
+  public static boolean isVirtualSupported() {
+    return VirtualThreads.supported;
+  }
+
+  /**
+   * Creates virtual threads through reflection so that the code still
+   * compiles and runs on JVMs without virtual threads.
+   */
+  private static class VirtualThreads {
+
+    private static final Logger LOGGER = Logger.getLogger(ThreadType.class);
+
+    private static volatile boolean supported;
+
+    /** Set once the fallback to platform threads has been logged. */
+    private static final AtomicBoolean warned = new AtomicBoolean();
+
+    private static Method ofVirtual;
+
+    private static Method name;
+
+    private static Method unstarted;
+
+    static {
+      try {
+        ofVirtual = Thread.class.getMethod("ofVirtual");
+        Class<?> builder = Class.forName("java.lang.Thread$Builder");
+        name = builder.getMethod("name", String.class);
+        unstarted = builder.getMethod("unstarted", Runnable.class);
+        supported = true;
+      } catch (Exception e) {
+        supported = false;
+      }
+    }
+
+    private static Thread newThread(Runnable task, String threadName) {
+      if (supported) {
+        try {
+          Object builder = name.invoke(ofVirtual.invoke(null), threadName);
+          return (Thread) unstarted.invoke(builder, task);
+        } catch (Exception e) {
+          // Virtual threads are a preview feature of this JVM
+          supported = false;
+        }
+      }
+      if (warned.compareAndSet(false, true)) {
+        LOGGER.warn(
+            "Virtual threads are not supported, using platform threads");
+      }
+      return null;
+    }
+  }
+}
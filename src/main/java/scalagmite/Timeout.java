@@ -0,0 +1,47 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Handle of a task scheduled with a {@link HashedWheelTimer}.
+ */
+public interface Timeout {
+
+  /**
+   * Cancels the task. A periodic task is not run anymore.
+   * 
+   * @return False if the task was already cancelled or has already expired,
+   *         true otherwise.
+   */
+  public abstract boolean cancel();
+
+  public abstract boolean isCancelled();
+
+  /**
+   * Tells if the task was run. Periodic tasks never expire.
+   * 
+   * @return True if the one-shot task was run, false otherwise.
+   */
+  public abstract boolean isExpired();
+
+}
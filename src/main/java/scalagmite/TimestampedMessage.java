@@ -0,0 +1,47 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Wraps a message whose time spent in the mailbox is measured.
+ */
+final class TimestampedMessage {
+
+  private final Object message;
+
+  private final long enqueueTime;
+
+  TimestampedMessage(Object message, long enqueueTime) {
+    this.message = message;
+    this.enqueueTime = enqueueTime;
+  }
+
+  Object getMessage() {
+    return message;
+  }
+
+  long getEnqueueTime() {
+    return enqueueTime;
+  }
+
+}
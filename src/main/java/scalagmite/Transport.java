@@ -0,0 +1,493 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Exchanges messages with the transports of other nodes over TCP.
+ * <p>
+ * A transport delivers the messages it receives to the agents of its router
+ * and sends the messages submitted to {@link RemoteAgent}s. All sockets are
+ * handled by a single thread using non-blocking I/O, started on first use.
+ * Messages sent to the same node share a single connection and are written
+ * in batches.
+ * <p>
+ * The transport's thread never blocks on a mailbox: when a received message
+ * targets an agent whose mailbox is full and whose overflow policy would
+ * block, reading from that connection is paused, and delivery retried every
+ * {@value #RETRY_DELAY} milliseconds, until the message is accepted.
+ * <p>
+ * Messages are encoded by a {@link CodecRegistry}: the classes of the
+ * messages exchanged must be registered with the same ids on all nodes, and
+ * received frames can only instantiate registered classes.
+ */
+public class Transport {
+
+  private static final Logger LOGGER = Logger.getLogger(Transport.class);
+
+  private static final int INIT = 0;
+
+  private static final int STARTED = 1;
+
+  private static final int STOPPED = 2;
+
+  /** Delay between two delivery attempts to a full mailbox, in ms. */
+  static final long RETRY_DELAY = 1;
+
+  private final Router router;
+
+  private final CodecRegistry codecs;
+
+  private int state = INIT;
+
+  private Selector selector;
+
+  private Thread thread;
+
+  private ServerSocketChannel server;
+
+  /** Registrations of channels with the selector. */
+  private final Queue<Runnable> registrations = new ConcurrentLinkedQueue<Runnable>();
+
+  private final Queue<Connection> writeRequests = new ConcurrentLinkedQueue<Connection>();
+
+  /**
+   * Connections whose reading is paused by a full mailbox, only used by
+   * transport's thread.
+   */
+  private final List<Connection> paused = new ArrayList<Connection>();
+
+  /** Connections opened to other nodes, by address. */
+  private final Map<String, Connection> connections = new ConcurrentHashMap<String, Connection>();
+
+  /** References remote nodes may reply to, by id. */
+  private final Map<Long, AgentRef> exports = new ConcurrentHashMap<Long, AgentRef>();
+
+  /** Ids of exported references, equal references sharing an id. */
+  private final ConcurrentMap<AgentRef, Long> exportIds = new ConcurrentHashMap<AgentRef, Long>();
+
+  private final AtomicLong nextExportId = new AtomicLong();
+
+  /** Number of exports above which invalid exports are removed. */
+  private volatile int sweepThreshold = 1024;
+
+  Transport(Router router) {
+    this(router, new CodecRegistry());
+  }
+
+  Transport(Router router, CodecRegistry codecs) {
+    this.router = router;
+    this.codecs = codecs;
+  }
+
+  CodecRegistry getCodecs() {
+    return codecs;
+  }
+
+  /**
+   * Accepts connections from other nodes.
+   * 
+   * @param host
+   *          The address to bind to.
+   * @param port
+   *          The port to bind to, 0 for any free port.
+   * @return The port the transport listens on.
+   * @throws IOException
+   *           If the socket could not be bound.
+   */
+  public synchronized int listen(String host, int port) throws IOException {
+    if (server != null) {
+      throw new IllegalStateException("Transport is already listening");
+    }
+    start();
+
+    ServerSocketChannel channel = ServerSocketChannel.open();
+    try {
+      channel.configureBlocking(false);
+      channel.bind(new InetSocketAddress(host, port));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    server = channel;
+    registrations.add(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+          LOGGER.error("Could not accept connections", e);
+        }
+      }
+    });
+    selector.wakeup();
+    if (LOGGER.isInfoEnabled()) {
+      LOGGER.info("Listening on " + channel.getLocalAddress());
+    }
+    return channel.socket().getLocalPort();
+  }
+
+  /**
+   * Returns the connection to a node, opening it if necessary.
+   */
+  synchronized Connection connect(String host, int port) throws IOException {
+    String address = host + ":" + port;
+    Connection connection = connections.get(address);
+    if (connection != null && !connection.isClosed()) {
+      return connection;
+    }
+    start();
+
+    SocketChannel channel = SocketChannel.open();
+    try {
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      channel.connect(new InetSocketAddress(host, port));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    final Connection opened = new Connection(this, channel, address, false);
+    connections.put(address, opened);
+    registrations.add(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          opened.setKey(opened.getChannel().register(selector,
+              SelectionKey.OP_CONNECT, opened));
+        } catch (IOException e) {
+          fail(opened, e);
+        }
+      }
+    });
+    selector.wakeup();
+    return opened;
+  }
+
+  private void start() throws IOException {
+    switch (state) {
+    case INIT:
+      selector = Selector.open();
+      thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          runLoop();
+        }
+      }, "Transport");
+      thread.setDaemon(true);
+      thread.start();
+      state = STARTED;
+      break;
+    case STARTED:
+      break;
+    default:
+      throw new IllegalStateException("Transport has been stopped");
+    }
+  }
+
+  /**
+   * Stops the transport and closes all connections. Frames not yet written
+   * are dropped.
+   * 
+   * @throws InterruptedException
+   *           If interrupted while waiting for transport's thread to
+   *           terminate.
+   */
+  public void stop() throws InterruptedException {
+    Thread current;
+    synchronized (this) {
+      if (state != STARTED) {
+        state = STOPPED;
+        return;
+      }
+      state = STOPPED;
+      current = thread;
+      selector.wakeup();
+    }
+    current.join();
+  }
+
+  private synchronized boolean isRunning() {
+    return state == STARTED;
+  }
+
+  void requestWrite(Connection connection) {
+    writeRequests.add(connection);
+    selector.wakeup();
+  }
+
+  void closed(Connection connection) {
+    if (connection.getAddress() != null) {
+      connections.remove(connection.getAddress(), connection);
+    }
+  }
+
+  /**
+   * Exports a reference so that a remote agent can reply to it. A reference
+   * equal to an already exported one gets the same id: a long-lived agent
+   * sending requests is exported once.
+   * 
+   * @return The id of the reference.
+   */
+  long export(AgentRef ref) {
+    Long existing = exportIds.get(ref);
+    if (existing != null) {
+      return existing;
+    }
+
+    if (exports.size() >= sweepThreshold) {
+      Iterator<Map.Entry<Long, AgentRef>> it = exports.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<Long, AgentRef> entry = it.next();
+        if (!entry.getValue().isValid()) {
+          it.remove();
+          exportIds.remove(entry.getValue(), entry.getKey());
+        }
+      }
+      sweepThreshold = Math.max(1024, 2 * exports.size());
+    }
+
+    // The reference is exported before its id is published
+    long id = nextExportId.incrementAndGet();
+    exports.put(id, ref);
+    existing = exportIds.putIfAbsent(ref, id);
+    if (existing != null) {
+      exports.remove(id);
+      return existing;
+    }
+    return id;
+  }
+
+  /**
+   * Returns the number of references remote nodes may currently reply to.
+   * 
+   * @return A number of exports.
+   */
+  int getNumOfExports() {
+    return exports.size();
+  }
+
+  /**
+   * Delivers a received message to a local agent without blocking.
+   * 
+   * @return False if the message must be delivered again later because the
+   *         agent's mailbox is full, true if it was delivered or dropped.
+   */
+  boolean deliver(String name, int number, Object message) {
+    AbstractAgent agent = router.getAgent(name, number);
+    if (agent == null) {
+      if (LOGGER.isEnabledFor(Level.WARN)) {
+        LOGGER.warn("Dropped remote message for unknown agent " + name + "#"
+            + number);
+      }
+      return true;
+    }
+    return agent.offerMessage(message);
+  }
+
+  /**
+   * Delivers a received reply to an exported reference without blocking.
+   * 
+   * @return False if the reply must be delivered again later because the
+   *         mailbox of the referenced agent is full, true if it was
+   *         delivered or dropped.
+   */
+  boolean deliverReply(long id, Object message) {
+    AgentRef ref = exports.get(id);
+    if (ref == null) {
+      LOGGER.debug("Dropped reply to an expired reference");
+      return true;
+    }
+    try {
+      if (ref instanceof LocalAgentRef) {
+        if (!((LocalAgentRef) ref).offer(message)) {
+          return false;
+        }
+      } else {
+        ref.tell(message);
+      }
+    } catch (AgentException e) {
+      LOGGER.debug("Dropped reply", e);
+    }
+    if (!ref.isValid()) {
+      exports.remove(id);
+      exportIds.remove(ref, id);
+    }
+    return true;
+  }
+
+  private void runLoop() {
+    try {
+      while (isRunning()) {
+        if (paused.isEmpty()) {
+          selector.select();
+        } else {
+          selector.select(RETRY_DELAY);
+        }
+        registerChannels();
+        writeRequested();
+        resumePaused();
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (key.isValid()) {
+            handle(key);
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.error("Transport failed", e);
+    } finally {
+      close();
+    }
+  }
+
+  private void registerChannels() {
+    Runnable registration;
+    while ((registration = registrations.poll()) != null) {
+      registration.run();
+    }
+  }
+
+  private void resumePaused() {
+    Iterator<Connection> it = paused.iterator();
+    while (it.hasNext()) {
+      Connection connection = it.next();
+      try {
+        if (connection.isClosed() || connection.resume()) {
+          it.remove();
+        }
+      } catch (IOException e) {
+        it.remove();
+        fail(connection, e);
+      }
+    }
+  }
+
+  private void writeRequested() {
+    Connection connection;
+    while ((connection = writeRequests.poll()) != null) {
+      try {
+        connection.handleWrite();
+      } catch (IOException e) {
+        fail(connection, e);
+      }
+    }
+  }
+
+  private void handle(SelectionKey key) {
+    if (key.isAcceptable()) {
+      accept();
+      return;
+    }
+
+    Connection connection = (Connection) key.attachment();
+    try {
+      if (key.isConnectable()) {
+        connection.handleConnect();
+      }
+      if (key.isValid() && key.isReadable() && !connection.handleRead()) {
+        paused.add(connection);
+      }
+      if (key.isValid() && key.isWritable()) {
+        connection.handleWrite();
+      }
+    } catch (IOException e) {
+      fail(connection, e);
+    }
+  }
+
+  private void accept() {
+    try {
+      SocketChannel channel = server.accept();
+      if (channel == null) {
+        return;
+      }
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      Connection connection = new Connection(this, channel, null, true);
+      connection.setKey(channel.register(selector, SelectionKey.OP_READ,
+          connection));
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug("Accepted connection from " + connection);
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Could not accept connection", e);
+    }
+  }
+
+  private void fail(Connection connection, IOException e) {
+    if (!connection.isClosed()) {
+      LOGGER.warn("Closing connection to " + connection, e);
+      connection.close();
+    }
+  }
+
+  private void close() {
+    List<Connection> open = new ArrayList<Connection>();
+    for (SelectionKey key : selector.keys()) {
+      if (key.attachment() instanceof Connection) {
+        open.add((Connection) key.attachment());
+      }
+    }
+    for (Connection connection : open) {
+      try {
+        // Last attempt to write pending frames without waiting
+        connection.handleWrite();
+      } catch (IOException e) {
+        LOGGER.debug("Could not write pending frames", e);
+      }
+      connection.close();
+    }
+    try {
+      if (server != null) {
+        server.close();
+      }
+      selector.close();
+    } catch (IOException e) {
+      LOGGER.debug("Could not close transport", e);
+    }
+  }
+
+}
@@ -0,0 +1,38 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * A message that may be delivered before the messages already waiting in the
+ * mailbox of its recipient (see {@link AbstractAgent#submitMessage(Object)}).
+ */
+public interface UrgentMessage {
+
+  /**
+   * Tells if the message bypasses the mailbox of its recipient.
+   * 
+   * @return True if the message is urgent, false otherwise.
+   */
+  public abstract boolean isUrgent();
+
+}
@@ -0,0 +1,98 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Represents the ways a consumer (a scheduler worker or the thread of a
+ * {@link ThreadAgent}) waits for work when its queue is empty. Strategies
+ * other than {@link #BLOCKING} keep polling the queue, trading CPU time for a
+ * shorter hand-off: producers never have to wake the consumer up.
+ */
+public enum WaitStrategy {
+
+  /** The consumer blocks until woken up by a producer. */
+  BLOCKING {
+    @Override
+    boolean idle(int idleCount) {
+      return false;
+    }
+  },
+
+  /** The consumer polls its queue in a tight loop, using a whole CPU. */
+  BUSY_SPIN {
+    @Override
+    boolean idle(int idleCount) {
+      return true;
+    }
+  },
+
+  /** The consumer spins for a while, then yields between polls. */
+  YIELD {
+    @Override
+    boolean idle(int idleCount) {
+      if (idleCount >= SPIN_TRIES) {
+        Thread.yield();
+      }
+      return true;
+    }
+  },
+
+  /**
+   * The consumer spins, yields and then parks between polls, for periods
+   * doubling from 1 microsecond up to 1 millisecond.
+   */
+  PARK {
+    @Override
+    boolean idle(int idleCount) {
+      if (idleCount < SPIN_TRIES) {
+        return true;
+      } else if (idleCount < YIELD_TRIES) {
+        Thread.yield();
+      } else {
+        int shift = Math.min(idleCount - YIELD_TRIES, 20);
+        LockSupport.parkNanos(Math.min(1000L << shift, MAX_PARK_NANOS));
+      }
+      return true;
+    }
+  };
+
+  private static final int SPIN_TRIES = 100;
+
+  private static final int YIELD_TRIES = 200;
+
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /**
+   * Waits before a consumer polls its queue again.
+   * 
+   * @param idleCount
+   *          The number of polls in a row that found the queue empty.
+   * @return True if the consumer must poll again, false if it must block on
+   *         the queue instead.
+   */
+  abstract boolean idle(int idleCount);
+
+}
@@ -0,0 +1,58 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Queue of slots consumed by the workers of a {@link Scheduler}.
+ * <p>
+ * Slots are put into the work queue and taken through the view each worker
+ * gets (see {@link #newWorkerView()}), which allows implementations to keep
+ * per-worker state such as a local deque.
+ */
+public interface WorkQueue {
+
+  /**
+   * Returns the queue a newly created worker must take its slots from.
+   * 
+   * @return A view of this queue dedicated to a single worker.
+   */
+  public abstract WorkerQueue newWorkerView();
+
+  /**
+   * Inserts a slot into the queue.
+   * 
+   * @param slot
+   *          The slot to insert.
+   * @throws InterruptedException
+   *           If interrupted while waiting for space.
+   */
+  public abstract void put(Slot slot) throws InterruptedException;
+
+  /**
+   * Tells if no slot is waiting in the queue.
+   * 
+   * @return True if the queue is empty, false otherwise.
+   */
+  public abstract boolean isEmpty();
+
+}
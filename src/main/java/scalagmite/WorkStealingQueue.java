@@ -0,0 +1,357 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A work queue giving each worker its own deque.
+ * <p>
+ * Slots put by a worker thread go to that worker's deque, slots put by any
+ * other thread are spread over the workers' deques in a round-robin fashion.
+ * A worker takes slots from the head of its own deque and, when its deque is
+ * empty, steals slots from the tail of the other workers' deques. Workers that
+ * find no slot at all block until a new slot is put.
+ * <p>
+ * Slots with an affinity (see {@link SchedulableAgent#setPreferLastWorker})
+ * go to the deque of the worker which last took them, where they may still
+ * be stolen by idle workers. Slots restricted to a set of workers (see
+ * {@link SchedulableAgent#setWorkerAffinity(int...)}) go to a second,
+ * private queue of one of these workers and are never stolen.
+ * <p>
+ * A released view (see {@link WorkerQueue#release()}) keeps its deque, from which the
+ * other workers steal the remaining slots, and is handed to the next worker
+ * attached to the queue. Slots are never pinned to a released view.
+ */
+public class WorkStealingQueue implements WorkQueue {
+
+  /** The local queue of the worker running in current thread, if any. */
+  private final ThreadLocal<LocalQueue> current = new ThreadLocal<LocalQueue>();
+
+  private volatile LocalQueue[] locals = new LocalQueue[0];
+
+  private final AtomicInteger nextExternal = new AtomicInteger();
+
+  /** Workers that may be blocked, each at most once. */
+  private final Queue<LocalQueue> idleWorkers = new ConcurrentLinkedQueue<LocalQueue>();
+
+  @Override
+  public synchronized WorkerQueue newWorkerView() {
+    for (LocalQueue local : locals) {
+      if (local.released) {
+        local.released = false;
+        local.bound = false;
+        return local;
+      }
+    }
+
+    LocalQueue local = new LocalQueue(locals.length);
+    LocalQueue[] newLocals = Arrays.copyOf(locals, locals.length + 1);
+    newLocals[local.index] = local;
+    locals = newLocals;
+    return local;
+  }
+
+  /**
+   * Returns the number of workers attached to the queue.
+   * 
+   * @return A number of workers.
+   */
+  public int getNumOfWorkers() {
+    int count = 0;
+    for (LocalQueue local : locals) {
+      if (!local.released) {
+        ++count;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void put(Slot slot) throws InterruptedException {
+    LocalQueue[] all = locals;
+    if (all.length == 0) {
+      throw new IllegalStateException("No worker is attached to the queue");
+    }
+
+    int[] workers = slot.getWorkers();
+    if (workers != null) {
+      LocalQueue target = selectPinned(all, workers, slot.getLastWorker());
+      if (target != null) {
+        target.pinned.offer(slot);
+        target.wakeUp();
+        return;
+      }
+    }
+
+    LocalQueue local = null;
+    int last = slot.getLastWorker();
+    if (slot.isPreferLastWorker() && last >= 0 && last < all.length
+        && !all[last].released) {
+      local = all[last];
+    }
+    if (local == null) {
+      local = current.get();
+    }
+    if (local == null) {
+      int next = (nextExternal.getAndIncrement() & Integer.MAX_VALUE)
+          % all.length;
+      for (int i = 0; i < all.length; ++i) {
+        local = all[(next + i) % all.length];
+        if (!local.released) {
+          break;
+        }
+      }
+    }
+    local.deque.offerLast(slot);
+
+    // Preferred worker is woken up first, any other worker may steal the slot
+    if (!local.wakeUp()) {
+      wakeUpIdleWorker();
+    }
+  }
+
+  /**
+   * Selects the worker a slot restricted to a set of workers is given to:
+   * the worker which last took it if allowed, the allowed worker with the
+   * fewest pinned slots otherwise.
+   * 
+   * @return A worker or null if none of the allowed workers exists.
+   */
+  private LocalQueue selectPinned(LocalQueue[] all, int[] workers, int last) {
+    LocalQueue selected = null;
+    for (int index : workers) {
+      if (index >= all.length || all[index].released) {
+        continue;
+      }
+      LocalQueue candidate = all[index];
+      if (index == last) {
+        return candidate;
+      }
+      if (selected == null
+          || candidate.pinned.size() < selected.pinned.size()) {
+        selected = candidate;
+      }
+    }
+    return selected;
+  }
+
+  private void wakeUpIdleWorker() {
+    LocalQueue idle;
+    while ((idle = idleWorkers.poll()) != null) {
+      idle.queued.set(false);
+      if (idle.wakeUp()) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public boolean isEmpty() {
+    for (LocalQueue local : locals) {
+      if (!local.deque.isEmpty() || !local.pinned.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Takes a slot for a worker.
+   * 
+   * @param timeout
+   *          The maximum time to wait in nanoseconds, 0 to wait forever.
+   * @return A slot or null if the timeout elapsed.
+   */
+  private Slot take(LocalQueue self, long timeout)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + timeout;
+    while (true) {
+      Slot slot = poll(self);
+      if (slot != null) {
+        return slot;
+      }
+
+      // Register as idle before checking the queues again so that a
+      // concurrent put either sees this worker idle or is seen by the check.
+      self.idle.set(true);
+      if (self.queued.compareAndSet(false, true)) {
+        idleWorkers.add(self);
+      }
+      slot = poll(self);
+      if (slot != null) {
+        if (!self.idle.compareAndSet(true, false)) {
+          // Consume the permit of the concurrent wake-up
+          self.wakeUps.acquire();
+        }
+        return slot;
+      }
+
+      if (timeout <= 0) {
+        self.wakeUps.acquire();
+        continue;
+      }
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0
+          || !self.wakeUps.tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+        if (self.idle.compareAndSet(true, false)) {
+          return null;
+        }
+        // Consume the permit of the concurrent wake-up and look for its slot
+        self.wakeUps.acquire();
+      }
+    }
+  }
+
+  private Slot poll(LocalQueue self) {
+    Slot slot = self.pinned.poll();
+    if (slot == null) {
+      slot = self.deque.pollFirst();
+    }
+    if (slot == null) {
+      LocalQueue[] all = locals;
+      for (int i = 1; i < all.length && slot == null; ++i) {
+        LocalQueue victim = all[(self.index + i) % all.length];
+        slot = victim.deque.pollLast();
+      }
+    }
+    if (slot != null) {
+      slot.setLastWorker(self.index);
+    }
+    return slot;
+  }
+
+  private class LocalQueue implements WorkerQueue {
+
+    private final int index;
+
+    private final LinkedBlockingDeque<Slot> deque = new LinkedBlockingDeque<Slot>();
+
+    /** Slots only this worker may take. */
+    private final LinkedBlockingQueue<Slot> pinned = new LinkedBlockingQueue<Slot>();
+
+    /** True while the worker is, or is about to be, blocked. */
+    private final AtomicBoolean idle = new AtomicBoolean();
+
+    /** True if the worker is in the queue of idle workers. */
+    private final AtomicBoolean queued = new AtomicBoolean();
+
+    private final Semaphore wakeUps = new Semaphore(0);
+
+    private boolean bound;
+
+    /** True if no worker is attached to this view. */
+    private volatile boolean released;
+
+    private LocalQueue(int index) {
+      this.index = index;
+    }
+
+    /**
+     * Unblocks the worker if it is idle.
+     * 
+     * @return True if the worker was idle, false otherwise.
+     */
+    private boolean wakeUp() {
+      if (idle.get() && idle.compareAndSet(true, false)) {
+        wakeUps.release();
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public WorkerQueue newWorkerView() {
+      return WorkStealingQueue.this.newWorkerView();
+    }
+
+    @Override
+    public void put(Slot slot) throws InterruptedException {
+      WorkStealingQueue.this.put(slot);
+    }
+
+    /** Attaches the view to the thread of its worker. */
+    private void bind() {
+      if (!bound) {
+        current.set(this);
+        bound = true;
+      }
+    }
+
+    @Override
+    public Slot take() throws InterruptedException {
+      bind();
+      return WorkStealingQueue.this.take(this, 0);
+    }
+
+    @Override
+    public Slot poll() {
+      bind();
+      return WorkStealingQueue.this.poll(this);
+    }
+
+    @Override
+    public Slot poll(long timeout, TimeUnit unit) throws InterruptedException {
+      bind();
+      return WorkStealingQueue.this.take(this,
+          Math.max(1, unit.toNanos(timeout)));
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return WorkStealingQueue.this.isEmpty();
+    }
+
+    @Override
+    public void release() {
+      synchronized (WorkStealingQueue.this) {
+        released = true;
+      }
+      if (current.get() == this) {
+        current.remove();
+      }
+
+      // Slots left in the deque may only be stolen, make sure idle workers do
+      for (int i = deque.size(); i > 0; --i) {
+        wakeUpIdleWorker();
+      }
+      Slot slot;
+      while ((slot = pinned.poll()) != null) {
+        try {
+          WorkStealingQueue.this.put(slot);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+}
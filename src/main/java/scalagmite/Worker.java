@@ -22,16 +22,58 @@ package scalagmite;
  * #L%
  */
 
-import java.util.concurrent.BlockingQueue;
-
 public interface Worker extends Runnable {
 
   public abstract void join() throws InterruptedException;
 
-  public abstract void setQueue(BlockingQueue<Slot> workQueue);
+  public abstract void setQueue(WorkerQueue workQueue);
 
   public abstract void setScheduler(Scheduler scheduler);
 
+  public abstract void setThreadType(ThreadType threadType);
+
+  /**
+   * Sets how the worker waits for slots when the queue is empty.
+   * 
+   * @param waitStrategy
+   *          The wait strategy.
+   */
+  public abstract void setWaitStrategy(WaitStrategy waitStrategy);
+
+  /**
+   * Pins the thread of the worker to a CPU. Must be called before the worker
+   * is started.
+   * 
+   * @param cpu
+   *          The CPU number.
+   */
+  public abstract void setCpu(int cpu);
+
+  /**
+   * Sets the metrics updated by the worker.
+   * 
+   * @param metrics
+   *          The metrics or null if metrics are disabled.
+   */
+  public abstract void setMetrics(WorkerMetrics metrics);
+
+  /**
+   * Sets how long the worker waits for a slot before asking the scheduler to
+   * retire it.
+   * 
+   * @param keepAlive
+   *          A duration in milliseconds, 0 if the worker never retires.
+   */
+  public abstract void setKeepAlive(long keepAlive);
+
+  /**
+   * Returns the time at which the worker started handling its current slot.
+   * Only maintained by the workers of an adaptive scheduler.
+   * 
+   * @return A value of {@link System#nanoTime()} or 0 if the worker is idle.
+   */
+  public abstract long getBusySince();
+
   public abstract void start();
 
 }
\ No newline at end of file
@@ -22,51 +22,150 @@ package scalagmite;
  * #L%
  */
 
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
 public class WorkerImpl implements Worker {
 
+  private static final Logger LOGGER = Logger.getLogger(WorkerImpl.class);
+
+  /** Set in threads running a worker. */
+  private static final ThreadLocal<Boolean> WORKER_THREAD = new ThreadLocal<Boolean>();
+
   private Scheduler scheduler;
 
-  private BlockingQueue<Slot> queue;
+  private WorkerQueue queue;
 
   private Thread thread;
 
+  private ThreadType threadType = ThreadType.PLATFORM;
+
+  private WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+
+  private WorkerMetrics metrics;
+
+  /** The CPU the worker is pinned to, -1 if none. */
+  private int cpu = -1;
+
+  private long keepAlive;
+
+  private volatile long busySince;
+
   WorkerImpl() {
   }
 
   @Override
   public void join() throws InterruptedException {
-    if (thread != null) {
+    if (thread == null) {
       throw new RuntimeException("Worker has not yet been started");
     }
     thread.join();
   }
 
+  /**
+   * Tells if current thread is running a worker.
+   * 
+   * @return True if current thread is a worker thread, false otherwise.
+   */
+  static boolean isWorkerThread() {
+    return WORKER_THREAD.get() != null;
+  }
+
   @Override
   public void run() {
+    WORKER_THREAD.set(Boolean.TRUE);
+    if (cpu >= 0) {
+      if (ThreadType.VIRTUAL.equals(threadType)) {
+        LOGGER.warn("Virtual worker threads cannot be pinned to a CPU");
+      } else {
+        CpuAffinity.pinCurrentThread(cpu);
+      }
+    }
+    boolean adaptive = scheduler != null && scheduler.isAdaptive();
+    long idleStart = metrics != null ? System.nanoTime() : 0;
     while (true) {
       Slot slot;
       try {
-        slot = queue.take();
+        slot = nextSlot();
       } catch (InterruptedException e) {
         return;
       }
 
+      if (slot == null) {
+        if (scheduler.retire(this, queue)) {
+          LOGGER.debug("Retiring idle worker");
+          return;
+        }
+        continue;
+      }
+
+      long busyStart = 0;
+      if (metrics != null || adaptive) {
+        busyStart = System.nanoTime();
+      }
+      if (metrics != null) {
+        metrics.idle(busyStart - idleStart);
+      }
+
       if (slot.getAgent() == null) {
-        Logger.getLogger(getClass()).debug("Closing worker");
+        LOGGER.debug("Closing worker");
         return;
       }
 
-      Logger.getLogger(getClass()).trace("Handling slot");
+      if (adaptive) {
+        busySince = busyStart;
+        scheduler.slotTaken(slot, busyStart);
+      }
+
+      if (LOGGER.isTraceEnabled()) {
+        LOGGER.trace("Handling slot of agent " + slot.getAgent().getName());
+      }
       try {
-        slot.getAgent().consumeMessage();
+        slot.getAgent().runScheduled();
       } catch (Exception e) {
         scheduler.signalError(this, e);
         return;
       }
+      if (adaptive) {
+        busySince = 0;
+      }
+
+      if (metrics != null) {
+        idleStart = System.nanoTime();
+        metrics.busy(idleStart - busyStart);
+      }
+    }
+  }
+
+  /**
+   * Waits for a slot as specified by the wait strategy.
+   * 
+   * @return A slot or null if the worker stayed idle for the keep-alive
+   *         duration.
+   */
+  private Slot nextSlot() throws InterruptedException {
+    long deadline = keepAlive > 0 ? System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(keepAlive) : 0;
+    int idleCount = 0;
+    while (true) {
+      Slot slot = queue.poll();
+      if (slot != null) {
+        return slot;
+      }
+
+      if (!waitStrategy.idle(idleCount++)) {
+        if (deadline == 0) {
+          return queue.take();
+        }
+        return queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+        return null;
+      }
     }
   }
 
@@ -76,17 +175,47 @@ public class WorkerImpl implements Worker {
   }
 
   @Override
-  public void setQueue(BlockingQueue<Slot> workQueue) {
+  public void setQueue(WorkerQueue workQueue) {
     this.queue = workQueue;
   }
 
+  @Override
+  public void setThreadType(ThreadType threadType) {
+    this.threadType = threadType;
+  }
+
+  @Override
+  public void setWaitStrategy(WaitStrategy waitStrategy) {
+    this.waitStrategy = waitStrategy;
+  }
+
+  @Override
+  public void setCpu(int cpu) {
+    this.cpu = cpu;
+  }
+
+  @Override
+  public void setMetrics(WorkerMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void setKeepAlive(long keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+  @Override
+  public long getBusySince() {
+    return busySince;
+  }
+
   @Override
   public void start() {
     if (thread != null) {
       throw new RuntimeException("Worker has already been started");
     }
 
-    thread = new Thread(null, this, "Worker");
+    thread = threadType.newThread(this, "Worker");
     thread.start();
   }
 
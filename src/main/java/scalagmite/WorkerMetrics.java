@@ -0,0 +1,70 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Instrumentation of a scheduler worker. Times are given in nanoseconds.
+ * Values are only updated by the thread of the worker.
+ */
+public class WorkerMetrics implements WorkerMetricsMBean {
+
+  private final AtomicLong runSlots = new AtomicLong();
+
+  private final AtomicLong busyTime = new AtomicLong();
+
+  private final AtomicLong idleTime = new AtomicLong();
+
+  void idle(long duration) {
+    idleTime.lazySet(idleTime.get() + duration);
+  }
+
+  void busy(long duration) {
+    runSlots.lazySet(runSlots.get() + 1);
+    busyTime.lazySet(busyTime.get() + duration);
+  }
+
+  @Override
+  public long getRunSlots() {
+    return runSlots.get();
+  }
+
+  @Override
+  public long getBusyTime() {
+    return busyTime.get();
+  }
+
+  @Override
+  public long getIdleTime() {
+    return idleTime.get();
+  }
+
+  @Override
+  public double getBusyRatio() {
+    long busy = busyTime.get();
+    long total = busy + idleTime.get();
+    return total == 0 ? 0 : (double) busy / total;
+  }
+
+}
@@ -0,0 +1,42 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Management interface of {@link WorkerMetrics}.
+ */
+public interface WorkerMetricsMBean {
+
+  public abstract long getRunSlots();
+
+  public abstract long getBusyTime();
+
+  public abstract long getIdleTime();
+
+  /**
+   * Returns the fraction of time spent running agents rather than waiting
+   * for an agent to run.
+   */
+  public abstract double getBusyRatio();
+
+}
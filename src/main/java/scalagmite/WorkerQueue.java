@@ -0,0 +1,72 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The view of a {@link WorkQueue} a single worker takes its slots from.
+ * <p>
+ * Slots are put into the shared queue, only workers consume them.
+ */
+public interface WorkerQueue extends WorkQueue {
+
+  /**
+   * Retrieves and removes a slot, waiting if necessary until one becomes
+   * available.
+   * 
+   * @return The next slot to handle.
+   * @throws InterruptedException
+   *           If interrupted while waiting.
+   */
+  public abstract Slot take() throws InterruptedException;
+
+  /**
+   * Retrieves and removes a slot if one is immediately available.
+   * 
+   * @return The next slot to handle or null if the queue is empty.
+   */
+  public abstract Slot poll();
+
+  /**
+   * Retrieves and removes a slot, waiting up to the specified time if
+   * necessary until one becomes available.
+   * 
+   * @param timeout
+   *          The maximum time to wait.
+   * @param unit
+   *          The unit of timeout.
+   * @return The next slot to handle or null if no slot became available.
+   * @throws InterruptedException
+   *           If interrupted while waiting.
+   */
+  public abstract Slot poll(long timeout, TimeUnit unit)
+      throws InterruptedException;
+
+  /**
+   * Detaches the worker of this view from the queue. Slots left in the view
+   * are handed over to the remaining workers.
+   */
+  public abstract void release();
+
+}
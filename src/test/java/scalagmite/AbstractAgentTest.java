@@ -23,10 +23,12 @@ package scalagmite;
  */
 
 import org.hamcrest.core.Is;
+import org.hamcrest.core.IsInstanceOf;
 import org.hamcrest.core.IsNull;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 
 import scalagmite.AbstractAgent.AgentStatus;
@@ -76,6 +78,52 @@ public class AbstractAgentTest {
     Assert.assertThat(agent.getError(), IsNull.nullValue());
   }
 
+  @Test
+  public void consumeBatch() throws Exception {
+    MessageHandler<Integer> handler = Mockito.mock(MessageHandler.class);
+    agent.registerHandler(Integer.class, handler);
+
+    for (int i = 0; i < 5; ++i) {
+      agent.submitMessage(i);
+    }
+
+    Assert.assertThat(agent.consumeMessages(3), Is.is(3));
+    Mockito.verify(handler, Mockito.times(3)).handle(Mockito.anyInt());
+    Assert.assertThat(agent.consumeMessages(3), Is.is(2));
+    Mockito.verify(handler, Mockito.times(5)).handle(Mockito.anyInt());
+  }
+
+  @Test
+  public void consumeSubclass() throws Exception {
+    MessageHandler<Number> numberHandler = Mockito.mock(MessageHandler.class);
+    MessageHandler<Integer> integerHandler = Mockito.mock(MessageHandler.class);
+    MessageHandler<CharSequence> charSeqHandler = Mockito
+        .mock(MessageHandler.class);
+    agent.registerHandler(Number.class, numberHandler);
+    agent.registerHandler(Integer.class, integerHandler);
+    agent.registerHandler(CharSequence.class, charSeqHandler);
+
+    agent.submitMessage(3L);
+    agent.submitMessage(3);
+    agent.submitMessage("text");
+    agent.submitMessage(4L);
+    agent.consumeMessages(4);
+
+    Mockito.verify(numberHandler).handle(3L);
+    Mockito.verify(numberHandler).handle(4L);
+    Mockito.verify(integerHandler).handle(3);
+    Mockito.verify(charSeqHandler).handle("text");
+    Assert.assertThat(agent.getError(), IsNull.nullValue());
+  }
+
+  @Test
+  public void consumeUnknown() throws Exception {
+    agent.submitMessage(3);
+    agent.consumeMessage();
+    Assert.assertThat(agent.getError(),
+        IsInstanceOf.instanceOf(UnknownAgentMessage.class));
+  }
+
   @Test
   public void consumeError() throws AgentException, InterruptedException,
       RouterException {
@@ -120,4 +168,49 @@ public class AbstractAgentTest {
     agent.stop();
     Mockito.verify(router).signalAgentStop(agent);
   }
+
+  @Test
+  public void urgentMessagesBypassMailbox() throws Exception {
+    MessageHandler<Integer> intHandler = Mockito.mock(MessageHandler.class);
+    MessageHandler<Object> urgentHandler = Mockito.mock(MessageHandler.class);
+    agent.registerHandler(Integer.class, intHandler);
+    agent.registerHandler(String.class, urgentHandler);
+    agent.registerHandler(UrgentMessage.class, urgentHandler);
+    agent.registerUrgentType(String.class);
+
+    UrgentMessage notUrgent = Mockito.mock(UrgentMessage.class);
+    UrgentMessage urgent = Mockito.mock(UrgentMessage.class);
+    Mockito.when(urgent.isUrgent()).thenReturn(true);
+
+    agent.submitMessage(1);
+    agent.submitMessage(notUrgent);
+    agent.submitMessage("urgent");
+    agent.submitMessage(urgent);
+    Assert.assertThat(agent.getMailboxSize(), Is.is(2));
+    agent.consumeMessages(10);
+    agent.consumeMessages(10);
+
+    InOrder inOrder = Mockito.inOrder(intHandler, urgentHandler);
+    inOrder.verify(urgentHandler).handle("urgent");
+    inOrder.verify(urgentHandler).handle(urgent);
+    inOrder.verify(intHandler).handle(1);
+    inOrder.verify(urgentHandler).handle(notUrgent);
+  }
+
+  @Test
+  public void stopDiscardsPendingMessages() throws Exception {
+    MessageHandler<Integer> handler = Mockito.mock(MessageHandler.class);
+    agent.registerHandler(Integer.class, handler);
+    agent.setup();
+    agent.start();
+    for (int i = 0; i < 1000; ++i) {
+      agent.submitMessage(i);
+    }
+
+    agent.stop();
+    agent.consumeMessages(10);
+    Assert.assertThat(agent.getStatus(), Is.is(AgentStatus.STOPPED));
+    Assert.assertThat(agent.getMailboxSize(), Is.is(0));
+    Mockito.verify(handler, Mockito.never()).handle(Mockito.anyInt());
+  }
 }
@@ -0,0 +1,108 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsInstanceOf;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class AskTest {
+
+  private Router router;
+
+  private AbstractAgent agent;
+
+  @Before
+  public void before() throws Exception {
+    router = new Router(Mockito.mock(ErrorHandler.class));
+
+    agent = new ThreadAgent("doubler") {
+    };
+    agent.registerHandler(Integer.class, new MessageHandler<Integer>() {
+      @Override
+      public void handle(Integer message) throws Exception {
+        agent.reply(2 * message);
+      }
+    });
+    agent.registerHandler(String.class, new MessageHandler<String>() {
+      @Override
+      public void handle(String message) throws Exception {
+        // Never replies
+      }
+    });
+    agent.setup();
+    router.registerAgent(agent);
+    agent.start();
+  }
+
+  @After
+  public void after() throws Exception {
+    agent.stop();
+    agent.join();
+    router.getTimer().stop();
+  }
+
+  @Test(timeout = 5000)
+  public void reply() throws Exception {
+    CompletableFuture<Object> future = router.ask("doubler", 21, 1000);
+    Assert.assertThat(future.get(), Is.is((Object) 42));
+  }
+
+  @Test(timeout = 5000)
+  public void replyThroughRef() throws Exception {
+    AgentRef ref = router.getAgentRef("doubler", 0);
+    CompletableFuture<Object> first = router.ask(ref, 1, 1000);
+    CompletableFuture<Object> second = router.ask(ref, 2, 1000);
+    Assert.assertThat(first.get(), Is.is((Object) 2));
+    Assert.assertThat(second.get(), Is.is((Object) 4));
+  }
+
+  @Test(timeout = 5000)
+  public void timeout() throws Exception {
+    CompletableFuture<Object> future = router.ask("doubler", 0, "no reply",
+        50);
+    try {
+      future.get(2, TimeUnit.SECONDS);
+      Assert.fail();
+    } catch (ExecutionException e) {
+      Assert.assertThat(e.getCause(),
+          IsInstanceOf.instanceOf(TimeoutException.class));
+    }
+  }
+
+  @Test
+  public void unknownAgent() throws Exception {
+    CompletableFuture<Object> future = router.ask("unknown", 1, 1000);
+    Assert.assertThat(future.isCompletedExceptionally(), Is.is(true));
+  }
+
+}
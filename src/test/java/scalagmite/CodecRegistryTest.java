@@ -0,0 +1,250 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsInstanceOf;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import scalagmite.events.StopAgent;
+
+public class CodecRegistryTest {
+
+  private enum Color {
+    RED, GREEN
+  }
+
+  private static class Point {
+    private final int x;
+
+    private final double y;
+
+    Point(int x, double y) {
+      this.x = x;
+      this.y = y;
+    }
+
+    @SuppressWarnings("unused")
+    private Point() {
+      this(0, 0);
+    }
+  }
+
+  private static class Shape {
+    String name;
+
+    Color color;
+
+    Point origin;
+
+    Object label;
+
+    boolean filled;
+
+    transient int cached = 7;
+  }
+
+  private static class Node {
+    Node next;
+  }
+
+  private static class NoDefaultConstructor {
+    @SuppressWarnings("unused")
+    NoDefaultConstructor(int value) {
+    }
+  }
+
+  private CodecRegistry codecs;
+
+  @Before
+  public void before() {
+    codecs = new CodecRegistry();
+  }
+
+  private Object roundTrip(Object message) throws IOException {
+    ByteBuffer buffer = codecs.encode(message);
+    try {
+      Object read = codecs.read(buffer);
+      Assert.assertFalse(buffer.hasRemaining());
+      return read;
+    } finally {
+      codecs.release(buffer);
+    }
+  }
+
+  @Test
+  public void commonTypes() throws IOException {
+    Object[] messages = { "héllo", 42, 42L, 4.2, 4.2f, (short) 4, (byte) 2,
+        true, 'c', null };
+    for (Object message : messages) {
+      Assert.assertThat(roundTrip(message), Is.is(message));
+    }
+    Assert.assertArrayEquals(new byte[] { 1, 2, 3 },
+        (byte[]) roundTrip(new byte[] { 1, 2, 3 }));
+    Assert.assertThat(((StopAgent) roundTrip(new StopAgent("done")))
+        .getCause(), Is.is("done"));
+  }
+
+  @Test
+  public void registeredCodecIsUsed() throws IOException {
+    final AtomicInteger calls = new AtomicInteger();
+    codecs.register(1, Point.class, new Codec<Point>() {
+      public void write(Point message, ByteBuffer buffer) {
+        calls.incrementAndGet();
+        buffer.putInt(message.x);
+        buffer.putDouble(message.y);
+      }
+
+      public Point read(ByteBuffer buffer) {
+        calls.incrementAndGet();
+        return new Point(buffer.getInt(), buffer.getDouble());
+      }
+    });
+
+    Point point = (Point) roundTrip(new Point(3, 0.5));
+    Assert.assertThat(point.x, Is.is(3));
+    Assert.assertThat(point.y, Is.is(0.5));
+    Assert.assertThat(calls.get(), Is.is(2));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test(expected = IllegalArgumentException.class)
+  public void idIsUnique() {
+    Codec<Point> codec = Mockito.mock(Codec.class);
+    codecs.register(1, Point.class, codec);
+    codecs.register(1, Shape.class, Mockito.mock(Codec.class));
+  }
+
+  @Test
+  public void reflectiveCodec() throws IOException {
+    codecs.register(1, Shape.class);
+    codecs.register(2, Point.class);
+    codecs.register(3, Color.class);
+    Shape shape = new Shape();
+    shape.name = "square";
+    shape.color = Color.GREEN;
+    shape.origin = new Point(1, 2.5);
+    shape.label = 12L;
+    shape.filled = true;
+    shape.cached = 3;
+
+    Shape read = (Shape) roundTrip(shape);
+    Assert.assertThat(read.name, Is.is("square"));
+    Assert.assertThat(read.color, Is.is(Color.GREEN));
+    Assert.assertThat(read.origin.x, Is.is(1));
+    Assert.assertThat(read.origin.y, Is.is(2.5));
+    Assert.assertThat(read.label, Is.is((Object) 12L));
+    Assert.assertTrue(read.filled);
+    Assert.assertThat(read.cached, Is.is(7));
+  }
+
+  @Test
+  public void unsupportedTypesAreRejected() {
+    Object[] messages = { new Object(), new ArrayList<String>(),
+        new NoDefaultConstructor(1), new int[1], new Point(1, 2) };
+    for (Object message : messages) {
+      try {
+        codecs.encode(message);
+        Assert.fail("Encoded " + message.getClass());
+      } catch (IOException e) {
+        // Expected
+      }
+    }
+
+    Class<?>[] types = { Object.class, ArrayList.class,
+        NoDefaultConstructor.class, int[].class };
+    for (Class<?> type : types) {
+      try {
+        codecs.register(1, type);
+        Assert.fail("Registered " + type);
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void unregisteredIdIsRejected() throws IOException {
+    CodecRegistry sender = new CodecRegistry();
+    sender.register(1, Point.class);
+    ByteBuffer buffer = sender.encode(new Point(1, 2));
+    codecs.read(buffer);
+  }
+
+  @Test
+  public void cyclesAreRejected() throws IOException {
+    codecs.register(1, Node.class);
+    Node first = new Node();
+    first.next = new Node();
+    Assert.assertThat(roundTrip(first), IsInstanceOf.instanceOf(Node.class));
+
+    first.next.next = first;
+    try {
+      codecs.encode(first);
+      Assert.fail("Encoded a cycle");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void invalidLengthsAreRejected() {
+    int[] lengths = { -2, Integer.MAX_VALUE, 5 };
+    for (int length : lengths) {
+      ByteBuffer buffer = ByteBuffer.allocate(10);
+      buffer.putShort((short) -11).putInt(length).put(new byte[] { 1, 2 });
+      buffer.flip();
+      try {
+        codecs.read(buffer);
+        Assert.fail("Read a byte array of length " + length);
+      } catch (IOException e) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void largeMessagesGrowBuffer() throws IOException {
+    byte[] large = new byte[100000];
+    large[large.length - 1] = 1;
+    Assert.assertArrayEquals(large, (byte[]) roundTrip(large));
+  }
+
+  @Test
+  public void buffersAreReused() throws IOException {
+    ByteBuffer first = codecs.encode("a");
+    codecs.release(first);
+    ByteBuffer second = codecs.encode("b");
+    Assert.assertSame(first, second);
+    Assert.assertTrue(second.isDirect());
+  }
+}
@@ -0,0 +1,212 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+public class DurableMailboxTest {
+
+  private static final int SEGMENT_SIZE = 256;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final CodecRegistry codecs = new CodecRegistry();
+
+  private DurableMailbox open(int maxSegments, boolean sync)
+      throws IOException {
+    return new DurableMailbox(folder.getRoot(), codecs, SEGMENT_SIZE,
+        maxSegments, sync);
+  }
+
+  private Object take(DurableMailbox mailbox, boolean acknowledge) {
+    DurableMailbox.LoggedMessage logged = (DurableMailbox.LoggedMessage) mailbox
+        .poll();
+    if (acknowledge) {
+      mailbox.acknowledge(logged);
+    }
+    return logged.getMessage();
+  }
+
+  @Test
+  public void unacknowledgedMessagesAreReplayed() throws IOException {
+    DurableMailbox mailbox = open(0, false);
+    for (int i = 0; i < 3; ++i) {
+      Assert.assertTrue(mailbox.offer(i));
+    }
+    Assert.assertThat(take(mailbox, true), Is.is((Object) 0));
+    Assert.assertThat(take(mailbox, false), Is.is((Object) 1));
+    // Not closed, as if the JVM died
+
+    DurableMailbox reopened = open(0, false);
+    Assert.assertThat(reopened.size(), Is.is(2));
+    Assert.assertThat(take(reopened, true), Is.is((Object) 1));
+    Assert.assertThat(take(reopened, true), Is.is((Object) 2));
+    reopened.close();
+
+    Assert.assertTrue(open(0, false).isEmpty());
+  }
+
+  @Test
+  public void segmentsRollAndAreReclaimed() throws IOException {
+    DurableMailbox mailbox = open(0, false);
+    for (int i = 0; i < 100; ++i) {
+      mailbox.offer("message " + i);
+    }
+    Assert.assertTrue(mailbox.getNumOfSegments() > 1);
+
+    for (int i = 0; i < 100; ++i) {
+      Assert.assertThat(take(mailbox, true), Is.is((Object) ("message " + i)));
+    }
+    Assert.assertThat(mailbox.getNumOfSegments(), Is.is(1));
+    Assert.assertThat(folder.getRoot().list().length, Is.is(2));
+    mailbox.close();
+
+    DurableMailbox reopened = open(0, false);
+    Assert.assertTrue(reopened.isEmpty());
+    reopened.offer("next");
+    Assert.assertThat(take(reopened, true), Is.is((Object) "next"));
+    reopened.close();
+  }
+
+  @Test
+  public void fullLogRejectsMessages() throws IOException {
+    DurableMailbox mailbox = open(2, false);
+    int accepted = 0;
+    while (mailbox.offer(accepted)) {
+      ++accepted;
+    }
+    Assert.assertThat(mailbox.getNumOfSegments(), Is.is(2));
+
+    take(mailbox, true);
+    Assert.assertFalse(mailbox.offer(-1));
+    while (!mailbox.isEmpty()) {
+      take(mailbox, true);
+    }
+    Assert.assertTrue(mailbox.offer(-1));
+    mailbox.close();
+  }
+
+  @Test
+  public void unsupportedMessagesAreRefused() throws IOException {
+    DurableMailbox mailbox = open(0, false);
+    Assert.assertFalse(mailbox.offer(new Object()));
+    Assert.assertFalse(mailbox.offer(new byte[8192]));
+    Assert.assertTrue(mailbox.isEmpty());
+    mailbox.close();
+    Assert.assertFalse(mailbox.offer(1));
+  }
+
+  @Test
+  public void concurrentProducersShareForces() throws Exception {
+    final DurableMailbox mailbox = new DurableMailbox(folder.getRoot(),
+        codecs, 4096, 0, true);
+    Thread[] producers = new Thread[4];
+    for (int i = 0; i < producers.length; ++i) {
+      final int producer = i;
+      producers[i] = new Thread(new Runnable() {
+        public void run() {
+          for (int j = 0; j < 200; ++j) {
+            mailbox.offer(producer * 1000 + j);
+          }
+        }
+      });
+      producers[i].start();
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+    mailbox.close();
+
+    DurableMailbox reopened = new DurableMailbox(folder.getRoot(), codecs,
+        4096, 0, true);
+    List<Object> messages = new ArrayList<Object>();
+    while (!reopened.isEmpty()) {
+      messages.add(take(reopened, true));
+    }
+    Assert.assertThat(messages.size(), Is.is(800));
+    int[] next = new int[producers.length];
+    for (Object message : messages) {
+      int value = (Integer) message;
+      Assert.assertThat(value % 1000, Is.is(next[value / 1000]++));
+    }
+    reopened.close();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void agentHandlesReplayedMessages() throws Exception {
+    File directory = folder.getRoot();
+    MessageHandler<Integer> handler = Mockito.mock(MessageHandler.class);
+    AbstractAgent agent = newAgent(new DurableMailbox(directory, codecs),
+        handler);
+    for (int i = 0; i < 5; ++i) {
+      agent.submitMessage(i);
+    }
+    agent.consumeMessages(2);
+    Mockito.verify(handler).handle(1);
+
+    MessageHandler<Integer> restarted = Mockito.mock(MessageHandler.class);
+    agent = newAgent(new DurableMailbox(directory, codecs), restarted);
+    Assert.assertThat(agent.getMailboxSize(), Is.is(3));
+    agent.consumeMessages(10);
+    Mockito.verify(restarted, Mockito.never()).handle(1);
+    Mockito.verify(restarted).handle(2);
+    Mockito.verify(restarted).handle(4);
+  }
+
+  private AbstractAgent newAgent(Mailbox mailbox,
+      MessageHandler<Integer> handler) throws AgentException {
+    AbstractAgent agent = new AbstractAgent("durable", mailbox) {
+      @Override
+      public void join() throws InterruptedException {
+      }
+
+      @Override
+      public void join(long millis) throws InterruptedException {
+      }
+
+      @Override
+      protected void onStart() {
+      }
+
+      @Override
+      protected void onStop() {
+      }
+    };
+    agent.setRouter(Mockito.mock(Router.class));
+    agent.registerHandler(Integer.class, handler);
+    return agent;
+  }
+}
@@ -0,0 +1,190 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hamcrest.core.Is;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class HashedWheelTimerTest {
+
+  private HashedWheelTimer timer;
+
+  @Before
+  public void before() {
+    timer = new HashedWheelTimer(5, 8);
+  }
+
+  @After
+  public void after() throws InterruptedException {
+    timer.stop();
+  }
+
+  @Test(timeout = 5000)
+  public void oneShot() throws InterruptedException {
+    final CountDownLatch run = new CountDownLatch(1);
+    long start = System.nanoTime();
+    Timeout timeout = timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        run.countDown();
+      }
+    }, 100);
+
+    run.await();
+    Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS
+        .toNanos(100));
+    // Delay spans several rounds of the wheel
+    Assert.assertThat(timeout.isExpired(), Is.is(true));
+    Assert.assertThat(timeout.cancel(), Is.is(false));
+    Assert.assertThat(timer.getPendingTimeouts(), Is.is(0L));
+  }
+
+  @Test
+  public void cancel() throws InterruptedException {
+    final AtomicInteger runs = new AtomicInteger();
+    Timeout timeout = timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        runs.incrementAndGet();
+      }
+    }, 20);
+
+    Assert.assertThat(timeout.cancel(), Is.is(true));
+    Thread.sleep(60);
+    Assert.assertThat(runs.get(), Is.is(0));
+    Assert.assertThat(timeout.isCancelled(), Is.is(true));
+  }
+
+  @Test(timeout = 5000)
+  public void periodic() throws InterruptedException {
+    final CountDownLatch runs = new CountDownLatch(5);
+    Timeout timeout = timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        runs.countDown();
+      }
+    }, 0, 10);
+
+    runs.await();
+    Assert.assertThat(timeout.isExpired(), Is.is(false));
+    Assert.assertThat(timeout.cancel(), Is.is(true));
+  }
+
+  @Test(timeout = 5000)
+  public void periodOfOneRound() throws InterruptedException {
+    // The task goes back into the bucket being expired
+    final long period = 5 * 8;
+    final int n = 5;
+    final long[] runs = new long[n];
+    final CountDownLatch done = new CountDownLatch(n);
+    Timeout timeout = timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (done.getCount() > 0) {
+          runs[(int) (n - done.getCount())] = System.nanoTime();
+          done.countDown();
+        }
+      }
+    }, period, period);
+
+    done.await();
+    timeout.cancel();
+    // A run one round late would follow the previous one after two periods
+    for (int i = 1; i < n; ++i) {
+      Assert.assertTrue(runs[i] - runs[i - 1] < TimeUnit.MILLISECONDS
+          .toNanos(period * 7 / 4));
+    }
+  }
+
+  @Test(timeout = 1000)
+  public void periodShorterThanTick() throws InterruptedException {
+    timer.stop();
+    // A round of the wheel lasts more than the timeout of the test
+    timer = new HashedWheelTimer(5, 512);
+    final CountDownLatch runs = new CountDownLatch(5);
+    timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        runs.countDown();
+      }
+    }, 1, 1);
+
+    runs.await();
+  }
+
+  @Test(timeout = 10000)
+  public void manyTimeouts() throws InterruptedException {
+    int n = 200000;
+    final CountDownLatch done = new CountDownLatch(n);
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    };
+    for (int i = 0; i < n; ++i) {
+      Timeout timeout = timer.schedule(task, i % 50);
+      // A timeout may expire before being cancelled
+      if (i % 2 == 1 && timeout.cancel()) {
+        done.countDown();
+      }
+    }
+
+    done.await();
+    Assert.assertThat(timer.getPendingTimeouts(), Is.is(0L));
+  }
+
+  @Test(timeout = 5000)
+  public void scheduleMessage() throws Exception {
+    Router router = new Router(Mockito.mock(ErrorHandler.class));
+    router.setTimer(timer);
+
+    final CountDownLatch received = new CountDownLatch(3);
+    AbstractAgent agent = new ThreadAgent("ticker") {
+    };
+    agent.registerHandler(String.class, new MessageHandler<String>() {
+      @Override
+      public void handle(String message) throws Exception {
+        received.countDown();
+      }
+    });
+    agent.setup();
+    router.registerAgent(agent);
+    agent.start();
+
+    Timeout timeout = agent.scheduleMessage("ticker", 0, "tick", 10, 10);
+    received.await();
+    timeout.cancel();
+    agent.stop();
+    agent.join();
+  }
+
+}
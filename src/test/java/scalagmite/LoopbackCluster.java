@@ -0,0 +1,107 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Several nodes running in the same JVM and communicating over loopback
+ * connections.
+ */
+public class LoopbackCluster {
+
+  private static final String HOST = "127.0.0.1";
+
+  private final Scalagmite[] nodes;
+
+  private final int[] ports;
+
+  public LoopbackCluster(int size) throws ScalagmiteException {
+    nodes = new Scalagmite[size];
+    ports = new int[size];
+    for (int i = 0; i < size; ++i) {
+      nodes[i] = new Scalagmite();
+      ports[i] = nodes[i].listen(HOST, 0);
+    }
+  }
+
+  public Scalagmite getNode(int index) {
+    return nodes[index];
+  }
+
+  public int getPort(int index) {
+    return ports[index];
+  }
+
+  /**
+   * Registers on a node the proxies of agents living on another node.
+   */
+  public void registerRemote(int from, int to, String name,
+      int numberOfInstances) throws ScalagmiteException {
+    nodes[from].registerRemote(name, numberOfInstances, HOST, ports[to]);
+  }
+
+  /**
+   * Runs all nodes until their agents are stopped.
+   * 
+   * @param timeout
+   *          The maximum time to wait for each node, in milliseconds.
+   * @throws Exception
+   *           The first error raised by a node.
+   * @throws AssertionError
+   *           If a node is still running after the timeout.
+   */
+  public void runAll(long timeout) throws Exception {
+    final List<Exception> errors = new ArrayList<Exception>();
+    Thread[] threads = new Thread[nodes.length];
+    for (int i = 0; i < nodes.length; ++i) {
+      final Scalagmite node = nodes[i];
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            node.main();
+          } catch (Exception e) {
+            synchronized (errors) {
+              errors.add(e);
+            }
+          }
+        }
+      }, "Node " + i);
+      threads[i].start();
+    }
+
+    for (int i = 0; i < threads.length; ++i) {
+      threads[i].join(timeout);
+      if (threads[i].isAlive()) {
+        throw new AssertionError("Node " + i + " is still running");
+      }
+    }
+    synchronized (errors) {
+      if (!errors.isEmpty()) {
+        throw errors.get(0);
+      }
+    }
+  }
+}
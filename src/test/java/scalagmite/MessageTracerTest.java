@@ -0,0 +1,125 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.hamcrest.core.Is;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class MessageTracerTest {
+
+  private final List<String> lines = new ArrayList<String>();
+
+  private AppenderSkeleton appender;
+
+  private AbstractAgent agent;
+
+  @Before
+  public void before() throws Exception {
+    appender = new AppenderSkeleton() {
+      @Override
+      protected void append(LoggingEvent event) {
+        synchronized (lines) {
+          lines.add(event.getRenderedMessage());
+        }
+      }
+
+      @Override
+      public boolean requiresLayout() {
+        return false;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    Logger.getLogger("scalagmite.trace").addAppender(appender);
+    Logger.getLogger("scalagmite.trace").setLevel(Level.INFO);
+
+    agent = new AbstractAgent("traced") {
+      @Override
+      public void join() throws InterruptedException {
+      }
+
+      @Override
+      public void join(long millis) throws InterruptedException {
+      }
+
+      @Override
+      protected void onStart() {
+      }
+
+      @Override
+      protected void onStop() {
+      }
+    };
+    agent.setRouter(Mockito.mock(Router.class));
+    agent.registerHandler(Integer.class, Mockito.mock(MessageHandler.class));
+  }
+
+  @After
+  public void after() {
+    Logger.getLogger("scalagmite.trace").removeAppender(appender);
+  }
+
+  @Test
+  public void traceSample() throws Exception {
+    MessageTracer tracer = new MessageTracer(2, 16);
+    agent.setTracer(tracer);
+
+    for (int i = 0; i < 4; ++i) {
+      agent.submitMessage(i);
+    }
+    agent.consumeMessages(4);
+    tracer.stop();
+
+    Assert.assertThat(lines.size(), Is.is(2));
+    Assert.assertTrue(lines.get(0).contains("traced#0"));
+    Assert.assertTrue(lines.get(0).contains("java.lang.Integer 1"));
+    Assert.assertTrue(lines.get(1).contains("java.lang.Integer 3"));
+  }
+
+  @Test
+  public void traceError() throws Exception {
+    MessageTracer tracer = new MessageTracer(1, 16);
+    agent.setTracer(tracer);
+
+    agent.submitMessage("unknown");
+    agent.consumeMessage();
+    tracer.stop();
+
+    Assert.assertThat(lines.size(), Is.is(1));
+    Assert.assertTrue(lines.get(0).contains("failed"));
+  }
+
+}
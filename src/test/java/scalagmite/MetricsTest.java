@@ -0,0 +1,155 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsNull;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class MetricsTest {
+
+  private MetricsRegistry registry;
+
+  private AbstractAgent agent;
+
+  @Before
+  public void before() throws Exception {
+    registry = new MetricsRegistry(true, 1);
+
+    agent = new AbstractAgent("metrics") {
+      @Override
+      public void join() throws InterruptedException {
+      }
+
+      @Override
+      public void join(long millis) throws InterruptedException {
+      }
+
+      @Override
+      protected void onStart() {
+      }
+
+      @Override
+      protected void onStop() {
+      }
+    };
+    agent.setRouter(Mockito.mock(Router.class));
+    agent.setMetrics(registry.newAgentMetrics(agent));
+  }
+
+  @After
+  public void after() {
+    registry.unregisterAll();
+  }
+
+  @Test
+  public void histogram() {
+    Histogram histogram = new Histogram();
+    for (int i = 1; i <= 100; ++i) {
+      histogram.record(i * 1000);
+    }
+
+    Assert.assertThat(histogram.getCount(), Is.is(100L));
+    Assert.assertThat(histogram.getMax(), Is.is(100000L));
+    Assert.assertThat(histogram.getMean(), Is.is(50500.0));
+    // Percentiles are upper bounds of power-of-two buckets
+    Assert.assertTrue(histogram.getMedian() >= 50000);
+    Assert.assertTrue(histogram.getMedian() < 2 * 50000);
+    Assert.assertThat(histogram.get99thPercentile(), Is.is(100000L));
+
+    histogram.reset();
+    Assert.assertThat(histogram.getCount(), Is.is(0L));
+    Assert.assertThat(histogram.getMedian(), Is.is(0L));
+  }
+
+  @Test
+  public void agentMetrics() throws Exception {
+    MessageHandler<Integer> handler = Mockito.mock(MessageHandler.class);
+    agent.registerHandler(Integer.class, handler);
+
+    for (int i = 0; i < 3; ++i) {
+      agent.submitMessage(i);
+    }
+    agent.consumeMessages(3);
+
+    Mockito.verify(handler).handle(0);
+    AgentMetrics metrics = agent.getMetrics();
+    Assert.assertThat(metrics.getMessagesHandled(), Is.is(3L));
+    Assert.assertThat(metrics.getQueueLatency().getCount(), Is.is(3L));
+    Assert.assertThat(metrics.getHandlerTime(Integer.class).getCount(),
+        Is.is(3L));
+    Assert.assertThat(metrics.getHandlerTime(String.class), IsNull.nullValue());
+  }
+
+  @Test
+  public void publishedAsMBean() throws Exception {
+    MessageHandler<Integer> handler = Mockito.mock(MessageHandler.class);
+    agent.registerHandler(Integer.class, handler);
+    agent.submitMessage(1);
+    agent.submitMessage(2);
+    agent.consumeMessage();
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(
+        "scalagmite:type=Agent,name=\"metrics\",number=0");
+    Assert.assertThat(server.getAttribute(name, "MessagesHandled"),
+        Is.is((Object) 1L));
+    Assert.assertThat(server.getAttribute(name, "MailboxSize"),
+        Is.is((Object) 1));
+
+    ObjectName handlerName = new ObjectName(
+        "scalagmite:type=Agent,name=\"metrics\",number=0,"
+            + "handler=\"java.lang.Integer\"");
+    Assert.assertThat(server.getAttribute(handlerName, "Count"),
+        Is.is((Object) 1L));
+  }
+
+  @Test
+  public void disabled() {
+    MetricsRegistry disabled = new MetricsRegistry(false, 1);
+    Assert.assertThat(disabled.newAgentMetrics(agent), IsNull.nullValue());
+    Assert.assertThat(disabled.newSchedulerMetrics(), IsNull.nullValue());
+  }
+
+  @Test
+  public void workerMetrics() {
+    SchedulerMetrics scheduler = registry.newSchedulerMetrics();
+    WorkerMetrics worker = registry.newWorkerMetrics(scheduler, 0);
+    worker.idle(300);
+    worker.busy(100);
+
+    Assert.assertThat(worker.getRunSlots(), Is.is(1L));
+    Assert.assertThat(worker.getBusyRatio(), Is.is(0.25));
+    Assert.assertThat(scheduler.getBusyRatio(), Is.is(0.25));
+  }
+
+}
@@ -0,0 +1,115 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MpscMailboxTest {
+
+  private static final int PRODUCERS = 4;
+
+  private static final int MESSAGES = 3 * MpscMailbox.CHUNK_SIZE + 7;
+
+  @Test
+  public void unboundedOrder() throws InterruptedException {
+    checkConcurrentOrder(new MpscMailbox());
+  }
+
+  @Test
+  public void boundedOrder() throws InterruptedException {
+    checkConcurrentOrder(new BoundedMpscMailbox(16));
+  }
+
+  @Test
+  public void boundedCapacity() {
+    BoundedMpscMailbox mailbox = new BoundedMpscMailbox(3);
+    Assert.assertTrue(mailbox.offer(1));
+    Assert.assertTrue(mailbox.offer(2));
+    Assert.assertTrue(mailbox.offer(3));
+    Assert.assertFalse(mailbox.offer(4));
+    Assert.assertThat(mailbox.size(), Is.is(3));
+
+    Assert.assertThat(mailbox.poll(), Is.is((Object) 1));
+    Assert.assertTrue(mailbox.offer(4));
+  }
+
+  @Test
+  public void drain() {
+    MpscMailbox mailbox = new MpscMailbox();
+    for (int i = 0; i < 5; ++i) {
+      mailbox.offer(i);
+    }
+
+    List<Object> drained = new ArrayList<Object>();
+    Assert.assertThat(mailbox.drainTo(drained, 3), Is.is(3));
+    Assert.assertThat(drained.get(2), Is.is((Object) 2));
+    Assert.assertThat(mailbox.size(), Is.is(2));
+    Assert.assertThat(mailbox.drainTo(drained, 3), Is.is(2));
+    Assert.assertTrue(mailbox.isEmpty());
+    Assert.assertThat(mailbox.poll(), IsNull.nullValue());
+  }
+
+  /**
+   * Several producers insert increasing integers, the consumer checks each
+   * producer's messages are received in order.
+   */
+  private void checkConcurrentOrder(final Mailbox mailbox)
+      throws InterruptedException {
+    List<Thread> producers = new ArrayList<Thread>();
+    for (int p = 0; p < PRODUCERS; ++p) {
+      final int producer = p;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < MESSAGES; ++i) {
+              mailbox.put(new int[] { producer, i });
+            }
+          } catch (InterruptedException e) {
+            // Test fails below
+          }
+        }
+      };
+      producers.add(thread);
+      thread.start();
+    }
+
+    int[] next = new int[PRODUCERS];
+    for (int i = 0; i < PRODUCERS * MESSAGES; ++i) {
+      int[] message = (int[]) mailbox.take();
+      Assert.assertThat(message[1], Is.is(next[message[0]]));
+      ++next[message[0]];
+    }
+
+    for (Thread thread : producers) {
+      thread.join();
+    }
+    Assert.assertTrue(mailbox.isEmpty());
+  }
+}
@@ -0,0 +1,202 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import scalagmite.events.InitAgent;
+
+public class RemoteAgentTest {
+
+  private static final int MESSAGES = 10000;
+
+  private static class EchoAgent extends SchedulableAgent {
+
+    EchoAgent() throws AgentException {
+      super("echo");
+      registerHandler(Integer.class, new MessageHandler<Integer>() {
+        public void handle(Integer message) throws Exception {
+          if (getReplyTo() != null) {
+            reply(message * 2);
+          } else {
+            route("client", message);
+          }
+        }
+      });
+      registerHandler(String.class, new MessageHandler<String>() {
+        public void handle(String message) throws Exception {
+          stop();
+        }
+      });
+    }
+  }
+
+  private static class ClientAgent extends ThreadAgent {
+
+    private final AtomicInteger received = new AtomicInteger();
+
+    private final AtomicReference<Object> reply = new AtomicReference<Object>();
+
+    ClientAgent() throws AgentException {
+      super("client");
+      registerInitHandler(new MessageHandler<InitAgent>() {
+        public void handle(InitAgent message) throws Exception {
+          reply.set(getRouter().ask("echo", 21, 5000).get(5,
+              TimeUnit.SECONDS));
+          for (int i = 0; i < MESSAGES; ++i) {
+            route("echo", i);
+          }
+        }
+      });
+      registerHandler(Integer.class, new MessageHandler<Integer>() {
+        public void handle(Integer message) throws Exception {
+          if (received.incrementAndGet() == MESSAGES) {
+            route("echo", "stop");
+            stop();
+          }
+        }
+      });
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void messagesAndRequestsCrossNodes() throws Exception {
+    LoopbackCluster cluster = new LoopbackCluster(2);
+
+    ClientAgent client = new ClientAgent();
+    client.setup();
+    cluster.getNode(0).register(client, true);
+    cluster.registerRemote(0, 1, "echo", 1);
+
+    EchoAgent echo = new EchoAgent();
+    echo.setup();
+    cluster.getNode(1).register(echo, true);
+    cluster.registerRemote(1, 0, "client", 1);
+
+    cluster.runAll(20000);
+
+    Assert.assertThat(client.reply.get(), Is.is((Object) 42));
+    Assert.assertThat(client.received.get(), Is.is(MESSAGES));
+  }
+
+  private static AbstractAgent newLocalAgent(String name, int capacity)
+      throws Exception {
+    AbstractAgent agent = new AbstractAgent(name, capacity) {
+      @Override
+      public void join() throws InterruptedException {
+      }
+
+      @Override
+      public void join(long millis) throws InterruptedException {
+      }
+
+      @Override
+      protected void onStart() {
+      }
+
+      @Override
+      protected void onStop() {
+      }
+    };
+    agent.setup();
+    return agent;
+  }
+
+  @Test(timeout = 10000)
+  public void fullMailboxDoesNotBlockOtherConnections() throws Exception {
+    Router router = new Router(new DefaultErrorHandler());
+    AbstractAgent full = newLocalAgent("full", 1);
+    MessageHandler<Integer> fullHandler = Mockito.mock(MessageHandler.class);
+    full.registerHandler(Integer.class, fullHandler);
+    router.registerAgent(full);
+    AbstractAgent other = newLocalAgent("other", 0);
+    MessageHandler<Integer> otherHandler = Mockito.mock(MessageHandler.class);
+    other.registerHandler(Integer.class, otherHandler);
+    router.registerAgent(other);
+    Transport transport = new Transport(router);
+    int port = transport.listen("127.0.0.1", 0);
+
+    Transport sender1 = new Transport(new Router(new DefaultErrorHandler()));
+    RemoteAgent toFull = new RemoteAgent("full", 0, sender1, "127.0.0.1",
+        port);
+    for (int i = 0; i < 3; ++i) {
+      Assert.assertTrue(toFull.submitMessage(i));
+    }
+    Transport sender2 = new Transport(new Router(new DefaultErrorHandler()));
+    RemoteAgent toOther = new RemoteAgent("other", 0, sender2, "127.0.0.1",
+        port);
+    Assert.assertTrue(toOther.submitMessage(42));
+
+    // Waits for the message while the first connection is paused
+    other.consumeMessage();
+    Mockito.verify(otherHandler).handle(42);
+
+    for (int i = 0; i < 3; ++i) {
+      full.consumeMessage();
+    }
+    InOrder inOrder = Mockito.inOrder(fullHandler);
+    for (int i = 0; i < 3; ++i) {
+      inOrder.verify(fullHandler).handle(i);
+    }
+
+    sender1.stop();
+    sender2.stop();
+    transport.stop();
+  }
+
+  @Test
+  public void requestsFromOneAgentShareAnExport() throws Exception {
+    Router router = new Router(new DefaultErrorHandler());
+    router.registerAgent(newLocalAgent("requester", 0));
+    Transport transport = new Transport(router);
+
+    long id = transport.export(router.getAgentRef("requester", 0));
+    for (int i = 0; i < 5000; ++i) {
+      Assert.assertThat(
+          transport.export(router.getAgentRef("requester", 0)), Is.is(id));
+    }
+    Assert.assertThat(transport.getNumOfExports(), Is.is(1));
+    transport.stop();
+  }
+
+  @Test
+  public void nonSerializableMessageIsRejected() throws Exception {
+    LoopbackCluster cluster = new LoopbackCluster(1);
+    Router router = new Router(new DefaultErrorHandler());
+    Transport transport = new Transport(router);
+    RemoteAgent remote = new RemoteAgent("echo", 0, transport, "127.0.0.1",
+        cluster.getPort(0));
+
+    Assert.assertFalse(remote.submitMessage(new Object()));
+    Assert.assertTrue(remote.submitMessage(1));
+    transport.stop();
+  }
+}
@@ -23,6 +23,7 @@ package scalagmite;
  */
 
 import org.hamcrest.core.Is;
+import org.hamcrest.core.IsNull;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -60,6 +61,71 @@ public class RouterTest {
     Assert.assertThat(registered, Is.is(agent));
   }
 
+  @Test(expected = IllegalStateException.class)
+  public void stopCreatedTimer() throws Exception {
+    HashedWheelTimer timer = router.getTimer();
+    router.stopTimer();
+    timer.schedule(Mockito.mock(Runnable.class), 10);
+  }
+
+  @Test
+  public void keepTimerSet() throws Exception {
+    HashedWheelTimer timer = new HashedWheelTimer();
+    router.setTimer(timer);
+    router.stopTimer();
+    timer.schedule(Mockito.mock(Runnable.class), 10).cancel();
+    timer.stop();
+  }
+
+  @Test(timeout = 5000)
+  public void lookupWithoutLock() throws Exception {
+    final AbstractAgent agent = Mockito.mock(AbstractAgent.class);
+    Mockito.when(agent.getName()).thenReturn("name");
+    router.registerAgent(agent);
+
+    // Lookups must not wait for a thread holding router's lock
+    final AbstractAgent[] found = new AbstractAgent[1];
+    synchronized (router) {
+      Thread sender = new Thread() {
+        @Override
+        public void run() {
+          found[0] = router.getAgent("name", 0);
+        }
+      };
+      sender.start();
+      sender.join();
+    }
+    Assert.assertThat(found[0], Is.is(agent));
+    Assert.assertThat(router.getAgent("name", 1), IsNull.nullValue());
+    Assert.assertThat(router.getAgent("other", 0), IsNull.nullValue());
+  }
+
+  @Test
+  public void agentRef() throws Exception {
+    AbstractAgent agent = Mockito.mock(AbstractAgent.class);
+    Mockito.when(agent.getName()).thenReturn("name");
+    router.registerAgent(agent);
+
+    AgentRef ref = router.getAgentRef("name", 0);
+    Assert.assertTrue(ref.isValid());
+    ref.tell(3);
+    Mockito.verify(agent).submitMessage(3);
+
+    Assert.assertThat(router.getAgentRef("name", 1), IsNull.nullValue());
+  }
+
+  @Test(expected = AgentException.class)
+  public void agentRefUnregistered() throws Exception {
+    AbstractAgent agent = Mockito.mock(AbstractAgent.class);
+    Mockito.when(agent.getName()).thenReturn("name");
+    router.registerAgent(agent);
+
+    AgentRef ref = router.getAgentRef("name", 0);
+    router.unregisterAgent("name");
+    Assert.assertFalse(ref.isValid());
+    ref.tell(3);
+  }
+
   @Test(expected = RouterException.class)
   public void registerEmpty() throws RouterException {
     AbstractAgent agent = Mockito.mock(AbstractAgent.class);
@@ -0,0 +1,145 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class RoutingStrategyTest {
+
+  private AbstractAgent[] agents;
+
+  @Before
+  public void before() {
+    agents = new AbstractAgent[4];
+    for (int i = 0; i < agents.length; ++i) {
+      agents[i] = Mockito.mock(AbstractAgent.class);
+    }
+  }
+
+  @Test
+  public void firstAgent() {
+    RoutingStrategy strategy = new FirstAgentStrategy();
+    Assert.assertThat(strategy.select(agents, "a"), Is.is(agents[0]));
+    Assert.assertThat(strategy.select(agents, "b"), Is.is(agents[0]));
+  }
+
+  @Test
+  public void roundRobin() {
+    RoutingStrategy strategy = new RoundRobinStrategy();
+    for (int i = 0; i < 2 * agents.length; ++i) {
+      Assert.assertThat(strategy.select(agents, "m"),
+          Is.is(agents[i % agents.length]));
+    }
+  }
+
+  @Test
+  public void leastLoaded() {
+    Mockito.when(agents[0].getMailboxSize()).thenReturn(3);
+    Mockito.when(agents[1].getMailboxSize()).thenReturn(5);
+    Mockito.when(agents[2].getMailboxSize()).thenReturn(1);
+    Mockito.when(agents[3].getMailboxSize()).thenReturn(2);
+
+    RoutingStrategy strategy = new LeastLoadedStrategy();
+    for (int i = 0; i < agents.length; ++i) {
+      Assert.assertThat(strategy.select(agents, "m"), Is.is(agents[2]));
+    }
+  }
+
+  @Test
+  public void consistentHashingKeepsKeys() {
+    RoutingStrategy strategy = new ConsistentHashingStrategy();
+    for (int key = 0; key < 100; ++key) {
+      AbstractAgent first = strategy.select(agents, new Keyed(key));
+      Assert.assertThat(strategy.select(agents, new Keyed(key)), Is.is(first));
+    }
+  }
+
+  @Test
+  public void consistentHashingUsesAllAgents() {
+    RoutingStrategy strategy = new ConsistentHashingStrategy();
+    Set<AbstractAgent> selected = new HashSet<AbstractAgent>();
+    for (int key = 0; key < 1000; ++key) {
+      selected.add(strategy.select(agents, Integer.valueOf(key)));
+    }
+    Assert.assertThat(selected.size(), Is.is(agents.length));
+  }
+
+  @Test
+  public void consistentHashingMovesFewKeys() {
+    RoutingStrategy strategy = new ConsistentHashingStrategy();
+    AbstractAgent[] more = new AbstractAgent[agents.length + 1];
+    System.arraycopy(agents, 0, more, 0, agents.length);
+    more[agents.length] = Mockito.mock(AbstractAgent.class);
+
+    int keys = 10000;
+    AbstractAgent[] before = new AbstractAgent[keys];
+    for (int key = 0; key < keys; ++key) {
+      before[key] = strategy.select(agents, new Keyed(key));
+    }
+    int moved = 0;
+    for (int key = 0; key < keys; ++key) {
+      AbstractAgent after = strategy.select(more, new Keyed(key));
+      if (after != before[key]) {
+        Assert.assertThat(after, Is.is(more[agents.length]));
+        ++moved;
+      }
+    }
+    // About a fifth of the keys should move to the new agent
+    Assert.assertTrue(moved < keys / 3);
+  }
+
+  @Test
+  public void groupSelectsWithStrategy() throws RouterException {
+    AgentGroup group = new AgentGroup();
+    for (int i = 0; i < agents.length; ++i) {
+      Mockito.when(agents[i].getName()).thenReturn("name");
+      group.addAgent(agents[i]);
+    }
+    group.setRoutingStrategy(new RoundRobinStrategy());
+
+    Assert.assertThat(group.selectAgent("m"), Is.is(agents[0]));
+    Assert.assertThat(group.selectAgent("m"), Is.is(agents[1]));
+  }
+
+  private static class Keyed implements KeyedMessage {
+
+    private final int key;
+
+    private Keyed(int key) {
+      this.key = key;
+    }
+
+    @Override
+    public Object getRoutingKey() {
+      return key;
+    }
+  }
+
+}
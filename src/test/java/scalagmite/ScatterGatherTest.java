@@ -0,0 +1,183 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsNull;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class ScatterGatherTest {
+
+  private Router router;
+
+  private AbstractAgent requester;
+
+  private MessageHandler<GatheredReplies> gatherHandler;
+
+  private AbstractAgent[] members;
+
+  @Before
+  public void before() throws Exception {
+    router = new Router(Mockito.mock(ErrorHandler.class));
+
+    requester = newAgent("requester", 0);
+    gatherHandler = Mockito.mock(MessageHandler.class);
+    requester.registerHandler(GatheredReplies.class, gatherHandler);
+    router.registerAgent(requester);
+
+    members = new AbstractAgent[3];
+    for (int i = 0; i < members.length; ++i) {
+      final AbstractAgent member = newAgent("member", 0);
+      member.registerHandler(Integer.class, new MessageHandler<Integer>() {
+        @Override
+        public void handle(Integer message) throws Exception {
+          member.reply(member.getNumber() * message);
+        }
+      });
+      router.registerAgent(member, false);
+      members[i] = member;
+    }
+  }
+
+  private AbstractAgent newAgent(String name, int capacity) throws Exception {
+    AbstractAgent agent = new AbstractAgent(name, capacity) {
+      @Override
+      public void join() throws InterruptedException {
+      }
+
+      @Override
+      public void join(long millis) throws InterruptedException {
+      }
+
+      @Override
+      protected void onStart() {
+      }
+
+      @Override
+      protected void onStop() {
+      }
+    };
+    agent.setup();
+    return agent;
+  }
+
+  @Test
+  public void broadcast() throws Exception {
+    MessageHandler<String> handler = Mockito.mock(MessageHandler.class);
+    for (AbstractAgent member : members) {
+      member.registerHandler(String.class, handler);
+    }
+
+    Assert.assertThat(requester.broadcast("member", "hello"),
+        Is.is(members.length));
+    for (AbstractAgent member : members) {
+      member.consumeMessage();
+    }
+    Mockito.verify(handler, Mockito.times(members.length)).handle("hello");
+  }
+
+  @Test
+  public void gatherAllReplies() throws Exception {
+    for (int i = 1; i <= members.length; ++i) {
+      requester.scatterGather("member", i, 10000);
+    }
+    for (AbstractAgent member : members) {
+      member.consumeMessages(members.length);
+    }
+    requester.consumeMessages(members.length);
+
+    ArgumentCaptor<GatheredReplies> captor = ArgumentCaptor
+        .forClass(GatheredReplies.class);
+    Mockito.verify(gatherHandler, Mockito.times(members.length)).handle(
+        captor.capture());
+    for (GatheredReplies gathered : captor.getAllValues()) {
+      int request = (Integer) gathered.getRequest();
+      Assert.assertThat(gathered.isComplete(), Is.is(true));
+      Assert.assertThat(new HashSet<Object>(gathered.getReplies()),
+          Is.is(new HashSet<Object>(Arrays.asList(0, request, 2 * request))));
+    }
+  }
+
+  @Test(timeout = 5000)
+  public void gatherTimeout() throws Exception {
+    requester.scatterGather("member", 1, 50);
+    members[1].consumeMessage();
+
+    requester.consumeMessage();
+
+    ArgumentCaptor<GatheredReplies> captor = ArgumentCaptor
+        .forClass(GatheredReplies.class);
+    Mockito.verify(gatherHandler).handle(captor.capture());
+    GatheredReplies gathered = captor.getValue();
+    Assert.assertThat(gathered.isComplete(), Is.is(false));
+    Assert.assertThat(gathered.getExpected(), Is.is(members.length));
+    Assert.assertThat(gathered.getReplies(), Is.is(Arrays.<Object> asList(1)));
+    Assert.assertThat(gathered.getRequest(), Is.is((Object) 1));
+  }
+
+  @Test
+  public void duplicateRepliesIgnored() throws Exception {
+    for (final AbstractAgent member : members) {
+      member.registerHandler(Long.class, new MessageHandler<Long>() {
+        @Override
+        public void handle(Long message) throws Exception {
+          // The first member replies several times
+          int replies = member == members[0] ? members.length : 1;
+          for (int i = 0; i < replies; ++i) {
+            member.reply(member.getNumber() + message);
+          }
+        }
+      });
+    }
+    requester.scatterGather("member", 1L, 10000);
+    members[0].consumeMessage();
+    Assert.assertThat(requester.hasPendingMessages(), Is.is(false));
+
+    members[1].consumeMessage();
+    members[2].consumeMessage();
+    requester.consumeMessage();
+
+    ArgumentCaptor<GatheredReplies> captor = ArgumentCaptor
+        .forClass(GatheredReplies.class);
+    Mockito.verify(gatherHandler).handle(captor.capture());
+    Assert.assertThat(captor.getValue().isComplete(), Is.is(true));
+    Assert.assertThat(captor.getValue().getReplies(),
+        Is.is(Arrays.<Object> asList(1L, 2L, 3L)));
+  }
+
+  @Test
+  public void replyWithoutRequest() throws Exception {
+    members[0].submitMessage(0);
+    members[0].consumeMessage();
+
+    Assert.assertThat(members[0].getError(), IsNull.notNullValue());
+  }
+
+}
@@ -0,0 +1,154 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class SchedulableAgentTest {
+
+  private Scheduler scheduler;
+
+  private SchedulableAgent agent;
+
+  private MessageHandler<Integer> handler;
+
+  @Before
+  public void before() throws AgentException {
+    scheduler = Mockito.mock(Scheduler.class);
+    handler = Mockito.mock(MessageHandler.class);
+
+    agent = new SchedulableAgent("name");
+    agent.setRouter(Mockito.mock(Router.class));
+    agent.setScheduler(scheduler);
+    agent.setThroughput(10);
+    agent.registerHandler(Integer.class, handler);
+  }
+
+  @Test
+  public void scheduledOnce() {
+    for (int i = 0; i < 100; ++i) {
+      agent.submitMessage(i);
+    }
+    Mockito.verify(scheduler, Mockito.times(1)).schedule(agent);
+  }
+
+  @Test
+  public void rescheduledWhileMessagesLeft() throws Exception {
+    for (int i = 0; i < 15; ++i) {
+      agent.submitMessage(i);
+    }
+
+    agent.runScheduled();
+    Mockito.verify(handler, Mockito.times(10)).handle(Mockito.anyInt());
+    Mockito.verify(scheduler, Mockito.times(2)).schedule(agent);
+
+    agent.runScheduled();
+    Mockito.verify(handler, Mockito.times(15)).handle(Mockito.anyInt());
+    Mockito.verify(scheduler, Mockito.times(2)).schedule(agent);
+
+    agent.submitMessage(15);
+    Mockito.verify(scheduler, Mockito.times(3)).schedule(agent);
+  }
+
+  @Test
+  public void reject() throws Exception {
+    agent = new SchedulableAgent("name", 2, AbstractAgent.OverflowPolicy.REJECT);
+    agent.setScheduler(scheduler);
+
+    Assert.assertTrue(agent.submitMessage(1));
+    Assert.assertTrue(agent.submitMessage(2));
+    Assert.assertFalse(agent.submitMessage(3));
+    Assert.assertThat(agent.getRejectedMessages(), Is.is(1L));
+  }
+
+  @Test
+  public void dropOldest() throws Exception {
+    agent = new SchedulableAgent("name", 2,
+        AbstractAgent.OverflowPolicy.DROP_OLDEST);
+    agent.setRouter(Mockito.mock(Router.class));
+    agent.setScheduler(scheduler);
+    agent.registerHandler(Integer.class, handler);
+
+    Assert.assertTrue(agent.submitMessage(1));
+    Assert.assertTrue(agent.submitMessage(2));
+    Assert.assertTrue(agent.submitMessage(3));
+    Assert.assertThat(agent.getDroppedMessages(), Is.is(1L));
+
+    agent.consumeMessages(3);
+    Mockito.verify(handler, Mockito.never()).handle(1);
+    Mockito.verify(handler).handle(2);
+    Mockito.verify(handler).handle(3);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void dropOldestRequiresMultiConsumerMailbox() {
+    new SchedulableAgent("name", new BoundedMpscMailbox(2),
+        AbstractAgent.OverflowPolicy.DROP_OLDEST);
+  }
+
+  @Test
+  public void dropOldestKeepsMailboxOnConfigure() throws Exception {
+    agent = new SchedulableAgent("name", 1,
+        AbstractAgent.OverflowPolicy.DROP_OLDEST);
+    agent.setScheduler(scheduler);
+    Configuration config = Mockito.mock(Configuration.class);
+    Mockito.when(config.getMailboxType()).thenReturn(Mailbox.Type.MPSC);
+    agent.configure(config);
+
+    Assert.assertTrue(agent.submitMessage(1));
+    Assert.assertTrue(agent.submitMessage(2));
+    Assert.assertThat(agent.getDroppedMessages(), Is.is(1L));
+  }
+
+  @Test
+  public void workerNeverBlocks() throws Exception {
+    agent = new SchedulableAgent("name", 1);
+    agent.setScheduler(scheduler);
+    Assert.assertTrue(agent.submitMessage(1));
+
+    final boolean[] submitted = new boolean[] { true };
+    WorkerImpl worker = new WorkerImpl() {
+      @Override
+      public void run() {
+        super.run(); // marks thread as a worker thread
+        submitted[0] = agent.submitMessage(2);
+      }
+    };
+    worker.setQueue(new FifoWorkQueue() {
+      @Override
+      public Slot take() {
+        return new Slot(null); // closes worker immediately
+      }
+    });
+
+    Thread thread = new Thread(worker);
+    thread.start();
+    thread.join(5000);
+    Assert.assertFalse(submitted[0]);
+    Assert.assertThat(agent.getRejectedMessages(), Is.is(1L));
+  }
+}
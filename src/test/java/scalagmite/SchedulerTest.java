@@ -22,6 +22,11 @@ package scalagmite;
  * #L%
  */
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.hamcrest.core.Is;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -51,6 +56,72 @@ public class SchedulerTest {
 
   @Test
   public void schedule() {
-    scheduler.schedule(Mockito.mock(SchedulableAgent.class));
+    scheduler.schedule(new SchedulableAgent());
+  }
+
+  @Test
+  public void scheduleWorkStealing() {
+    Mockito.when(config.getSchedulerMode()).thenReturn(
+        Scheduler.Mode.WORK_STEALING);
+    scheduler = new Scheduler(provider, config);
+    scheduler.schedule(new SchedulableAgent());
+  }
+
+  @Test
+  public void fixedSizeByDefault() {
+    Assert.assertThat(scheduler.getNumOfThreads(), Is.is(THREAD_NUM));
+    Assert.assertThat(scheduler.getMaxNumOfThreads(), Is.is(THREAD_NUM));
+    Assert.assertFalse(scheduler.isAdaptive());
+  }
+
+  @Test
+  public void poolGrowsWhileHandlersBlockAndShrinksWhenIdle()
+      throws Exception {
+    Mockito.when(config.getNumberOfThreads()).thenReturn(1);
+    Mockito.when(config.getMaxNumberOfThreads()).thenReturn(3);
+    Mockito.when(config.getSchedulerGrowThreshold()).thenReturn(5L);
+    Mockito.when(config.getWorkerKeepAlive()).thenReturn(100L);
+    scheduler = new Scheduler(new Provider<Worker>() {
+      public Worker get() {
+        return new WorkerImpl();
+      }
+    }, config);
+    scheduler.start();
+
+    final CountDownLatch handled = new CountDownLatch(3);
+    final CountDownLatch unblock = new CountDownLatch(1);
+    for (int i = 0; i < 3; ++i) {
+      SchedulableAgent agent = new SchedulableAgent("blocking");
+      agent.setRouter(Mockito.mock(Router.class));
+      agent.setScheduler(scheduler);
+      agent.registerHandler(Integer.class, new MessageHandler<Integer>() {
+        public void handle(Integer message) throws Exception {
+          handled.countDown();
+          unblock.await();
+        }
+      });
+      agent.submitMessage(i);
+    }
+
+    Assert.assertTrue(handled.await(5, TimeUnit.SECONDS));
+    Assert.assertThat(scheduler.getNumOfThreads(), Is.is(3));
+
+    unblock.countDown();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (scheduler.getNumOfThreads() > 1
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertThat(scheduler.getNumOfThreads(), Is.is(1));
+
+    scheduler.stop();
+    scheduler.join();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void stopStopsTimer() {
+    scheduler.getTimer().schedule(Mockito.mock(Runnable.class), 10);
+    scheduler.stop();
+    scheduler.getTimer().schedule(Mockito.mock(Runnable.class), 10);
   }
 }
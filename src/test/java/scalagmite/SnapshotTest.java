@@ -0,0 +1,193 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+public class SnapshotTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File directory;
+
+  /** Counts integer messages, a string message removing its count. */
+  private static class CountingAgent extends AbstractAgent {
+
+    private final Map<Object, Object> counts = new HashMap<Object, Object>();
+
+    private final Set<Object> changed = new HashSet<Object>();
+
+    private int handled;
+
+    private int restored;
+
+    CountingAgent(Mailbox mailbox, File directory) throws Exception {
+      super("counting", mailbox);
+      setRouter(Mockito.mock(Router.class));
+      registerHandler(Integer.class, new MessageHandler<Integer>() {
+        public void handle(Integer message) throws Exception {
+          ++handled;
+          Integer count = (Integer) counts.get(message);
+          counts.put(message, count == null ? 1 : count + 1);
+          changed.add(message);
+        }
+      });
+      registerHandler(String.class, new MessageHandler<String>() {
+        public void handle(String message) throws Exception {
+          counts.remove(Integer.valueOf(message));
+          changed.add(Integer.valueOf(message));
+        }
+      });
+      registerSnapshotHandler(new SnapshotHandler() {
+        public void snapshot(SnapshotWriter writer, boolean full)
+            throws Exception {
+          for (Object key : full ? counts.keySet() : changed) {
+            if (counts.containsKey(key)) {
+              writer.put(key, counts.get(key));
+            } else if (!full) {
+              writer.remove(key);
+            }
+          }
+          changed.clear();
+        }
+
+        public void restore(Map<Object, Object> state) throws Exception {
+          ++restored;
+          counts.putAll(state);
+        }
+      }, directory, 0);
+      setup();
+      start();
+      consumeMessage(); // InitAgent
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+    }
+
+    @Override
+    public void join(long millis) throws InterruptedException {
+    }
+
+    @Override
+    protected void onStart() {
+    }
+
+    @Override
+    protected void onStop() {
+    }
+  }
+
+  @Before
+  public void before() {
+    directory = new File(folder.getRoot(), "snapshots");
+  }
+
+  private void submit(AbstractAgent agent, Object... messages) {
+    for (Object message : messages) {
+      agent.submitMessage(message);
+    }
+    while (agent.getMailboxSize() > 0) {
+      agent.consumeMessages(messages.length);
+    }
+  }
+
+  @Test
+  public void stateIsRestoredAfterStop() throws Exception {
+    CountingAgent agent = new CountingAgent(new BlockingMailbox(), directory);
+    Assert.assertThat(agent.restored, Is.is(0));
+    submit(agent, 1, 2, 2);
+    agent.stop();
+    agent.consumeMessage(); // StopAgent
+
+    CountingAgent restarted = new CountingAgent(new BlockingMailbox(),
+        directory);
+    Assert.assertThat(restarted.restored, Is.is(1));
+    Assert.assertThat(restarted.counts.get(1), Is.is((Object) 1));
+    Assert.assertThat(restarted.counts.get(2), Is.is((Object) 2));
+  }
+
+  @Test
+  public void incrementalSnapshotsAreMerged() throws Exception {
+    CountingAgent agent = new CountingAgent(new BlockingMailbox(), directory);
+    submit(agent, 1, 2, 3);
+    agent.takeSnapshot(); // Full, as there is none
+    agent.awaitSnapshot();
+    submit(agent, 3, "1");
+    agent.takeSnapshot();
+    agent.awaitSnapshot();
+    submit(agent, 4);
+    agent.takeSnapshot();
+    agent.awaitSnapshot();
+    Assert.assertThat(directory.list(new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        return name.endsWith(".delta");
+      }
+    }).length, Is.is(2));
+
+    CountingAgent restarted = new CountingAgent(new BlockingMailbox(),
+        directory);
+    Map<Object, Object> expected = new HashMap<Object, Object>();
+    expected.put(2, 1);
+    expected.put(3, 2);
+    expected.put(4, 1);
+    Assert.assertThat(restarted.counts, Is.is(expected));
+  }
+
+  @Test
+  public void durableMailboxReplaysMessagesAfterSnapshot() throws Exception {
+    CodecRegistry codecs = new CodecRegistry();
+    File log = new File(folder.getRoot(), "log");
+    CountingAgent agent = new CountingAgent(new DurableMailbox(log, codecs),
+        directory);
+    submit(agent, 1, 2, 3);
+    agent.takeSnapshot();
+    agent.awaitSnapshot();
+    submit(agent, 3, 4);
+    // Not stopped, as if the JVM died
+
+    CountingAgent restarted = new CountingAgent(new DurableMailbox(log,
+        codecs), directory);
+    Assert.assertThat(restarted.counts.size(), Is.is(3));
+    Assert.assertThat(restarted.getMailboxSize(), Is.is(2));
+    submit(restarted);
+    Assert.assertThat(restarted.handled, Is.is(2));
+    Assert.assertThat(restarted.counts.get(3), Is.is((Object) 2));
+    Assert.assertThat(restarted.counts.get(4), Is.is((Object) 1));
+  }
+}
@@ -0,0 +1,213 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsNull;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import scalagmite.SupervisionStrategy.Directive;
+import scalagmite.events.InitAgent;
+import scalagmite.events.RestartAgent;
+import scalagmite.events.StopAgent;
+
+public class SupervisionTest {
+
+  private Router router;
+
+  private AbstractAgent agent;
+
+  /** Messages handled since the last restart. */
+  private List<Integer> handled;
+
+  private int inits;
+
+  private int restarts;
+
+  @Before
+  public void before() throws Exception {
+    router = Mockito.mock(Router.class);
+    handled = new ArrayList<Integer>();
+
+    agent = new AbstractAgent("supervised") {
+      @Override
+      public void join() throws InterruptedException {
+      }
+
+      @Override
+      public void join(long millis) throws InterruptedException {
+      }
+
+      @Override
+      protected void onStart() {
+      }
+
+      @Override
+      protected void onStop() {
+      }
+    };
+    agent.setRouter(router);
+    agent.registerHandler(Integer.class, new MessageHandler<Integer>() {
+      public void handle(Integer message) throws Exception {
+        if (message < 0) {
+          throw new IllegalArgumentException("Poison " + message);
+        }
+        handled.add(message);
+      }
+    });
+    agent.registerInitHandler(new MessageHandler<InitAgent>() {
+      public void handle(InitAgent message) throws Exception {
+        ++inits;
+      }
+    });
+    agent.registerRestartHandler(new MessageHandler<RestartAgent>() {
+      public void handle(RestartAgent message) throws Exception {
+        ++restarts;
+        handled.clear();
+      }
+    });
+    agent.setup();
+    agent.start();
+    agent.consumeMessage(); // InitAgent
+  }
+
+  private void submit(Integer... messages) {
+    for (Integer message : messages) {
+      agent.submitMessage(message);
+    }
+    while (agent.getMailboxSize() > 0) {
+      agent.consumeMessages(10);
+    }
+  }
+
+  @Test
+  public void errorsAreEscalatedByDefault() {
+    submit(1, -1, 2);
+    Mockito.verify(router).signalError(Mockito.eq("supervised"),
+        Mockito.any(IllegalArgumentException.class));
+    Assert.assertThat(handled.size(), Is.is(1));
+    Assert.assertThat(agent.getStatus(),
+        Is.is(AbstractAgent.AgentStatus.STOPPED));
+  }
+
+  @Test
+  public void resumeSkipsFailedMessage() {
+    agent.setSupervisionStrategy(new SupervisionStrategy(Directive.RESUME));
+    submit(1, -1, 2);
+    Assert.assertThat(handled.size(), Is.is(2));
+    Assert.assertThat(agent.getError(), IsNull.nullValue());
+    Assert.assertThat(agent.getRecoveredErrors(), Is.is(1L));
+    Mockito.verify(router, Mockito.never()).signalError(Mockito.anyString(),
+        Mockito.any(Exception.class));
+  }
+
+  @Test
+  public void resumeHandlesRestOfBatch() {
+    agent.setSupervisionStrategy(new SupervisionStrategy(Directive.RESUME));
+    for (Integer message : Arrays.asList(1, -1, 2, 3, -2, 4)) {
+      agent.submitMessage(message);
+    }
+    agent.consumeAvailableMessages(10);
+    Assert.assertThat(handled, Is.is(Arrays.asList(1, 2, 3, 4)));
+    Assert.assertThat(agent.getMailboxSize(), Is.is(0));
+    Assert.assertThat(agent.getRecoveredErrors(), Is.is(2L));
+  }
+
+  @Test
+  public void escalatedErrorDiscardsRestOfBatch() {
+    for (Integer message : Arrays.asList(1, -1, 2, 3, 4)) {
+      agent.submitMessage(message);
+    }
+    agent.consumeAvailableMessages(4);
+    Assert.assertThat(handled, Is.is(Arrays.asList(1)));
+    Assert.assertThat(agent.getMailboxSize(), Is.is(0));
+  }
+
+  @Test
+  public void restartResetsStateAndKeepsPendingMessages() {
+    agent.setSupervisionStrategy(new SupervisionStrategy(Directive.RESTART));
+    submit(1, 2, -1, 3);
+    Assert.assertThat(restarts, Is.is(1));
+    Assert.assertThat(inits, Is.is(2));
+    Assert.assertThat(handled, Is.is(Arrays.asList(3)));
+    Assert.assertThat(agent.getStatus(),
+        Is.is(AbstractAgent.AgentStatus.RUNNING));
+  }
+
+  @Test
+  public void restartsAreRateLimited() {
+    agent.setSupervisionStrategy(new SupervisionStrategy(Directive.RESTART,
+        2, 60000));
+    submit(-1, -2, 1);
+    Assert.assertThat(restarts, Is.is(2));
+    Mockito.verify(router, Mockito.never()).signalError(Mockito.anyString(),
+        Mockito.any(Exception.class));
+
+    submit(-3);
+    Assert.assertThat(restarts, Is.is(2));
+    Mockito.verify(router).signalError(Mockito.eq("supervised"),
+        Mockito.any(IllegalArgumentException.class));
+  }
+
+  @Test
+  public void groupStrategyApplies() {
+    Mockito.when(router.getSupervisionStrategy("supervised")).thenReturn(
+        new SupervisionStrategy(Directive.RESUME));
+    submit(-1, 1);
+    Assert.assertThat(handled.size(), Is.is(1));
+
+    agent.setSupervisionStrategy(new SupervisionStrategy(Directive.ESCALATE));
+    submit(-2);
+    Mockito.verify(router).signalError(Mockito.eq("supervised"),
+        Mockito.any(IllegalArgumentException.class));
+  }
+
+  @Test
+  public void stopOnlyStopsFailedAgent() throws Exception {
+    final List<String> causes = new ArrayList<String>();
+    agent.registerExitHandler(new MessageHandler<StopAgent>() {
+      public void handle(StopAgent message) throws Exception {
+        causes.add(message.getCause());
+      }
+    });
+    agent.setSupervisionStrategy(new SupervisionStrategy(Directive.STOP));
+    submit(-1, 1);
+    Assert.assertThat(causes,
+        Is.is(Arrays.asList("Error in agent supervised")));
+    Assert.assertThat(agent.getStatus(),
+        Is.is(AbstractAgent.AgentStatus.STOPPED));
+    Assert.assertThat(agent.getError(), IsNull.nullValue());
+    Assert.assertTrue(handled.isEmpty());
+    Mockito.verify(router).signalAgentStop(agent);
+    Mockito.verify(router, Mockito.never()).signalError(Mockito.anyString(),
+        Mockito.any(Exception.class));
+  }
+}
@@ -51,11 +51,28 @@ public class ThreadAgentTest {
 
     Integer newVal = 3;
     agent.submitMessage(newVal);
+    // Stop bypasses pending messages
+    Mockito.verify(handler, Mockito.timeout(5000)).handle(newVal);
 
     agent.stop();
     agent.join();
 
-    Mockito.verify(handler).handle(newVal);
+    Assert.assertThat(agent.getError(), IsNull.nullValue());
+  }
+
+  @Test
+  public void consumeVirtual() throws Exception {
+    MessageHandler<Integer> handler = Mockito.mock(MessageHandler.class);
+    agent.registerHandler(Integer.class, handler);
+    agent.setThreadType(ThreadType.VIRTUAL); // platform if not supported
+
+    agent.setup();
+    agent.start();
+    agent.submitMessage(3);
+    Mockito.verify(handler, Mockito.timeout(5000)).handle(3);
+    agent.stop();
+    agent.join();
+
     Assert.assertThat(agent.getError(), IsNull.nullValue());
   }
 }
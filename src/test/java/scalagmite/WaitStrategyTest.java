@@ -0,0 +1,95 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class WaitStrategyTest {
+
+  private static final int MESSAGES = 1000;
+
+  @Test
+  public void threadAgent() throws Exception {
+    for (WaitStrategy strategy : WaitStrategy.values()) {
+      final CountDownLatch handled = new CountDownLatch(MESSAGES);
+      ThreadAgent agent = new ThreadAgent(strategy.name());
+      agent.setRouter(Mockito.mock(Router.class));
+      agent.setWaitStrategy(strategy);
+      agent.registerHandler(Integer.class, new MessageHandler<Integer>() {
+        public void handle(Integer message) throws Exception {
+          handled.countDown();
+        }
+      });
+      agent.setup();
+      agent.start();
+
+      for (int i = 0; i < MESSAGES; ++i) {
+        agent.submitMessage(i);
+        if (i % 100 == 0) {
+          // Let the agent find its mailbox empty
+          Thread.sleep(1);
+        }
+      }
+      Assert.assertTrue(strategy.name(), handled.await(5, TimeUnit.SECONDS));
+      agent.stop();
+      agent.join();
+    }
+  }
+
+  @Test
+  public void workers() throws Exception {
+    for (WaitStrategy strategy : WaitStrategy.values()) {
+      Configuration config = Mockito.mock(Configuration.class);
+      Mockito.when(config.getNumberOfThreads()).thenReturn(2);
+      Mockito.when(config.getSchedulerWaitStrategy()).thenReturn(strategy);
+      Scheduler scheduler = new Scheduler(new Provider<Worker>() {
+        public Worker get() {
+          return new WorkerImpl();
+        }
+      }, config);
+      scheduler.start();
+
+      final CountDownLatch handled = new CountDownLatch(MESSAGES);
+      SchedulableAgent agent = new SchedulableAgent(strategy.name());
+      agent.setRouter(Mockito.mock(Router.class));
+      agent.setScheduler(scheduler);
+      agent.registerHandler(Integer.class, new MessageHandler<Integer>() {
+        public void handle(Integer message) throws Exception {
+          handled.countDown();
+        }
+      });
+      for (int i = 0; i < MESSAGES; ++i) {
+        agent.submitMessage(i);
+      }
+
+      Assert.assertTrue(strategy.name(), handled.await(5, TimeUnit.SECONDS));
+      scheduler.stop();
+      scheduler.join();
+    }
+  }
+}
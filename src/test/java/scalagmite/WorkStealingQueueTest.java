@@ -0,0 +1,231 @@
+package scalagmite;
+
+/*
+ * #%L
+ * Scalagmite
+ * %%
+ * Copyright (C) 2012 Gerard Dethier
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class WorkStealingQueueTest {
+
+  private WorkStealingQueue queue;
+
+  private WorkerQueue first;
+
+  private WorkerQueue second;
+
+  @Before
+  public void before() {
+    queue = new WorkStealingQueue();
+    first = queue.newWorkerView();
+    second = queue.newWorkerView();
+  }
+
+  @Test
+  public void externalPutsAreSpread() throws InterruptedException {
+    Slot slot1 = new Slot(Mockito.mock(SchedulableAgent.class));
+    Slot slot2 = new Slot(Mockito.mock(SchedulableAgent.class));
+    queue.put(slot1);
+    queue.put(slot2);
+
+    Assert.assertThat(first.take(), Is.is(slot1));
+    Assert.assertThat(second.take(), Is.is(slot2));
+  }
+
+  @Test
+  public void steal() throws InterruptedException {
+    Slot slot1 = new Slot(Mockito.mock(SchedulableAgent.class));
+    Slot slot2 = new Slot(Mockito.mock(SchedulableAgent.class));
+    queue.put(slot1);
+    queue.put(slot2);
+
+    Assert.assertThat(second.take(), Is.is(slot2));
+    Assert.assertThat(second.take(), Is.is(slot1));
+  }
+
+  @Test
+  public void workerPutsAreLocal() throws InterruptedException {
+    final Slot slot1 = new Slot(Mockito.mock(SchedulableAgent.class));
+    final Slot slot2 = new Slot(Mockito.mock(SchedulableAgent.class));
+    final Slot slot3 = new Slot(Mockito.mock(SchedulableAgent.class));
+    queue.put(slot1);
+
+    Thread worker = new Thread() {
+      @Override
+      public void run() {
+        try {
+          first.take(); // binds thread to first worker
+          first.put(slot2);
+          first.put(slot3);
+        } catch (InterruptedException e) {
+          // Test fails below
+        }
+      }
+    };
+    worker.start();
+    worker.join();
+
+    // Both slots are in first worker's deque, second worker steals the tail
+    Assert.assertThat(second.take(), Is.is(slot3));
+    Assert.assertThat(first.take(), Is.is(slot2));
+  }
+
+  @Test
+  public void blockingTake() throws InterruptedException {
+    final Slot slot = new Slot(Mockito.mock(SchedulableAgent.class));
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+          queue.put(slot);
+        } catch (InterruptedException e) {
+          // Test blocks below
+        }
+      }
+    };
+    producer.start();
+
+    Assert.assertThat(second.take(), Is.is(slot));
+  }
+
+  @Test
+  public void preferLastWorker() throws InterruptedException {
+    Slot slot = new Slot(Mockito.mock(SchedulableAgent.class));
+    slot.setPreferLastWorker(true);
+    slot.setLastWorker(1);
+    // Without affinity, the slot would go to the first worker
+    queue.put(slot);
+    Slot other = new Slot(Mockito.mock(SchedulableAgent.class));
+    queue.put(other);
+
+    Assert.assertThat(first.take(), Is.is(other));
+    Assert.assertThat(second.take(), Is.is(slot));
+    Assert.assertThat(other.getLastWorker(), Is.is(0));
+  }
+
+  @Test
+  public void pinCurrentThread() throws InterruptedException {
+    Assume.assumeTrue(CpuAffinity.isSupported());
+    Assume.assumeTrue(new File("/usr/bin/taskset").exists()
+        || new File("/bin/taskset").exists());
+    final boolean[] pinned = new boolean[1];
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        pinned[0] = CpuAffinity.pinCurrentThread(0);
+      }
+    };
+    thread.start();
+    thread.join();
+    Assert.assertThat(pinned[0], Is.is(true));
+  }
+
+  @Test(timeout = 5000)
+  public void pinnedSlotsAreNotStolen() throws InterruptedException {
+    final Slot pinned = new Slot(Mockito.mock(SchedulableAgent.class));
+    pinned.setWorkers(new int[] { 1 });
+    final Slot free = new Slot(Mockito.mock(SchedulableAgent.class));
+    queue.put(pinned);
+    queue.put(free);
+
+    Assert.assertThat(first.take(), Is.is(free));
+    Assert.assertThat(second.take(), Is.is(pinned));
+  }
+
+  @Test(timeout = 5000)
+  public void pinnedSlotWakesItsWorker() throws InterruptedException {
+    final Slot pinned = new Slot(Mockito.mock(SchedulableAgent.class));
+    pinned.setWorkers(new int[] { 1 });
+    final Slot[] taken = new Slot[2];
+    Thread firstWorker = new Thread() {
+      @Override
+      public void run() {
+        try {
+          taken[0] = first.take();
+        } catch (InterruptedException e) {
+          // Checked below
+        }
+      }
+    };
+    Thread secondWorker = new Thread() {
+      @Override
+      public void run() {
+        try {
+          taken[1] = second.take();
+        } catch (InterruptedException e) {
+          // Checked below
+        }
+      }
+    };
+    firstWorker.start();
+    secondWorker.start();
+    Thread.sleep(50);
+
+    queue.put(pinned);
+    secondWorker.join();
+    Assert.assertThat(taken[1], Is.is(pinned));
+
+    Slot free = new Slot(Mockito.mock(SchedulableAgent.class));
+    queue.put(free);
+    firstWorker.join();
+    Assert.assertThat(taken[0], Is.is(free));
+  }
+
+  @Test
+  public void parseCpus() {
+    Assert.assertThat(CpuAffinity.parse("0-2, 5,7"),
+        Is.is(new int[] { 0, 1, 2, 5, 7 }));
+    Assert.assertThat(CpuAffinity.parse("").length, Is.is(0));
+  }
+
+  @Test
+  public void pollTimesOut() throws InterruptedException {
+    Assert.assertNull(first.poll(10, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void releasedViewIsReused() throws InterruptedException {
+    Slot slot = new Slot(Mockito.mock(SchedulableAgent.class));
+    queue.put(new Slot(Mockito.mock(SchedulableAgent.class)));
+    queue.put(slot);
+    second.release();
+    Assert.assertThat(queue.getNumOfWorkers(), Is.is(1));
+
+    // External puts skip the released view, its slots can still be stolen
+    Slot next = new Slot(Mockito.mock(SchedulableAgent.class));
+    queue.put(next);
+    first.take();
+    first.take();
+    Assert.assertThat(first.take(), Is.is(slot));
+
+    Assert.assertSame(second, queue.newWorkerView());
+    Assert.assertThat(queue.getNumOfWorkers(), Is.is(2));
+  }
+}